@@ -0,0 +1,143 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.support.v4.media.MediaMetadataCompat;
+import android.util.Log;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the columnar ingestion in {@link SongColumns} with the row by row loop
+ * {@link SongLoadTask} used before it, on a synthetic 100k rows cursor. Timings are written to
+ * the log, under the {@link #TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SongColumnsBenchmark {
+
+    private static final String TAG = "SongColumnsBenchmark";
+    private static final int ROWS = 100_000;
+    private static final int RUNS = 3;
+
+    // Some of the extra columns a null projection returns.
+    private static final String[] EXTRA_COLUMNS = {
+            MediaStore.Audio.Media.DATA,
+            MediaStore.Audio.Media.DISPLAY_NAME,
+            MediaStore.Audio.Media.MIME_TYPE,
+            MediaStore.Audio.Media.SIZE,
+            MediaStore.Audio.Media.YEAR,
+            MediaStore.Audio.Media.TRACK
+    };
+
+    @Test
+    public void compareWithLegacyLoop() {
+        // Warm up both paths before measuring.
+        loadLegacy(buildCursor(1000));
+        loadColumnar(buildCursor(1000));
+
+        long legacy = Long.MAX_VALUE;
+        long columnar = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            Cursor cursor = buildCursor(ROWS);
+            long start = System.nanoTime();
+            List<Song> legacySongs = loadLegacy(cursor);
+            legacy = Math.min(legacy, System.nanoTime() - start);
+
+            cursor = buildCursor(ROWS);
+            start = System.nanoTime();
+            List<Song> columnarSongs = loadColumnar(cursor);
+            columnar = Math.min(columnar, System.nanoTime() - start);
+
+            assertEquals(legacySongs, columnarSongs);
+        }
+        Log.i(TAG, String.format("%d rows: legacy %d ms, columnar %d ms",
+                ROWS, legacy / 1_000_000, columnar / 1_000_000));
+    }
+
+    /**
+     * @param rows Number of rows.
+     * @return A cursor with the columns a null projection would return.
+     */
+    private static Cursor buildCursor(int rows) {
+        String[] columns = new String[SongColumns.PROJECTION.length + EXTRA_COLUMNS.length];
+        System.arraycopy(SongColumns.PROJECTION, 0, columns, 0, SongColumns.PROJECTION.length);
+        System.arraycopy(EXTRA_COLUMNS, 0, columns, SongColumns.PROJECTION.length,
+                EXTRA_COLUMNS.length);
+
+        MatrixCursor cursor = new MatrixCursor(columns, rows);
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow(new Object[]{
+                    (long) i,
+                    "Title " + i,
+                    "Album " + (i / 12),
+                    "Artist " + (i / 120),
+                    180_000L + i,
+                    1_600_000_000L + i,
+                    1_600_000_000L + i,
+                    "/storage/emulated/0/Music/" + i + ".mp3",
+                    i + ".mp3",
+                    "audio/mpeg",
+                    5_000_000L,
+                    2000 + (i % 20),
+                    i % 12 + 1
+            });
+        }
+        return cursor;
+    }
+
+    /**
+     * @param cursor The cursor to read.
+     * @return The songs, read through {@link SongColumns}.
+     */
+    private static List<Song> loadColumnar(Cursor cursor) {
+        List<Song> songs = new ArrayList<>(cursor.getCount());
+        SongColumns columns = new SongColumns(cursor);
+        cursor.moveToPosition(-1);
+        while (columns.read(cursor, SongLoadTask.BATCH_SIZE) > 0) {
+            columns.materializeAll(songs);
+            columns.clear();
+        }
+        return songs;
+    }
+
+    /**
+     * The loop {@link SongLoadTask} used before {@link SongColumns}.
+     *
+     * @param cursor The cursor to read.
+     * @return The songs.
+     */
+    private static List<Song> loadLegacy(Cursor cursor) {
+        List<Song> songs = new ArrayList<>(cursor.getCount());
+        MediaMetadataCompat.Builder builder = new MediaMetadataCompat.Builder();
+        cursor.moveToFirst();
+        do {
+            Uri uri = ContentUris.withAppendedId(
+                    MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                    Long.parseLong(cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media._ID)))
+            );
+            builder.putString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI, String.valueOf(uri));
+            for (String key : cursor.getColumnNames()) {
+                String metaKey = Song.MEDIA_TO_META.get(key);
+                if (metaKey == null)
+                    continue;
+                builder.putString(metaKey, cursor.getString(cursor.getColumnIndex(key)));
+            }
+            builder.putLong(MediaMetadataCompat.METADATA_KEY_DURATION, cursor.getLong(cursor.getColumnIndex(MediaStore.Audio.Media.DURATION)));
+            builder.putLong(Song.METADATA_KEY_DATE_ADDED, cursor.getLong(cursor.getColumnIndex(MediaStore.Audio.Media.DATE_ADDED)));
+            builder.putLong(Song.METADATA_KEY_DATE_MODIFIED, cursor.getLong(cursor.getColumnIndex(MediaStore.Audio.Media.DATE_MODIFIED)));
+            songs.add(Song.from(builder.build()));
+        } while (cursor.moveToNext());
+        return songs;
+    }
+}
@@ -65,6 +65,7 @@ public class PlayerClient extends MediaControllerCompat.Callback {
                         mediaController.registerCallback(PlayerClient.this);
                         PlayerClient.this.onMetadataChanged(mediaController.getMetadata());
                         PlayerClient.this.onPlaybackStateChanged(mediaController.getPlaybackState());
+                        PlayerClient.this.onQueueChanged(mediaController.getQueue());
                     }
 
                     @Override
@@ -200,6 +201,83 @@ public class PlayerClient extends MediaControllerCompat.Callback {
         mediaController.getTransportControls().skipToPrevious();
     }
 
+    /**
+     * Queue Songs to be played right after the current one. All the Songs are sent at once.
+     *
+     * @param songs The Songs to queue, in order.
+     */
+    public void playNext(@NonNull List<Song> songs) {
+        sendQueueAction(PlayerWrapper.ACTION_PLAY_NEXT, songs);
+    }
+
+    /**
+     * Queue Songs to be played after all the queued ones. All the Songs are sent at once.
+     *
+     * @param songs The Songs to queue, in order.
+     */
+    public void addToQueue(@NonNull List<Song> songs) {
+        sendQueueAction(PlayerWrapper.ACTION_ADD_TO_QUEUE, songs);
+    }
+
+    /**
+     * Move a queue item.
+     *
+     * @param queueId The queue id of the item.
+     * @param index   The index of the item in the queue after the move.
+     */
+    public void moveQueueItem(long queueId, int index) {
+        if (mediaController == null)
+            return;
+
+        Bundle extras = new Bundle();
+        extras.putLong(PlayerWrapper.EXTRA_QUEUE_ID, queueId);
+        extras.putInt(PlayerWrapper.EXTRA_INDEX, index);
+        mediaController.getTransportControls().sendCustomAction(
+                PlayerWrapper.ACTION_MOVE_QUEUE_ITEM, extras);
+    }
+
+    /**
+     * Remove the first queue item of a Song that has not been played yet.
+     *
+     * @param song The Song.
+     */
+    public void removeFromQueue(@NonNull Song song) {
+        if (mediaController == null)
+            return;
+
+        mediaController.removeQueueItem(song.getMetadata().getDescription());
+    }
+
+    /**
+     * Play a queue item.
+     *
+     * @param queueId The queue id of the item.
+     */
+    public void skipToQueueItem(long queueId) {
+        if (mediaController == null)
+            return;
+
+        mediaController.getTransportControls().skipToQueueItem(queueId);
+    }
+
+    /**
+     * Send one of the custom actions queuing Songs, with their ids packed in an array.
+     *
+     * @param action The action.
+     * @param songs  The Songs.
+     */
+    private void sendQueueAction(@NonNull String action, @NonNull List<Song> songs) {
+        if (mediaController == null || songs.isEmpty())
+            return;
+
+        long[] ids = new long[songs.size()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = songs.get(i).getMediaStoreId();
+        Bundle extras = new Bundle();
+        extras.putLongArray(PlayerWrapper.EXTRA_SONG_IDS, ids);
+        mediaController.getTransportControls().sendCustomAction(action, extras);
+    }
+
     // ? Overrides for controller callback.
 
     @Override
@@ -340,6 +418,14 @@ public class PlayerClient extends MediaControllerCompat.Callback {
         return (mediaController == null) ? null : mediaController.getPlaybackState();
     }
 
+    /**
+     * @return The published part of the queue, around the next item. Null if not connected.
+     */
+    @Nullable
+    public List<MediaSessionCompat.QueueItem> getQueue() {
+        return (mediaController == null) ? null : mediaController.getQueue();
+    }
+
     public abstract static class Observer extends MediaControllerCompat.Callback {
     }
 }
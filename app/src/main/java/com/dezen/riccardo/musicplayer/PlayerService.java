@@ -71,6 +71,8 @@ public class PlayerService extends MediaBrowserServiceCompat {
                 new Intent(this, MainActivity.class),
                 0
         ));
+        // Queue items are added and removed by the controllers.
+        mediaSession.setFlags(MediaSessionCompat.FLAG_HANDLES_QUEUE_COMMANDS);
         // Set the token for this Service. Allows finding the Session from outside.
         setSessionToken(mediaSession.getSessionToken());
         player = new PlayerWrapper(this);
@@ -7,19 +7,27 @@ import android.content.IntentFilter;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.os.Bundle;
+import android.support.v4.media.MediaDescriptionCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import com.dezen.riccardo.musicplayer.song.LibraryVersion;
 import com.dezen.riccardo.musicplayer.song.PlayList;
+import com.dezen.riccardo.musicplayer.song.PlayQueue;
+import com.dezen.riccardo.musicplayer.song.ShuffleOrder;
 import com.dezen.riccardo.musicplayer.song.Song;
 import com.dezen.riccardo.musicplayer.song.SongManager;
 import com.dezen.riccardo.musicplayer.utils.NotificationHelper;
 import com.dezen.riccardo.musicplayer.utils.Utils;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class PlayerWrapper extends MediaSessionCompat.Callback {
 
@@ -31,9 +39,37 @@ public class PlayerWrapper extends MediaSessionCompat.Callback {
             PlaybackStateCompat.ACTION_SKIP_TO_NEXT,
             PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS,
             PlaybackStateCompat.ACTION_SET_SHUFFLE_MODE,
-            PlaybackStateCompat.ACTION_SET_REPEAT_MODE
+            PlaybackStateCompat.ACTION_SET_REPEAT_MODE,
+            PlaybackStateCompat.ACTION_SKIP_TO_QUEUE_ITEM
     };
 
+    /**
+     * Custom action queuing Songs right after the current one. The MediaStore ids of the Songs
+     * are in {@link #EXTRA_SONG_IDS}.
+     */
+    public static final String ACTION_PLAY_NEXT = PlayerWrapper.class.getName() + ".PLAY_NEXT";
+    /**
+     * Custom action queuing Songs after all the queued ones. The MediaStore ids of the Songs are
+     * in {@link #EXTRA_SONG_IDS}.
+     */
+    public static final String ACTION_ADD_TO_QUEUE =
+            PlayerWrapper.class.getName() + ".ADD_TO_QUEUE";
+    /**
+     * Custom action moving a queue item, given by {@link #EXTRA_QUEUE_ID}, to the index in the
+     * published queue given by {@link #EXTRA_INDEX}: the item takes the place of the one
+     * published there.
+     */
+    public static final String ACTION_MOVE_QUEUE_ITEM =
+            PlayerWrapper.class.getName() + ".MOVE_QUEUE_ITEM";
+    public static final String EXTRA_SONG_IDS = PlayerWrapper.class.getName() + ".SONG_IDS";
+    public static final String EXTRA_QUEUE_ID = PlayerWrapper.class.getName() + ".QUEUE_ID";
+    public static final String EXTRA_INDEX = PlayerWrapper.class.getName() + ".INDEX";
+
+    // Queue items published to the session before and after the next one. The whole queue is
+    // never sent, as it may hold thousands of Songs.
+    private static final int QUEUE_WINDOW_BEFORE = 16;
+    private static final int QUEUE_WINDOW_AFTER = 100;
+
     private static final IntentFilter noisyFilter = new IntentFilter(
             AudioManager.ACTION_AUDIO_BECOMING_NOISY
     );
@@ -42,6 +78,17 @@ public class PlayerWrapper extends MediaSessionCompat.Callback {
     private String currentSongId;
     // Current PlayList.
     private PlayList currentPlayList;
+    // Shuffled order of the current PlayList, null if shuffle is off.
+    private ShuffleOrder shuffleOrder;
+    // Last Song played from the current PlayList, playback goes on from it after the queue.
+    private String playListSongId;
+    // Songs queued by the user, played before going on with the PlayList.
+    private final PlayQueue playQueue = new PlayQueue();
+    // Queue id of the current Song, UNKNOWN_ID if it was not played from the queue.
+    private long activeQueueId = MediaSessionCompat.QueueItem.UNKNOWN_ID;
+    // Queue ids and Songs of the published items, in order.
+    private long[] publishedQueueIds = new long[0];
+    private Song[] publishedSongs = new Song[0];
 
     // TODO store in shared preferences and init with a default.
     private int repeatMode = PlaybackStateCompat.REPEAT_MODE_NONE;
@@ -67,6 +114,9 @@ public class PlayerWrapper extends MediaSessionCompat.Callback {
     private SongManager.PlayListObserver playListObserver = (newPL) -> {
         synchronized (PlayerWrapper.this) {
             currentPlayList = newPL;
+            // The order keeps what was played, and follows edits of the PlayList by itself.
+            if (shuffleOrder != null)
+                shuffleOrder.setPlayList(newPL);
         }
     };
 
@@ -75,7 +125,7 @@ public class PlayerWrapper extends MediaSessionCompat.Callback {
     // Repeat all -> Just skip. SHUFFLE COMPATIBLE.
     private final MediaPlayer.OnCompletionListener repeatAllListener = (mp) -> onSkipToNext();
     // Repeat one -> Play the same media again. NO SHUFFLE.
-    private final MediaPlayer.OnCompletionListener repeatOneListener = (mp) -> onPlayFromMediaId(currentSongId, null);
+    private final MediaPlayer.OnCompletionListener repeatOneListener = (mp) -> replay();
 
     /**
      * Construct a Player for a certain Service, it retrieves the contents of the SongManager for
@@ -109,6 +159,7 @@ public class PlayerWrapper extends MediaSessionCompat.Callback {
         this.session.setPlaybackState(playbackStateBuilder.build());
         this.session.setRepeatMode(this.repeatMode);
         this.session.setShuffleMode(this.shuffleMode);
+        this.session.setQueue(new ArrayList<>());
     }
 
     /**
@@ -127,26 +178,120 @@ public class PlayerWrapper extends MediaSessionCompat.Callback {
         if (song == null)
             return;
 
-        // Start (or restart) the Service.
-        service.startService(new Intent(service, PlayerService.class));
-
         // Return if the song cannot be played.
-        if (!play(song))
+        if (!start(song, MediaSessionCompat.QueueItem.UNKNOWN_ID))
             return;
 
-        // Receiver for pausing when becoming noisy.
-        service.registerReceiver(noisyReceiver, noisyFilter);
+        playListSongId = mediaId;
+        if (shuffleOrder != null)
+            shuffleOrder.jumpTo(mediaId);
+    }
 
-        // Set the Media Session as active.
-        session.setActive(true);
+    /**
+     * Play a queued Song. The queue items before it are considered played.
+     *
+     * @param id The queue id of the item.
+     */
+    @Override
+    public synchronized void onSkipToQueueItem(long id) {
+        super.onSkipToQueueItem(id);
+        long songId = playQueue.skipTo(id);
+        if (songId == PlayQueue.NO_SONG)
+            return;
+        Song song = songManager.getLibraryVersion().get(songId);
+        if (song == null || !start(song, id))
+            onSkipToNext();
+        publishQueue();
+    }
 
-        currentSongId = mediaId;
+    /**
+     * Queue a Song after all the queued ones.
+     *
+     * @param description The description of the Song, only its media id is used.
+     */
+    @Override
+    public synchronized void onAddQueueItem(MediaDescriptionCompat description) {
+        super.onAddQueueItem(description);
+        long id = Song.parseId(description.getMediaId());
+        if (songManager.getLibraryVersion().get(id) == null)
+            return;
+        playQueue.add(new long[]{id});
+        publishQueue();
+    }
 
-        // Put the Service in the foreground.
-        service.startForeground(
-                PlayerService.NOTIFICATION_ID,
-                service.getNotification()
-        );
+    /**
+     * Queue a Song at an index.
+     *
+     * @param description The description of the Song, only its media id is used.
+     * @param index       The index in the published queue, which is a window of the whole one.
+     *                      The Song goes before the item published there, or after the last one.
+     */
+    @Override
+    public synchronized void onAddQueueItem(MediaDescriptionCompat description, int index) {
+        super.onAddQueueItem(description, index);
+        long id = Song.parseId(description.getMediaId());
+        if (songManager.getLibraryVersion().get(id) == null)
+            return;
+        int queueIndex;
+        if (publishedQueueIds.length == 0)
+            queueIndex = playQueue.getPosition();
+        else if (index < publishedQueueIds.length)
+            queueIndex = queueIndexOf(Math.max(0, index));
+        else {
+            int last = queueIndexOf(publishedQueueIds.length - 1);
+            queueIndex = (last < 0) ? -1 : last + 1;
+        }
+        if (queueIndex < 0)
+            return;
+        playQueue.insert(queueIndex, new long[]{id});
+        publishQueue();
+    }
+
+    /**
+     * Remove the first queue item of a Song that has not been played yet.
+     *
+     * @param description The description of the Song, only its media id is used.
+     */
+    @Override
+    public synchronized void onRemoveQueueItem(MediaDescriptionCompat description) {
+        super.onRemoveQueueItem(description);
+        if (playQueue.removeSong(Song.parseId(description.getMediaId())))
+            publishQueue();
+    }
+
+    /**
+     * Handle the queue actions that MediaSession does not provide: {@link #ACTION_PLAY_NEXT},
+     * {@link #ACTION_ADD_TO_QUEUE} and {@link #ACTION_MOVE_QUEUE_ITEM}. Any number of Songs is
+     * queued with a single call.
+     *
+     * @param action The action.
+     * @param extras The arguments of the action.
+     */
+    @Override
+    public synchronized void onCustomAction(String action, Bundle extras) {
+        super.onCustomAction(action, extras);
+        if (extras == null)
+            return;
+        if (ACTION_PLAY_NEXT.equals(action) || ACTION_ADD_TO_QUEUE.equals(action)) {
+            long[] ids = inLibrary(extras.getLongArray(EXTRA_SONG_IDS));
+            if (ids.length == 0)
+                return;
+            if (ACTION_PLAY_NEXT.equals(action))
+                playQueue.playNext(ids);
+            else
+                playQueue.add(ids);
+        } else if (ACTION_MOVE_QUEUE_ITEM.equals(action)) {
+            if (publishedQueueIds.length == 0)
+                return;
+            int index = Math.max(0, Math.min(publishedQueueIds.length - 1,
+                    extras.getInt(EXTRA_INDEX)));
+            int queueIndex = queueIndexOf(index);
+            if (queueIndex < 0 || !playQueue.move(extras.getLong(EXTRA_QUEUE_ID), queueIndex))
+                return;
+        } else {
+            return;
+        }
+        publishQueue();
     }
 
     /**
@@ -206,17 +351,21 @@ public class PlayerWrapper extends MediaSessionCompat.Callback {
     }
 
     /**
-     * Skip to the next Song. If shuffle mode is active, will go to a random song.
+     * Skip to the next Song. If shuffle mode is active, will go to the next Song in the shuffled
+     * order.
      */
     @Override
     public synchronized void onSkipToNext() {
         super.onSkipToNext();
 
-        if (currentSongId == null || currentPlayList.isEmpty())
+        if (playNextQueued())
             return;
 
-        Song song = (shuffleMode == PlaybackStateCompat.SHUFFLE_MODE_ALL) ?
-                currentPlayList.random(currentSongId) : currentPlayList.next(currentSongId);
+        if (playListSongId == null || currentPlayList.isEmpty())
+            return;
+
+        Song song = (shuffleOrder != null) ?
+                shuffleOrder.next() : currentPlayList.next(playListSongId);
         if (song == null)
             return;
 
@@ -228,29 +377,34 @@ public class PlayerWrapper extends MediaSessionCompat.Callback {
      * TODO Does it make sense to skip only in linear mode? Ignoring shuffle?
      */
     public synchronized void onSkipNoLoop() {
-        if (currentSongId == null || currentPlayList.isEmpty())
+        if (playNextQueued())
+            return;
+
+        if (playListSongId == null || currentPlayList.isEmpty())
             return;
 
         // If next song == first, stop, otherwise, play it.
-        Song next = currentPlayList.next(currentSongId);
-        if (next == null || next.getId().equals(currentPlayList.get(0).getId()))
+        Song next = currentPlayList.next(playListSongId);
+        if (next == null ||
+                next.getMediaStoreId() == currentPlayList.get(0).getMediaStoreId())
             stop();
         else
             onPlayFromMediaId(next.getId(), null);
     }
 
     /**
-     * TODO save history of songs to go back during shuffle.
-     * Skip to the previous Song.
+     * Skip to the previous Song. If shuffle mode is active, will go back to the Song played
+     * before, as long as it is still in the shuffle history.
      */
     @Override
     public synchronized void onSkipToPrevious() {
         super.onSkipToPrevious();
 
-        if (currentSongId == null || currentPlayList.isEmpty())
+        if (playListSongId == null || currentPlayList.isEmpty())
             return;
 
-        Song song = currentPlayList.previous(currentSongId);
+        Song song = (shuffleOrder != null) ?
+                shuffleOrder.previous() : currentPlayList.previous(playListSongId);
         if (song == null)
             return;
 
@@ -263,9 +417,10 @@ public class PlayerWrapper extends MediaSessionCompat.Callback {
      * @param repeatMode The repeat mode. Currently manages only NONE, ONE and ALL.
      */
     @Override
-    public void onSetRepeatMode(int repeatMode) {
+    public synchronized void onSetRepeatMode(int repeatMode) {
         super.onSetRepeatMode(repeatMode);
         this.shuffleMode = PlaybackStateCompat.SHUFFLE_MODE_NONE;
+        this.shuffleOrder = null;
         this.repeatMode = repeatMode;
         switch (repeatMode) {
             case PlaybackStateCompat.REPEAT_MODE_ONE:
@@ -283,14 +438,23 @@ public class PlayerWrapper extends MediaSessionCompat.Callback {
 
     /**
      * TODO other modes. Should I keep setting repeat to NONE?
+     * In shuffle mode, playback goes on through the shuffled order, which is reshuffled every time
+     * all the Songs have been played.
      *
      * @param shuffleMode The shuffle mode. Currently manages only NONE and ALL.
      */
     @Override
-    public void onSetShuffleMode(int shuffleMode) {
+    public synchronized void onSetShuffleMode(int shuffleMode) {
         super.onSetShuffleMode(shuffleMode);
         this.repeatMode = PlaybackStateCompat.REPEAT_MODE_NONE;
         this.shuffleMode = shuffleMode;
+        if (shuffleMode == PlaybackStateCompat.SHUFFLE_MODE_ALL) {
+            shuffleOrder = new ShuffleOrder(currentPlayList, playListSongId);
+            mediaPlayer.setOnCompletionListener(repeatAllListener);
+        } else {
+            shuffleOrder = null;
+            mediaPlayer.setOnCompletionListener(noRepeatListener);
+        }
         session.setRepeatMode(this.repeatMode);
         session.setShuffleMode(this.shuffleMode);
     }
@@ -323,6 +487,139 @@ public class PlayerWrapper extends MediaSessionCompat.Callback {
         service = null;
     }
 
+    /**
+     * Play a Song and bring the Service to the foreground.
+     *
+     * @param song    The Song to play.
+     * @param queueId The queue id of the Song, {@link MediaSessionCompat.QueueItem#UNKNOWN_ID} if
+     *                it is not played from the queue.
+     * @return True if the Song is playing, false if it could not be played.
+     */
+    private synchronized boolean start(@NonNull Song song, long queueId) {
+        // Start (or restart) the Service.
+        service.startService(new Intent(service, PlayerService.class));
+
+        playbackStateBuilder.setActiveQueueItemId(queueId);
+        if (!play(song))
+            return false;
+
+        // Receiver for pausing when becoming noisy.
+        service.registerReceiver(noisyReceiver, noisyFilter);
+
+        // Set the Media Session as active.
+        session.setActive(true);
+
+        currentSongId = song.getId();
+        activeQueueId = queueId;
+        songManager.recordPlay(song);
+
+        // Put the Service in the foreground.
+        service.startForeground(
+                PlayerService.NOTIFICATION_ID,
+                service.getNotification()
+        );
+        return true;
+    }
+
+    /**
+     * Play the current Song again, whether it came from the PlayList or from the queue.
+     */
+    private synchronized void replay() {
+        if (currentSongId == null)
+            return;
+        Song song = songManager.getLibraryVersion().get(Song.parseId(currentSongId));
+        if (song != null)
+            start(song, activeQueueId);
+    }
+
+    /**
+     * Play the next queued Song, skipping the ones no longer in the library.
+     *
+     * @return True if a queued Song is playing, false if the queue is over.
+     */
+    private synchronized boolean playNextQueued() {
+        boolean playing = false;
+        while (!playing && playQueue.hasNext()) {
+            Song song = songManager.getLibraryVersion().get(playQueue.next());
+            playing = song != null && start(song, playQueue.getLastQueueId());
+        }
+        publishQueue();
+        return playing;
+    }
+
+    /**
+     * @param publishedIndex An index in the published queue.
+     * @return The index in the queue of the item published there, -1 if it is no longer queued.
+     * Items left out of the published queue can be in between, so published indexes can not be
+     * offset into the queue.
+     */
+    private synchronized int queueIndexOf(int publishedIndex) {
+        return playQueue.indexOf(publishedQueueIds[publishedIndex]);
+    }
+
+    /**
+     * @param ids Some MediaStore ids, may be null.
+     * @return The ids of Songs in the library, in the same order.
+     */
+    @NonNull
+    private long[] inLibrary(@Nullable long[] ids) {
+        if (ids == null)
+            return new long[0];
+        LibraryVersion library = songManager.getLibraryVersion();
+        long[] valid = new long[ids.length];
+        int count = 0;
+        for (long id : ids)
+            if (library.get(id) != null)
+                valid[count++] = id;
+        return (count == ids.length) ? ids : Arrays.copyOf(valid, count);
+    }
+
+    /**
+     * Publish the part of the queue around the next item to the session. Items whose Song is no
+     * longer in the library are left out. Nothing is sent if the same Songs would be published
+     * with the same queue ids.
+     */
+    private synchronized void publishQueue() {
+        int from = Math.max(0, playQueue.getPosition() - QUEUE_WINDOW_BEFORE);
+        LibraryVersion library = songManager.getLibraryVersion();
+        List<PlayQueue.Entry> window = playQueue.getWindow(from,
+                QUEUE_WINDOW_BEFORE + QUEUE_WINDOW_AFTER);
+        long[] queueIds = new long[window.size()];
+        Song[] songs = new Song[window.size()];
+        int count = 0;
+        for (PlayQueue.Entry entry : window) {
+            Song song = library.get(entry.getSongId());
+            if (song != null) {
+                queueIds[count] = entry.getQueueId();
+                songs[count++] = song;
+            }
+        }
+        queueIds = Arrays.copyOf(queueIds, count);
+        songs = Arrays.copyOf(songs, count);
+        // Songs are compared by instance, so that edited metadata is published again.
+        if (Arrays.equals(queueIds, publishedQueueIds) && sameInstances(songs, publishedSongs))
+            return;
+        List<MediaSessionCompat.QueueItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            items.add(new MediaSessionCompat.QueueItem(songs[i].getMetadata().getDescription(),
+                    queueIds[i]));
+        publishedQueueIds = queueIds;
+        publishedSongs = songs;
+        session.setQueue(items);
+    }
+
+    /**
+     * @param a Some Songs.
+     * @param b Other Songs, as many.
+     * @return True if the two hold the same instances, in the same order.
+     */
+    private static boolean sameInstances(@NonNull Song[] a, @NonNull Song[] b) {
+        for (int i = 0; i < a.length; i++)
+            if (a[i] != b[i])
+                return false;
+        return true;
+    }
+
     /**
      * Prepare new song and play.
      *
@@ -7,21 +7,29 @@ import android.os.Looper;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
-import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.widget.SearchView;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.dezen.riccardo.musicplayer.song.LibraryDiff;
 import com.dezen.riccardo.musicplayer.song.PlayList;
+import com.dezen.riccardo.musicplayer.song.SearchExecutor;
+import com.dezen.riccardo.musicplayer.song.SearchHit;
 import com.dezen.riccardo.musicplayer.song.Song;
 import com.dezen.riccardo.musicplayer.song.SongManager;
+import com.dezen.riccardo.musicplayer.song.SortOrder;
 import com.dezen.riccardo.musicplayer.utils.Utils;
+import com.dezen.riccardo.musicplayer.widget.QueryTextView;
 
 /**
  * Fragment displaying the song list for the app.
@@ -36,21 +44,22 @@ public class SongListFragment extends Fragment {
 
     private PlayerClient playerClient;
     private SongManager songManager;
+    private SearchExecutor searchExecutor;
     private RecyclerView songsRecycler;
 
     // PlayList is empty. Will be loaded when the Manager is available.
     private PlayList library = new PlayList();
-    private String currentSong;
+    // The Songs in the list: the library, or the results of the query.
+    private PlayList shown = library;
+    // The results being shown, with the matches to highlight. Null when showing the library.
+    private SearchExecutor.Result results;
+    private String query = "";
+    // The MediaStore id of the current Song, -1 if none. Compared with every bound row.
+    private long currentSong = -1;
     private Integer previousItem;
     private Integer currentItem;
     private int currentState = 0;
 
-    // Runnable to update recycler.
-    private final Runnable updateRecycler = () -> {
-        if (songsRecycler != null && songsRecycler.getAdapter() != null)
-            songsRecycler.getAdapter().notifyDataSetChanged();
-    };
-
     // Update the previous and current song's items.
     private final Runnable updateItem = () -> {
         if (songsRecycler != null && songsRecycler.getAdapter() == null)
@@ -62,10 +71,8 @@ public class SongListFragment extends Fragment {
     };
 
     // When songs are updated, update List.
-    private final SongManager.LibraryObserver libraryObserver = (newLib) -> {
-        library = newLib;
-        onMainThread(updateRecycler);
-    };
+    private final SongManager.LibraryObserver libraryObserver = (newLib, diff) ->
+            onMainThread(() -> onLibraryChanged(newLib, diff));
 
     // Callback for player events.
     private final PlayerClient.Observer playerListener = new PlayerClient.Observer() {
@@ -79,8 +86,8 @@ public class SongListFragment extends Fragment {
         @Override
         public void onMetadataChanged(MediaMetadataCompat metadata) {
             super.onMetadataChanged(metadata);
-            currentSong = (metadata == null) ? null :
-                    metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
+            currentSong = (metadata == null) ? -1 : Song.parseId(
+                    metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID));
             onMainThread(updateItem);
             // Forget what the previous song was now, we don't care anymore.
             previousItem = null;
@@ -116,6 +123,98 @@ public class SongListFragment extends Fragment {
         songManager = SongManager.getInstance(context);
         songManager.observeLibrary(libraryObserver);
         library = songManager.getLibrary();
+        shown = library;
+        searchExecutor = new SearchExecutor();
+    }
+
+    /**
+     * The Fragment adds the sort options to the app bar.
+     *
+     * @param savedInstanceState The saved instance state if any.
+     */
+    @Override
+    public void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setHasOptionsMenu(true);
+    }
+
+    /**
+     * @param menu     The options menu.
+     * @param inflater The inflater to use.
+     */
+    @Override
+    public void onCreateOptionsMenu(@NonNull Menu menu, @NonNull MenuInflater inflater) {
+        inflater.inflate(R.menu.songlist_menu, menu);
+        SearchView searchView = (SearchView) menu.findItem(R.id.menu_search).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String text) {
+                // The results are already shown, only the keyboard needs to go.
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String text) {
+                search(text);
+                return true;
+            }
+        });
+        super.onCreateOptionsMenu(menu, inflater);
+    }
+
+    /**
+     * Check the current sort order.
+     *
+     * @param menu The options menu.
+     */
+    @Override
+    public void onPrepareOptionsMenu(@NonNull Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        if (songManager == null)
+            return;
+        MenuItem current = menu.findItem(getMenuId(songManager.getLibrarySortOrder()));
+        if (current != null)
+            current.setChecked(true);
+    }
+
+    /**
+     * Sort the library when one of the sort options is selected. The library is already sorted in
+     * every order, so this is immediate.
+     *
+     * @param item The selected item.
+     * @return True if the item was handled.
+     */
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        for (SortOrder order : SortOrder.values()) {
+            if (getMenuId(order) == item.getItemId()) {
+                item.setChecked(true);
+                if (songManager != null)
+                    songManager.setLibrarySortOrder(order);
+                return true;
+            }
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * @param order A sort order.
+     * @return The id of the menu item for the order.
+     */
+    private static int getMenuId(@NonNull SortOrder order) {
+        switch (order) {
+            case ARTIST:
+                return R.id.sort_artist;
+            case ALBUM:
+                return R.id.sort_album;
+            case DURATION:
+                return R.id.sort_duration;
+            case DATE_ADDED:
+                return R.id.sort_date_added;
+            default:
+                return R.id.sort_title;
+        }
     }
 
     /**
@@ -139,11 +238,13 @@ public class SongListFragment extends Fragment {
     }
 
     /**
-     * Stop Observing songs.
+     * Stop Observing songs and searching.
      */
     @Override
     public void onDetach() {
         super.onDetach();
+        if (searchExecutor != null)
+            searchExecutor.shutdown();
         if (playerClient != null)
             playerClient.removeObserver(playerListener);
         // SongManager may have not been set if the PlayerClient did not connect.
@@ -160,6 +261,77 @@ public class SongListFragment extends Fragment {
         new Handler(Looper.getMainLooper()).post(runnable);
     }
 
+    /**
+     * Show a new library. Only the rows that changed are updated, unless the differences do not
+     * start from the library being shown, which happens if some were skipped.
+     *
+     * @param newLibrary The new library.
+     * @param diff       The differences leading to the new library.
+     */
+    private void onLibraryChanged(@NonNull PlayList newLibrary, @NonNull LibraryDiff diff) {
+        library = newLibrary;
+        // The differences do not apply to the results, which are replaced when searched again.
+        if (!query.isEmpty()) {
+            search(query);
+            return;
+        }
+        boolean consecutive = diff.getOldPlayList() == shown;
+        shown = library;
+        results = null;
+        updateCurrentItem();
+        if (songsRecycler == null || songsRecycler.getAdapter() == null)
+            return;
+        if (consecutive)
+            diff.dispatchUpdatesTo(songsRecycler.getAdapter());
+        else
+            songsRecycler.getAdapter().notifyDataSetChanged();
+    }
+
+    /**
+     * Filter the list with a query. The search runs on the {@link SearchExecutor}, the list keeps
+     * showing the previous results until the new ones arrive, and results that arrive after a
+     * newer query has been typed are ignored.
+     *
+     * @param text The query, the whole library is shown if empty.
+     */
+    private void search(@Nullable String text) {
+        query = (text == null) ? "" : text;
+        if (query.isEmpty()) {
+            searchExecutor.cancel();
+            show(library, null);
+            return;
+        }
+        searchExecutor.search(library, query, result -> onMainThread(() -> {
+            if (searchExecutor.isCurrent(result))
+                show(result.getPlayList(), result);
+        }));
+    }
+
+    /**
+     * Show some Songs in the list.
+     *
+     * @param playList The Songs to show.
+     * @param result   The results the Songs come from, null if they are the library.
+     */
+    private void show(@NonNull PlayList playList, @Nullable SearchExecutor.Result result) {
+        if (playList == shown && result == results)
+            return;
+        shown = playList;
+        results = result;
+        updateCurrentItem();
+        if (songsRecycler != null && songsRecycler.getAdapter() != null)
+            songsRecycler.getAdapter().notifyDataSetChanged();
+    }
+
+    /**
+     * Find the row of the current Song, which may have moved.
+     */
+    private void updateCurrentItem() {
+        int position = (currentSong == -1) ? -1 : shown.indexOf(currentSong);
+        currentItem = (position == -1) ? null : position;
+        previousItem = null;
+    }
+
     /**
      * Play a song at a certain position and update references to previous and current song.
      *
@@ -168,7 +340,7 @@ public class SongListFragment extends Fragment {
     private void play(int position) {
         previousItem = currentItem;
         currentItem = position;
-        playerClient.play(library.get(position));
+        playerClient.play(shown.get(position));
     }
 
     private class CustomAdapter extends RecyclerView.Adapter<CustomHolder> {
@@ -208,12 +380,13 @@ public class SongListFragment extends Fragment {
          */
         @Override
         public void onBindViewHolder(@NonNull CustomHolder holder, int position) {
-            holder.populate(library.get(position), position);
+            Song song = shown.get(position);
+            holder.populate(song, (results == null) ? null : results.getHit(song));
         }
 
         @Override
         public int getItemViewType(int position) {
-            if (library.get(position).getId().equals(currentSong))
+            if (shown.get(position).getMediaStoreId() == currentSong)
                 return currentState;
             return DEFAULT_VIEW;
         }
@@ -225,15 +398,15 @@ public class SongListFragment extends Fragment {
          */
         @Override
         public int getItemCount() {
-            return library.size();
+            return shown.size();
         }
     }
 
     private class CustomHolder extends RecyclerView.ViewHolder {
 
-        private final TextView titleView;
-        private final TextView albumView;
-        private final TextView artistView;
+        private final QueryTextView titleView;
+        private final QueryTextView albumView;
+        private final QueryTextView artistView;
         private final ImageView imageView;
         private Song song;
 
@@ -246,15 +419,29 @@ public class SongListFragment extends Fragment {
             this.imageView.setClipToOutline(true);
         }
 
-        public void populate(@NonNull Song song, int position) {
+        /**
+         * @param song The Song to show.
+         * @param hit  The hit for the Song, whose matches are highlighted. Null if not searching.
+         */
+        public void populate(@NonNull Song song, @Nullable SearchHit hit) {
             this.song = song;
-            itemView.setOnClickListener(v -> play(position));
-            titleView.setText(song.getTitle());
-            albumView.setText(song.getAlbum());
-            artistView.setText(song.getArtist());
+            // Rows can move without being bound again, so the position is read on click.
+            itemView.setOnClickListener(v -> {
+                int position = getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION)
+                    play(position);
+            });
+            // The ranges are found once per search, rebinding does not scan the text again.
+            titleView.setHighlightedText(song.getTitle(),
+                    (hit == null) ? null : hit.getRanges(SearchHit.FIELD_TITLE));
+            albumView.setHighlightedText(song.getAlbum(),
+                    (hit == null) ? null : hit.getRanges(SearchHit.FIELD_ALBUM));
+            artistView.setHighlightedText(song.getArtist(),
+                    (hit == null) ? null : hit.getRanges(SearchHit.FIELD_ARTIST));
+            long requested = song.getMediaStoreId();
             songManager.getThumbnail(song.getId(), Utils.getThumbnailSize(imageView),
                     (id, thumbnail) -> onMainThread(() -> {
-                        if (this.song.getId().equals(id))
+                        if (this.song.getMediaStoreId() == requested)
                             imageView.setImageBitmap(thumbnail);
                         else
                             imageView.setImageBitmap(Utils.getDefaultThumbnail(getResources()));
@@ -0,0 +1,76 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A group of Songs of the library sharing an artist, an album or a genre, as indexed by
+ * {@link LibraryFacets}. The number of tracks and the total duration are computed when the group
+ * changes, not when they are read. Facets are immutable, a changed group is published as a new
+ * Facet, so they can be read from any thread.
+ *
+ * @author Riccardo De Zen.
+ */
+public final class Facet {
+
+    private final String name;
+    private final List<Song> songs;
+    private final long duration;
+    private final List<Facet> children;
+
+    /**
+     * @param name     The name of the group, as found in its first Song.
+     * @param songs    The Songs, in the order they should be played. Not copied.
+     * @param duration The total duration of the Songs.
+     * @param children The groups this one is made of. Not copied.
+     */
+    Facet(@NonNull String name, @NonNull List<Song> songs, long duration,
+          @NonNull List<Facet> children) {
+        this.name = name;
+        this.songs = Collections.unmodifiableList(songs);
+        this.duration = duration;
+        this.children = Collections.unmodifiableList(children);
+    }
+
+    /**
+     * @return The name of the artist, album or genre.
+     */
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The number of Songs.
+     */
+    public int getTrackCount() {
+        return songs.size();
+    }
+
+    /**
+     * @return The total duration of the Songs, in milliseconds.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return The Songs, in the order they should be played: albums by disc and track number,
+     * artists album by album, genres by title.
+     */
+    @NonNull
+    public List<Song> getSongs() {
+        return songs;
+    }
+
+    /**
+     * @return For an artist, the artist's tracks on each album, by album name. Empty for albums
+     * and genres.
+     */
+    @NonNull
+    public List<Facet> getChildren() {
+        return children;
+    }
+}
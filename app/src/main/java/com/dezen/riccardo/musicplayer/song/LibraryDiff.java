@@ -0,0 +1,124 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.List;
+
+/**
+ * Differences between two consecutive versions of a PlayList: the Songs inserted, removed, moved
+ * and modified. Songs are matched by id, and are modified if anything shown about them changed.
+ * Computing the diff may take a while on big PlayLists, so it must be done off the main thread.
+ * <p>
+ * When the PlayLists are too different for a diff to be useful, as when the order changed, there
+ * are no differences to dispatch and the whole list should be refreshed instead.
+ *
+ * @author Riccardo De Zen.
+ */
+public final class LibraryDiff {
+
+    private final PlayList oldPlayList;
+    private final PlayList newPlayList;
+    // Null if a full refresh is needed.
+    @Nullable
+    private final DiffUtil.DiffResult result;
+
+    private LibraryDiff(@NonNull PlayList oldPlayList, @NonNull PlayList newPlayList,
+                        @Nullable DiffUtil.DiffResult result) {
+        this.oldPlayList = oldPlayList;
+        this.newPlayList = newPlayList;
+        this.result = result;
+    }
+
+    /**
+     * Compute the differences between two PlayLists. Takes O(n + d^2) for d differences.
+     *
+     * @param oldPlayList The previous PlayList.
+     * @param newPlayList The new PlayList.
+     * @return The differences.
+     */
+    @WorkerThread
+    @NonNull
+    public static LibraryDiff compute(@NonNull PlayList oldPlayList,
+                                      @NonNull PlayList newPlayList) {
+        // A different order moves almost every Song, a full refresh is cheaper. So it is when one
+        // of the lists is empty, everything is inserted or removed.
+        if (oldPlayList.getSortOrder() != newPlayList.getSortOrder() ||
+                oldPlayList.isEmpty() || newPlayList.isEmpty())
+            return new LibraryDiff(oldPlayList, newPlayList, null);
+        // Positional access may not be O(1), work on copies.
+        List<Song> oldSongs = oldPlayList.getSongs();
+        List<Song> newSongs = newPlayList.getSongs();
+        DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldSongs.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newSongs.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return oldSongs.get(oldPosition).getMediaStoreId() ==
+                        newSongs.get(newPosition).getMediaStoreId();
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return sameContent(oldSongs.get(oldPosition), newSongs.get(newPosition));
+            }
+        }, true);
+        return new LibraryDiff(oldPlayList, newPlayList, result);
+    }
+
+    /**
+     * @return The PlayList the differences start from.
+     */
+    @NonNull
+    public PlayList getOldPlayList() {
+        return oldPlayList;
+    }
+
+    /**
+     * @return The PlayList the differences lead to.
+     */
+    @NonNull
+    public PlayList getNewPlayList() {
+        return newPlayList;
+    }
+
+    /**
+     * Notify an Adapter of the differences, as fine grained item notifications. The Adapter must
+     * be showing the old PlayList until this call, and the new one right after. Must be called on
+     * the main thread.
+     *
+     * @param adapter The Adapter.
+     */
+    public void dispatchUpdatesTo(@NonNull RecyclerView.Adapter<?> adapter) {
+        if (result == null)
+            adapter.notifyDataSetChanged();
+        else
+            result.dispatchUpdatesTo(adapter);
+    }
+
+    /**
+     * @return True if nothing shown about two versions of the same Song differs.
+     */
+    private static boolean sameContent(@NonNull Song oldSong, @NonNull Song newSong) {
+        return oldSong.getDateModified() == newSong.getDateModified() &&
+                oldSong.getDuration() == newSong.getDuration() &&
+                same(oldSong.getTitle(), newSong.getTitle()) &&
+                same(oldSong.getAlbum(), newSong.getAlbum()) &&
+                same(oldSong.getArtist(), newSong.getArtist());
+    }
+
+    private static boolean same(@Nullable String first, @Nullable String second) {
+        return (first == null) ? second == null : first.equals(second);
+    }
+}
@@ -0,0 +1,342 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.dezen.riccardo.musicplayer.utils.LongObjectMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Indexes of the library by artist, album and genre: artist &rarr; albums &rarr; tracks, album
+ * &rarr; tracks by disc and track number, and genre &rarr; tracks. Each group is published as a
+ * {@link Facet}, with its counts and durations, so showing an artist or playing an album costs
+ * the size of the group, not of the library.
+ * <p>
+ * Updates only touch the groups of the changed Songs, and only those groups are sorted and
+ * published again, once per update. Albums are told apart by
+ * their album artist when the tags are known, or else by the artist, so that albums with the same
+ * name are not merged. Track numbers and genres come from the {@link SongTags}, Songs without up
+ * to date tags are listed after the numbered tracks and have no genre. Names are grouped by their
+ * {@link SearchKeys} folded form. Not thread safe.
+ *
+ * @author Riccardo De Zen.
+ */
+final class LibraryFacets {
+
+    // Title, then id, so that no two tracks are equal.
+    private static final Comparator<Track> TITLE_ORDER = (a, b) -> {
+        int byTitle = a.song.getTitleKey().compareTo(b.song.getTitleKey());
+        return (byTitle != 0) ? byTitle :
+                Long.compare(a.song.getMediaStoreId(), b.song.getMediaStoreId());
+    };
+    // Disc and track number, unknown ones last, then title.
+    private static final Comparator<Track> TRACK_ORDER = (a, b) -> {
+        if (a.disc != b.disc)
+            return Integer.compare(a.disc, b.disc);
+        if (a.number != b.number)
+            return Integer.compare(a.number, b.number);
+        return TITLE_ORDER.compare(a, b);
+    };
+
+    // The indexed tracks, by Song id, with the keys of their groups.
+    private final LongObjectMap<Track> tracks = new LongObjectMap<>();
+    private final TreeMap<String, Group> artists = new TreeMap<>();
+    private final TreeMap<String, Group> albums = new TreeMap<>();
+    private final TreeMap<String, Group> genres = new TreeMap<>();
+    // Groups changed since they were last published.
+    private final Set<Group> dirty = new HashSet<>();
+
+    /**
+     * @param songs Some Songs.
+     * @param tags  The tags of the Songs, by Song id. Null if not known yet.
+     * @return The facets of the Songs.
+     */
+    @NonNull
+    static LibraryFacets build(@NonNull Collection<Song> songs,
+                               @Nullable Map<String, SongTags> tags) {
+        LibraryFacets facets = new LibraryFacets();
+        facets.update(songs, Collections.<Song>emptyList(), tags);
+        return facets;
+    }
+
+    /**
+     * Apply some changes and publish the groups they touched.
+     *
+     * @param changed The Songs that were added or modified, or whose tags changed.
+     * @param removed The Songs that are not in the library anymore.
+     * @param tags    The tags of the Songs, by Song id. Null if not known yet.
+     */
+    void update(@NonNull Collection<Song> changed, @NonNull Collection<Song> removed,
+                @Nullable Map<String, SongTags> tags) {
+        for (Song song : removed)
+            remove(song.getMediaStoreId());
+        for (Song song : changed) {
+            remove(song.getMediaStoreId());
+            add(song, (tags == null) ? null : tags.get(song.getId()));
+        }
+        publish();
+    }
+
+    /**
+     * @return The number of indexed Songs.
+     */
+    int size() {
+        return tracks.size();
+    }
+
+    /**
+     * @return Every artist, by name.
+     */
+    @NonNull
+    List<Facet> getArtists() {
+        return facetsOf(artists);
+    }
+
+    /**
+     * @return Every album, by name.
+     */
+    @NonNull
+    List<Facet> getAlbums() {
+        return facetsOf(albums);
+    }
+
+    /**
+     * @return Every genre, by name.
+     */
+    @NonNull
+    List<Facet> getGenres() {
+        return facetsOf(genres);
+    }
+
+    /**
+     * @param name The name of an artist. Case and diacritics are ignored.
+     * @return The artist, or null if there is no Song by that artist.
+     */
+    @Nullable
+    Facet getArtist(@Nullable String name) {
+        Group artist = artists.get(SearchKeys.fold(name));
+        return (artist == null) ? null : artist.facet;
+    }
+
+    /**
+     * @param name The name of a genre. Case and diacritics are ignored.
+     * @return The genre, or null if there is no Song of that genre.
+     */
+    @Nullable
+    Facet getGenre(@Nullable String name) {
+        Group genre = genres.get(SearchKeys.fold(name));
+        return (genre == null) ? null : genre.facet;
+    }
+
+    /**
+     * @param songId The id of a Song.
+     * @return The artist of the Song, or null if the Song is not indexed.
+     */
+    @Nullable
+    Facet getArtistOf(long songId) {
+        Track track = tracks.get(songId);
+        return (track == null) ? null : artists.get(track.artistKey).facet;
+    }
+
+    /**
+     * @param songId The id of a Song.
+     * @return The album of the Song, or null if the Song is not indexed.
+     */
+    @Nullable
+    Facet getAlbumOf(long songId) {
+        Track track = tracks.get(songId);
+        return (track == null) ? null : albums.get(track.albumKey).facet;
+    }
+
+    /**
+     * @param song A Song, not indexed.
+     * @param tags Its tags, if known.
+     */
+    private void add(@NonNull Song song, @Nullable SongTags tags) {
+        if (tags != null && !tags.isUpToDate(song))
+            tags = null;
+        Track track = new Track(song, tags);
+        tracks.put(song.getMediaStoreId(), track);
+
+        Group artist = groupOf(artists, track.artistKey, song.getArtist(), TRACK_ORDER);
+        if (artist.children == null)
+            artist.children = new TreeMap<>();
+        groupOf(artist.children, track.albumKey, song.getAlbum(), TRACK_ORDER).add(track);
+        dirty.add(artist);
+        groupOf(albums, track.albumKey, song.getAlbum(), TRACK_ORDER).add(track);
+        if (track.genreKey != null)
+            groupOf(genres, track.genreKey, tags.getGenre(), TITLE_ORDER).add(track);
+    }
+
+    /**
+     * @param songId The id of a Song, which may not be indexed.
+     */
+    private void remove(long songId) {
+        Track track = tracks.remove(songId);
+        if (track == null)
+            return;
+        Group artist = artists.get(track.artistKey);
+        removeFrom(artist.children, track.albumKey, track);
+        dirty.add(artist);
+        if (artist.children.isEmpty())
+            artists.remove(track.artistKey);
+        removeFrom(albums, track.albumKey, track);
+        if (track.genreKey != null)
+            removeFrom(genres, track.genreKey, track);
+    }
+
+    /**
+     * @param groups Some groups.
+     * @param key    The key of a group.
+     * @param name   The name of the group, used if it is new.
+     * @param order  The order of the tracks in the group, used if it is new.
+     * @return The group, added if missing, and marked as changed.
+     */
+    @NonNull
+    private Group groupOf(@NonNull Map<String, Group> groups, @NonNull String key,
+                          @Nullable String name, @NonNull Comparator<Track> order) {
+        Group group = groups.get(key);
+        if (group == null) {
+            group = new Group((name == null) ? "" : name, order);
+            groups.put(key, group);
+        }
+        dirty.add(group);
+        return group;
+    }
+
+    /**
+     * @param groups Some groups.
+     * @param key    The key of the group containing the track.
+     * @param track  The track.
+     */
+    private void removeFrom(@NonNull Map<String, Group> groups, @NonNull String key,
+                            @NonNull Track track) {
+        Group group = groups.get(key);
+        group.remove(track);
+        if (group.tracks.isEmpty())
+            groups.remove(key);
+        else
+            dirty.add(group);
+    }
+
+    /**
+     * Publish the changed groups, the ones made of other groups last.
+     */
+    private void publish() {
+        for (Group group : dirty)
+            if (group.children == null)
+                group.publish();
+        for (Group group : dirty)
+            if (group.children != null)
+                group.publish();
+        dirty.clear();
+    }
+
+    /**
+     * @param groups Some groups.
+     * @return Their Facets, in the order of their keys.
+     */
+    @NonNull
+    private static List<Facet> facetsOf(@NonNull TreeMap<String, Group> groups) {
+        List<Facet> facets = new ArrayList<>(groups.size());
+        for (Group group : groups.values())
+            facets.add(group.facet);
+        return facets;
+    }
+
+    /**
+     * A Song and the keys of the groups it is in.
+     */
+    private static final class Track {
+        private final Song song;
+        private final String artistKey;
+        private final String albumKey;
+        // Null if the genre is unknown.
+        private final String genreKey;
+        private final int disc;
+        private final int number;
+
+        Track(@NonNull Song song, @Nullable SongTags tags) {
+            this.song = song;
+            artistKey = song.getArtistKey();
+            String albumArtist = (tags == null) ? null : tags.getAlbumArtist();
+            albumKey = song.getAlbumKey() + '\u0000' + ((albumArtist == null ||
+                    albumArtist.isEmpty()) ? artistKey : SearchKeys.fold(albumArtist));
+            String genre = (tags == null) ? null : tags.getGenre();
+            genreKey = (genre == null || genre.isEmpty()) ? null : SearchKeys.fold(genre);
+            disc = (tags == null || tags.getDiscNumber() <= 0) ?
+                    Integer.MAX_VALUE : tags.getDiscNumber();
+            number = (tags == null || tags.getTrackNumber() <= 0) ?
+                    Integer.MAX_VALUE : tags.getTrackNumber();
+        }
+    }
+
+    /**
+     * The tracks of an artist, album or genre. The tracks of an artist are held by its children,
+     * one for each album.
+     */
+    private static final class Group {
+        private final String name;
+        private final Comparator<Track> order;
+        private final List<Track> tracks = new ArrayList<>();
+        // Whether the tracks are in order. Tracks are appended, and only sorted when needed.
+        private boolean sorted = true;
+        // The albums of an artist by key, null for the other groups.
+        private TreeMap<String, Group> children;
+        // The latest published version of the group.
+        private Facet facet;
+
+        Group(@NonNull String name, @NonNull Comparator<Track> order) {
+            this.name = name;
+            this.order = order;
+        }
+
+        void add(@NonNull Track track) {
+            if (sorted && !tracks.isEmpty() &&
+                    order.compare(tracks.get(tracks.size() - 1), track) > 0)
+                sorted = false;
+            tracks.add(track);
+        }
+
+        void remove(@NonNull Track track) {
+            sort();
+            int index = Collections.binarySearch(tracks, track, order);
+            if (index >= 0)
+                tracks.remove(index);
+        }
+
+        void publish() {
+            List<Song> songs = new ArrayList<>();
+            List<Facet> facets = new ArrayList<>();
+            long duration = 0;
+            if (children == null) {
+                sort();
+                for (Track track : tracks)
+                    songs.add(track.song);
+            } else {
+                for (Group child : children.values()) {
+                    facets.add(child.facet);
+                    songs.addAll(child.facet.getSongs());
+                }
+            }
+            for (Song song : songs)
+                duration += song.getDuration();
+            facet = new Facet(name, songs, duration, facets);
+        }
+
+        private void sort() {
+            if (!sorted)
+                Collections.sort(tracks, order);
+            sorted = true;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.WorkerThread;
+
+/**
+ * Base class for the operations loading the library, run by {@link SongLoader} on its loading
+ * thread. Tasks can be cancelled from any thread, and must check {@link #isCancelled()} often
+ * enough to stop quickly.
+ *
+ * @author Riccardo De Zen.
+ */
+abstract class LibraryLoadTask {
+
+    private volatile boolean cancelled = false;
+    private volatile int progress = 0;
+
+    /**
+     * Run the task on the calling thread.
+     *
+     * @return {@code true} if the result was delivered to the listener, {@code false} otherwise.
+     */
+    @WorkerThread
+    abstract boolean load();
+
+    /**
+     * Ask the task to stop. A cancelled task does not deliver its result.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return True if {@link #cancel()} has been called.
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return The progress of the task, from 0 to 100.
+     */
+    int getProgress() {
+        return progress;
+    }
+
+    /**
+     * @param progress The new progress of the task, from 0 to 100.
+     */
+    protected void setProgress(int progress) {
+        this.progress = progress;
+    }
+}
@@ -0,0 +1,183 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class handling the on-disk copy of the library, used to show the songs as soon as the app
+ * starts, without waiting for the MediaStore to be scanned.
+ * <p>
+ * The snapshot is a binary file with the following layout (big endian, as written by
+ * {@link DataOutputStream}):
+ * - header: magic (int), format version (int), sync watermark (long), MediaStore version
+ * (string), song count (int).
+ * - one record per song: id, duration, date added, date modified (long), title, album, artist,
+ * then their {@link SearchKeys folded} keys (string).
+ * Strings are stored as their UTF-8 length (int) followed by the bytes, a length of -1 means null.
+ * The file is memory-mapped when read. Any file with a different magic or version is ignored.
+ *
+ * @author Riccardo De Zen.
+ */
+class LibrarySnapshot {
+
+    private static final int MAGIC = 0x4d504c53; // "MPLS"
+    // Version 2 adds the folded keys.
+    static final int FORMAT_VERSION = 2;
+
+    private final List<Song> songs;
+    private final long watermark;
+    @Nullable
+    private final String storeVersion;
+
+    /**
+     * @param songs        The songs in the library.
+     * @param watermark    The sync watermark the songs are up to date with.
+     * @param storeVersion The MediaStore version the watermark refers to.
+     */
+    LibrarySnapshot(@NonNull List<Song> songs, long watermark, @Nullable String storeVersion) {
+        this.songs = songs;
+        this.watermark = watermark;
+        this.storeVersion = storeVersion;
+    }
+
+    @NonNull
+    List<Song> getSongs() {
+        return songs;
+    }
+
+    long getWatermark() {
+        return watermark;
+    }
+
+    @Nullable
+    String getStoreVersion() {
+        return storeVersion;
+    }
+
+    /**
+     * Read a snapshot from a file.
+     *
+     * @param file    The file to read.
+     * @param strings The table the Strings of the Songs go through.
+     * @return The snapshot, or null if the file does not exist, is corrupted or has been written
+     * with a different format version.
+     */
+    @Nullable
+    static LibrarySnapshot read(@NonNull File file, @NonNull StringTable strings) {
+        if (!file.isFile())
+            return null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION)
+                return null;
+
+            byte[] scratch = new byte[256];
+            long watermark = buffer.getLong();
+            String storeVersion = readString(buffer, scratch);
+            int count = buffer.getInt();
+            if (count < 0)
+                return null;
+
+            SongStore store = new SongStore(count, strings);
+            List<Song> songs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long id = buffer.getLong();
+                long duration = buffer.getLong();
+                long dateAdded = buffer.getLong();
+                long dateModified = buffer.getLong();
+                String title = readString(buffer, scratch);
+                String album = readString(buffer, scratch);
+                String artist = readString(buffer, scratch);
+                String titleKey = readString(buffer, scratch);
+                String albumKey = readString(buffer, scratch);
+                String artistKey = readString(buffer, scratch);
+                songs.add(store.add(id, title, album, artist, duration, dateAdded, dateModified,
+                        titleKey, albumKey, artistKey));
+            }
+            return new LibrarySnapshot(songs, watermark, storeVersion);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            // A corrupted snapshot is just a missing snapshot.
+            return null;
+        }
+    }
+
+    /**
+     * Write this snapshot to a file. The data is first written to a temporary file, which then
+     * replaces the old one, so a crash while writing never leaves a half written snapshot.
+     *
+     * @param file The destination file.
+     * @return {@code true} if the snapshot was written, {@code false} otherwise.
+     */
+    boolean write(@NonNull File file) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(watermark);
+            writeString(out, storeVersion);
+            out.writeInt(songs.size());
+            for (Song song : songs) {
+                out.writeLong(song.getMediaStoreId());
+                out.writeLong(song.getDuration());
+                out.writeLong(song.getDateAdded());
+                out.writeLong(song.getDateModified());
+                writeString(out, song.getTitle());
+                writeString(out, song.getAlbum());
+                writeString(out, song.getArtist());
+                writeString(out, song.getTitleKey());
+                writeString(out, song.getAlbumKey());
+                writeString(out, song.getArtistKey());
+            }
+        } catch (IOException | NumberFormatException e) {
+            temp.delete();
+            return false;
+        }
+        return temp.renameTo(file);
+    }
+
+    /**
+     * @param buffer  The buffer to read from.
+     * @param scratch A reusable array, used if the string fits.
+     * @return The string at the current position of the buffer.
+     */
+    @Nullable
+    private static String readString(@NonNull ByteBuffer buffer, @NonNull byte[] scratch) {
+        int length = buffer.getInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = (length <= scratch.length) ? scratch : new byte[length];
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param out    The stream to write to.
+     * @param string The string to write, may be null.
+     */
+    private static void writeString(@NonNull DataOutputStream out, @Nullable String string)
+            throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
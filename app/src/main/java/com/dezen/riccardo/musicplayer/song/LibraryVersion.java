@@ -0,0 +1,263 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One immutable version of a set of Songs, sorted by id and in every {@link SortOrder}, or only in
+ * the ones it was built with. Each order is a {@link PersistentSongTree}, so a new version built from a few changes costs
+ * O(changes log n) and shares every untouched node with the previous one. Versions are numbered,
+ * each one derived from another gets the next number.
+ * <p>
+ * A version never changes once built, so it can be read from any thread without locking.
+ *
+ * @author Riccardo De Zen.
+ */
+public final class LibraryVersion {
+
+    private final long version;
+    private final PersistentSongTree byId;
+    // The trees of the sort orders, by ordinal, null for the orders that are not kept. Their
+    // comparators share a Collator.
+    private final PersistentSongTree[] sorted;
+
+    private LibraryVersion(long version, @NonNull PersistentSongTree byId,
+                           @NonNull PersistentSongTree[] sorted) {
+        this.version = version;
+        this.byId = byId;
+        this.sorted = sorted;
+    }
+
+    /**
+     * Sort the Songs in every order, O(n log n) for each. Should not run on the main thread for
+     * big collections.
+     *
+     * @param songs   The Songs. Only the first Song with a given id is kept.
+     * @param version The number of the version.
+     * @return The new version.
+     */
+    @NonNull
+    public static LibraryVersion build(@NonNull Collection<Song> songs, long version) {
+        return build(songs, version, SortOrder.values());
+    }
+
+    /**
+     * Sort the Songs by id and in some orders only, O(n log n) for each. Versions derived from
+     * this one keep the same orders.
+     *
+     * @param songs   The Songs. Only the first Song with a given id is kept.
+     * @param version The number of the version.
+     * @param orders  The orders to keep.
+     * @return The new version.
+     */
+    @NonNull
+    public static LibraryVersion build(@NonNull Collection<Song> songs, long version,
+                                       @NonNull SortOrder... orders) {
+        List<Song> list = new ArrayList<>(songs);
+        Collections.sort(list, SongComparator.BY_ID);
+        // Drop duplicate ids, the tree needs distinct keys.
+        int distinct = 0;
+        for (int i = 0; i < list.size(); i++)
+            if (distinct == 0 || list.get(distinct - 1).getMediaStoreId() !=
+                    list.get(i).getMediaStoreId())
+                list.set(distinct++, list.get(i));
+        list.subList(distinct, list.size()).clear();
+
+        PersistentSongTree byId = PersistentSongTree.build(list, SongComparator.BY_ID);
+        PersistentSongTree[] sorted = new PersistentSongTree[SortOrder.values().length];
+        Collator collator = Collator.getInstance();
+        // Sorting through collation keys is much faster than through the comparators, and the
+        // index gives the same order, as the list is sorted by id.
+        SortIndex index = new SortIndex(list);
+        if (orders.length > 1)
+            index.sortAll();
+        for (SortOrder order : orders) {
+            List<Song> ordered = new ArrayList<>(list.size());
+            for (int i = 0; i < list.size(); i++)
+                ordered.add(index.get(order, i));
+            sorted[order.ordinal()] =
+                    PersistentSongTree.build(ordered, new SongComparator(order, collator));
+        }
+        return new LibraryVersion(version, byId, sorted);
+    }
+
+    /**
+     * @return An empty version, numbered 0.
+     */
+    @NonNull
+    public static LibraryVersion empty() {
+        return build(Collections.emptyList(), 0);
+    }
+
+    /**
+     * Derive a new version by applying some changes to this one, which is not modified. Costs
+     * O(changes log n), plus a scan of the ids if some Songs were removed. Versions derived from
+     * the same one must not be built concurrently.
+     *
+     * @param changed    Songs that were added or modified. They replace any Song with the same id.
+     * @param currentIds The ids of the Songs to keep, null to keep them all. Any Song whose id is
+     *                   not in here is dropped.
+     * @return The new version, numbered after this one.
+     */
+    @NonNull
+    public LibraryVersion withChanges(@NonNull Collection<Song> changed,
+                                      @Nullable Set<String> currentIds) {
+        List<Song> removed = Collections.emptyList();
+        // Songs that were not changed can only be missing if there are more Songs than ids.
+        if (currentIds != null && size() + changed.size() > currentIds.size())
+            removed = missingFrom(currentIds);
+        List<Song> kept = new ArrayList<>(changed.size());
+        List<Song> dropped = new ArrayList<>(removed);
+        for (Song song : changed) {
+            if (currentIds == null || currentIds.contains(song.getId()))
+                kept.add(song);
+            else
+                dropped.add(song);
+        }
+        return withUpdates(kept, dropped);
+    }
+
+    /**
+     * Derive a new version by adding, replacing and removing some Songs, in O(changes log n).
+     * This version is not modified. Versions derived from the same one must not be built
+     * concurrently.
+     *
+     * @param changed Songs to add. They replace any Song with the same id.
+     * @param removed Songs to remove, by id. Songs that are not in this version are ignored.
+     * @return The new version, numbered after this one.
+     */
+    @NonNull
+    public LibraryVersion withUpdates(@NonNull Collection<Song> changed,
+                                      @NonNull Collection<Song> removed) {
+        PersistentSongTree newById = byId;
+        PersistentSongTree[] newSorted = sorted.clone();
+        for (Song song : removed) {
+            Song old = get(newById, song.getMediaStoreId());
+            if (old == null)
+                continue;
+            newById = newById.without(old);
+            for (int i = 0; i < newSorted.length; i++)
+                if (newSorted[i] != null)
+                    newSorted[i] = newSorted[i].without(old);
+        }
+        for (Song song : changed) {
+            Song old = get(newById, song.getMediaStoreId());
+            if (old != null) {
+                newById = newById.without(old);
+                for (int i = 0; i < newSorted.length; i++)
+                    if (newSorted[i] != null)
+                        newSorted[i] = newSorted[i].without(old);
+            }
+            newById = newById.with(song);
+            for (int i = 0; i < newSorted.length; i++)
+                if (newSorted[i] != null)
+                    newSorted[i] = newSorted[i].with(song);
+        }
+        return new LibraryVersion(version + 1, newById, newSorted);
+    }
+
+    /**
+     * O(n), use {@link #withChanges(Collection, Set)} to only scan when needed.
+     *
+     * @param ids Some Song ids.
+     * @return The Songs of this version whose id is not in the given ones, by id.
+     */
+    @NonNull
+    public List<Song> missingFrom(@NonNull Set<String> ids) {
+        List<Song> missing = new ArrayList<>();
+        for (Song song : getSongs(null))
+            if (!ids.contains(song.getId()))
+                missing.add(song);
+        return missing;
+    }
+
+    /**
+     * @return The number of this version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The number of Songs.
+     */
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * @param order An order, null for the order of the ids.
+     * @return True if the Songs are kept in the order.
+     */
+    public boolean hasOrder(@Nullable SortOrder order) {
+        return order == null || sorted[order.ordinal()] != null;
+    }
+
+    /**
+     * @param order The order, null for the order of the ids.
+     * @param index A position in the order.
+     * @return The Song at the position.
+     * @throws IndexOutOfBoundsException If the position is invalid.
+     * @throws IllegalArgumentException  If the order is not kept.
+     */
+    @NonNull
+    public Song get(@Nullable SortOrder order, int index) {
+        return tree(order).get(index);
+    }
+
+    /**
+     * @param id The MediaStore id of a Song.
+     * @return The Song, or null if it is not in this version.
+     */
+    @Nullable
+    public Song get(long id) {
+        return get(byId, id);
+    }
+
+    /**
+     * @param order The order, null for the order of the ids.
+     * @param id    The MediaStore id of a Song.
+     * @return The position of the Song in the order, or -1 if it is not in this version.
+     * @throws IllegalArgumentException If the order is not kept.
+     */
+    public int indexOf(@Nullable SortOrder order, long id) {
+        if (order == null)
+            return byId.indexOfId(id);
+        Song song = get(id);
+        return (song == null) ? -1 : tree(order).indexOf(song);
+    }
+
+    /**
+     * @param order The order, null for the order of the ids.
+     * @return The Songs, in order.
+     * @throws IllegalArgumentException If the order is not kept.
+     */
+    @NonNull
+    public List<Song> getSongs(@Nullable SortOrder order) {
+        List<Song> list = new ArrayList<>(size());
+        tree(order).collect(list);
+        return Collections.unmodifiableList(list);
+    }
+
+    @NonNull
+    private PersistentSongTree tree(@Nullable SortOrder order) {
+        if (order == null)
+            return byId;
+        if (sorted[order.ordinal()] == null)
+            throw new IllegalArgumentException("Order not kept: " + order);
+        return sorted[order.ordinal()];
+    }
+
+    @Nullable
+    private static Song get(@NonNull PersistentSongTree byId, long id) {
+        int index = byId.indexOfId(id);
+        return (index == -1) ? null : byId.get(index);
+    }
+}
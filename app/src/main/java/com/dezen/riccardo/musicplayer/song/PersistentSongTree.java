@@ -0,0 +1,273 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable sorted set of Songs, stored as a treap augmented with subtree sizes. Adding or
+ * removing a Song returns a new tree, which copies only the O(log n) nodes on the path to the
+ * Song and shares every other node with the old tree. Finding a Song by position, or the position
+ * of a Song, is O(log n).
+ * <p>
+ * The priority of a node is a hash of the Song's id, so the shape of the tree only depends on
+ * its content: trees holding the same Songs share as much as possible no matter the order of the
+ * edits. Trees are safe to read from any thread once published through a final field.
+ *
+ * @author Riccardo De Zen.
+ */
+final class PersistentSongTree {
+
+    private final Comparator<Song> comparator;
+    @Nullable
+    private final Node root;
+
+    private PersistentSongTree(@NonNull Comparator<Song> comparator, @Nullable Node root) {
+        this.comparator = comparator;
+        this.root = root;
+    }
+
+    /**
+     * Build a tree in O(n).
+     *
+     * @param sorted     The Songs, sorted by the comparator, with no two Songs comparing equal.
+     * @param comparator The order of the tree. Only used while editing, so it can hold state that
+     *                   is not thread safe, as long as edits happen on one thread at a time.
+     * @return The tree.
+     */
+    @NonNull
+    static PersistentSongTree build(@NonNull List<Song> sorted,
+                                    @NonNull Comparator<Song> comparator) {
+        // Cartesian tree of the priorities, keeping the right spine on a stack. The nodes are new,
+        // so they can be linked in place before the tree is published.
+        Node[] spine = new Node[sorted.size()];
+        int top = 0;
+        for (Song song : sorted) {
+            Node node = new Node(song, null, null);
+            Node last = null;
+            while (top > 0 && spine[top - 1].priority < node.priority)
+                last = spine[--top];
+            node.left = last;
+            if (top > 0)
+                spine[top - 1].right = node;
+            spine[top++] = node;
+        }
+        Node root = (top > 0) ? spine[0] : null;
+        computeSizes(root);
+        return new PersistentSongTree(comparator, root);
+    }
+
+    /**
+     * @return The number of Songs.
+     */
+    int size() {
+        return size(root);
+    }
+
+    /**
+     * @param index A position, between 0 and {@link #size()} - 1.
+     * @return The Song at the position.
+     * @throws IndexOutOfBoundsException If the position is invalid.
+     */
+    @NonNull
+    Song get(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            } else {
+                return node.song;
+            }
+        }
+    }
+
+    /**
+     * @param song A Song, compared with the ones in the tree through the comparator.
+     * @return The position of the Song, or -1 if it is not in the tree.
+     */
+    int indexOf(@NonNull Song song) {
+        int index = 0;
+        Node node = root;
+        while (node != null) {
+            int result = comparator.compare(song, node.song);
+            if (result < 0) {
+                node = node.left;
+            } else if (result > 0) {
+                index += size(node.left) + 1;
+                node = node.right;
+            } else {
+                return index + size(node.left);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Only meaningful if the tree is ordered by id.
+     *
+     * @param id The MediaStore id of a Song.
+     * @return The position of the Song, or -1 if it is not in the tree.
+     */
+    int indexOfId(long id) {
+        int index = 0;
+        Node node = root;
+        while (node != null) {
+            int result = Long.compare(id, node.song.getMediaStoreId());
+            if (result < 0) {
+                node = node.left;
+            } else if (result > 0) {
+                index += size(node.left) + 1;
+                node = node.right;
+            } else {
+                return index + size(node.left);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param song A Song which does not compare equal to any Song in the tree.
+     * @return A new tree, also containing the Song.
+     */
+    @NonNull
+    PersistentSongTree with(@NonNull Song song) {
+        return new PersistentSongTree(comparator, insert(root, new Node(song, null, null)));
+    }
+
+    /**
+     * @param song A Song comparing equal to the one to remove.
+     * @return A new tree without the Song, or this tree if the Song is not in it.
+     */
+    @NonNull
+    PersistentSongTree without(@NonNull Song song) {
+        Node newRoot = delete(root, song);
+        return (newRoot == root) ? this : new PersistentSongTree(comparator, newRoot);
+    }
+
+    /**
+     * @param target The list the Songs are appended to, in order.
+     */
+    void collect(@NonNull List<Song> target) {
+        // The tree is immutable, so an explicit stack replaces parent pointers.
+        Node[] stack = new Node[64];
+        int top = 0;
+        Node node = root;
+        while (node != null || top > 0) {
+            while (node != null) {
+                if (top == stack.length)
+                    stack = Arrays.copyOf(stack, top * 2);
+                stack[top++] = node;
+                node = node.left;
+            }
+            node = stack[--top];
+            target.add(node.song);
+            node = node.right;
+        }
+    }
+
+    @Nullable
+    private Node insert(@Nullable Node node, @NonNull Node inserted) {
+        if (node == null)
+            return inserted;
+        if (inserted.priority > node.priority) {
+            Node[] halves = split(node, inserted.song);
+            return new Node(inserted.song, halves[0], halves[1]);
+        }
+        if (comparator.compare(inserted.song, node.song) < 0)
+            return new Node(node.song, insert(node.left, inserted), node.right);
+        return new Node(node.song, node.left, insert(node.right, inserted));
+    }
+
+    /**
+     * @return The nodes before the Song, and the nodes after it, as two new subtrees.
+     */
+    @NonNull
+    private Node[] split(@Nullable Node node, @NonNull Song song) {
+        if (node == null)
+            return new Node[2];
+        if (comparator.compare(song, node.song) < 0) {
+            Node[] halves = split(node.left, song);
+            halves[1] = new Node(node.song, halves[1], node.right);
+            return halves;
+        }
+        Node[] halves = split(node.right, song);
+        halves[0] = new Node(node.song, node.left, halves[0]);
+        return halves;
+    }
+
+    @Nullable
+    private Node delete(@Nullable Node node, @NonNull Song song) {
+        if (node == null)
+            return null;
+        int result = comparator.compare(song, node.song);
+        if (result == 0)
+            return merge(node.left, node.right);
+        if (result < 0) {
+            Node left = delete(node.left, song);
+            return (left == node.left) ? node : new Node(node.song, left, node.right);
+        }
+        Node right = delete(node.right, song);
+        return (right == node.right) ? node : new Node(node.song, node.left, right);
+    }
+
+    @Nullable
+    private static Node merge(@Nullable Node left, @Nullable Node right) {
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
+        if (left.priority > right.priority)
+            return new Node(left.song, left.left, merge(left.right, right));
+        return new Node(right.song, merge(left, right.left), right.right);
+    }
+
+    private static int computeSizes(@Nullable Node node) {
+        if (node == null)
+            return 0;
+        node.size = 1 + computeSizes(node.left) + computeSizes(node.right);
+        return node.size;
+    }
+
+    private static int size(@Nullable Node node) {
+        return (node == null) ? 0 : node.size;
+    }
+
+    /**
+     * @param id A MediaStore id.
+     * @return A well mixed hash of the id. Ids are often consecutive, which would make a poor
+     * treap if used directly.
+     */
+    private static int priorityOf(long id) {
+        long hash = (id ^ (id >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        return (int) (hash ^ (hash >>> 31));
+    }
+
+    /**
+     * A node of the tree. Never modified once it is part of a published tree.
+     */
+    private static final class Node {
+        final Song song;
+        final int priority;
+        Node left;
+        Node right;
+        int size;
+
+        Node(@NonNull Song song, @Nullable Node left, @Nullable Node right) {
+            this.song = song;
+            this.priority = priorityOf(song.getMediaStoreId());
+            this.left = left;
+            this.right = right;
+            this.size = 1 + size(left) + size(right);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.dezen.riccardo.musicplayer.utils.LongObjectMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * How many times each Song has been played, by MediaStore id. Only Songs played at least once take
+ * space. All methods are thread safe.
+ * <p>
+ * The file layout is: magic (int), format version (int), count (int), then one record per Song:
+ * song id (long), play count (int).
+ *
+ * @author Riccardo De Zen.
+ */
+class PlayCounts {
+
+    private static final int MAGIC = 0x4d505043; // "MPPC"
+    private static final int FORMAT_VERSION = 1;
+
+    private final LongObjectMap<Integer> counts = new LongObjectMap<>();
+
+    /**
+     * @param id The MediaStore id of a Song.
+     * @return The number of times the Song was played.
+     */
+    synchronized int get(long id) {
+        Integer count = counts.get(id);
+        return (count == null) ? 0 : count;
+    }
+
+    /**
+     * Count one more play of a Song.
+     *
+     * @param id The MediaStore id of the Song.
+     */
+    synchronized void increment(long id) {
+        counts.put(id, get(id) + 1);
+    }
+
+    /**
+     * @param file The file to read.
+     * @return The counts in the file. Empty if the file is missing, corrupted, or has been written
+     * with a different format version.
+     */
+    @WorkerThread
+    @NonNull
+    static PlayCounts read(@NonNull File file) {
+        PlayCounts playCounts = new PlayCounts();
+        if (!file.isFile())
+            return playCounts;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+                return playCounts;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++)
+                playCounts.counts.put(in.readLong(), in.readInt());
+        } catch (IOException e) {
+            // A corrupted file is just a missing file.
+            playCounts.counts.clear();
+        }
+        return playCounts;
+    }
+
+    /**
+     * Write the counts to a file, replacing it atomically.
+     *
+     * @param file The destination file.
+     * @return {@code true} if the file was written, {@code false} otherwise.
+     */
+    @WorkerThread
+    synchronized boolean write(@NonNull File file) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            long[] ids = counts.keys();
+            out.writeInt(ids.length);
+            for (long id : ids) {
+                out.writeLong(id);
+                out.writeInt(counts.get(id));
+            }
+        } catch (IOException e) {
+            temp.delete();
+            return false;
+        }
+        return temp.renameTo(file);
+    }
+}
@@ -3,9 +3,14 @@ package com.dezen.riccardo.musicplayer.song;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.dezen.riccardo.musicplayer.FilterableCollection;
+import com.dezen.riccardo.musicplayer.utils.LongObjectMap;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -13,35 +18,396 @@ import java.util.Set;
 /**
  * Base class for a PlayList. Contains Songs, sorted based on some criteria. Allows navigating to
  * the previous or next element, shuffling, and some utility methods for searching and sorting.
+ * <p>
+ * Songs are kept in a {@link SongTree}, so adding, removing and moving Songs, as well as finding
+ * a Song by position or the position of a Song, are O(log n). A PlayList can also be viewed in
+ * one of the {@link SortOrder}s, through a {@link SortIndex} computing each order once for its
+ * content, so switching back to an order is O(1). Editing a sorted PlayList keeps the current
+ * order, but stops it from being a sort order, as Songs can then be moved around. Songs are unique
+ * by id, and are indexed by their numeric MediaStore id: methods taking a String id just parse it.
+ * All methods are synchronized, but iterating over positions while another thread edits the
+ * PlayList can still skip or repeat Songs: {@link #getModificationCount()} tells whether positions
+ * read before are still valid.
+ * <p>
+ * A PlayList can also be a view of an immutable {@link LibraryVersion}, which is already sorted in
+ * every order. Such a PlayList is only copied into a tree when first edited, and
+ * {@link #withChanges(Collection, Set)} derives a new version sharing most of the old one.
+ * <p>
+ * Searching goes through a {@link TrigramIndex}. The library shares the one kept up to date by
+ * the {@link SongManager}, reading it as of its own version, and so do the search results derived
+ * from it. Any other PlayList builds its own on the first search and keeps it up to date with its
+ * edits.
  *
  * @author Riccardo De Zen.
  */
-public class PlayList {
+public class PlayList implements FilterableCollection<String, Song> {
 
     private final Random random = new Random();
-    private final List<Song> songs = new ArrayList<>();
-    private final HashMap<String, Song> songById = new HashMap<>();
-    private final HashMap<String, Integer> indexById = new HashMap<>();
+    private final SongTree songs = new SongTree();
+    private final LongObjectMap<SongTree.Node> nodeById = new LongObjectMap<>();
+    // The active sort order, null if Songs are in the order they were added or moved to.
+    private SortOrder sortOrder = null;
+    // Every sort order of the Songs, relative to their order in the tree. Null once edited.
+    private SortIndex sortIndex = null;
+    // The version holding the Songs, instead of the tree, until the first edit.
+    private LibraryVersion version = null;
+    // Index of the Songs, or of a superset of them if shared. Null until the first search.
+    private TrigramIndex searchIndex = null;
+    // The version of the index holding a superset of the Songs, 0 for an own index.
+    private long searchVersion = 0;
+    // Whether the index was built for this PlayList, and must follow its edits.
+    private boolean ownsSearchIndex = false;
+    // Number of edits and order changes, so that positions can be known to be stale.
+    private int modifications = 0;
 
     /**
-     * TODO add, remove, etc to make the PlayList be usable even when empty.
-     * Empty PlayList, currently just a placeholder.
+     * Empty PlayList.
      */
     public PlayList() {
 
     }
 
     /**
-     * @param content A Set of Songs. The playlist will contain these.
+     * Each {@link SortOrder} is only computed the first time it is used.
+     *
+     * @param content A Set of Songs. The playlist will contain these, sorted by id.
      */
     public PlayList(Set<Song> content) {
-        for (Song song : content) {
-            songs.add(song);
-            songById.put(song.getId(), song);
+        List<Song> sorted = new ArrayList<>(content);
+        Collections.sort(sorted);
+        build(sorted);
+        sortIndex = new SortIndex(sorted);
+    }
+
+    /**
+     * @param ordered A List of Songs. The playlist will contain these, in the same order. Only
+     *                the first occurrence of a Song is kept.
+     */
+    public PlayList(@NonNull List<Song> ordered) {
+        Set<Song> seen = new HashSet<>(ordered.size() * 2);
+        List<Song> unique = new ArrayList<>(ordered.size());
+        for (Song song : ordered)
+            if (seen.add(song))
+                unique.add(song);
+        build(unique);
+    }
+
+    /**
+     * View of a version, in O(1) if the version keeps the order. The order can be changed, and
+     * the PlayList edited, without affecting the version.
+     *
+     * @param version The version holding the Songs.
+     * @param order   The order of the Songs, null for the order of their ids.
+     */
+    public PlayList(@NonNull LibraryVersion version, @Nullable SortOrder order) {
+        this.version = version;
+        setSortOrder(order);
+    }
+
+    /**
+     * Build a new PlayList by applying a set of changes to this one. This PlayList is not
+     * modified. If this PlayList is a view of a {@link LibraryVersion}, the new one is a view of
+     * the version derived from it, built in O(changes log n).
+     *
+     * @param changed    Songs that were added or modified. They replace any Song with the same id.
+     * @param currentIds The ids of the Songs that should be kept. Any Song whose id is not in here
+     *                   is dropped.
+     * @return A new PlayList containing the updated Songs.
+     */
+    @NonNull
+    public synchronized PlayList withChanges(@NonNull Collection<Song> changed,
+                                             @NonNull Set<String> currentIds) {
+        // The changed Songs are not in a shared index, so the new PlayList never shares it.
+        if (version != null)
+            return new PlayList(version.withChanges(changed, currentIds), sortOrder);
+        Set<Song> content = new HashSet<>(size() + changed.size());
+        for (Song song : getSongs())
+            if (currentIds.contains(song.getId()))
+                content.add(song);
+        for (Song song : changed) {
+            // Songs are equal if their id is, so the old version must be removed first.
+            content.remove(song);
+            if (currentIds.contains(song.getId()))
+                content.add(song);
+        }
+        PlayList playList = new PlayList(content);
+        playList.sortOrder = sortOrder;
+        return playList;
+    }
+
+    /**
+     * Search through an index instead of building one. The index can contain Songs that are not
+     * in this PlayList, and is not changed when this PlayList is edited.
+     *
+     * @param index        An index holding the Songs of this PlayList, or a superset of them, in
+     *                     the given version. Kept up to date by its owner.
+     * @param indexVersion The version of the index to search.
+     */
+    synchronized void setSearchIndex(@NonNull TrigramIndex index, long indexVersion) {
+        searchIndex = index;
+        searchVersion = indexVersion;
+        ownsSearchIndex = false;
+    }
+
+    /**
+     * Set the order of the Songs. O(1), but each order is computed in O(n log n) the first time it
+     * is read after the PlayList was built or edited.
+     *
+     * @param order The new order, null for the order the Songs were added or moved in. For a
+     *              PlayList built from a Set, that is the order of their ids.
+     */
+    public synchronized void setSortOrder(@Nullable SortOrder order) {
+        if (version != null && !version.hasOrder(order)) {
+            // Copied, as the version can not be viewed in the order.
+            List<Song> byId = version.getSongs(null);
+            version = null;
+            build(byId);
+        }
+        if (order != null && sortIndex == null && version == null) {
+            // The Songs are in the tree order, so the index can be built on it.
+            List<Song> list = new ArrayList<>(size());
+            songs.collect(list);
+            sortIndex = new SortIndex(list);
+        }
+        if (order != sortOrder)
+            modifications++;
+        sortOrder = order;
+    }
+
+    /**
+     * @return The number of times the Songs were edited or their order changed. Positions read
+     * while the count stays the same are consistent with each other.
+     */
+    public synchronized int getModificationCount() {
+        return modifications;
+    }
+
+    /**
+     * @return The current order of the Songs, null if they are not sorted.
+     */
+    @Nullable
+    public synchronized SortOrder getSortOrder() {
+        return sortOrder;
+    }
+
+    /**
+     * Add a Song at the end of the PlayList.
+     *
+     * @param song The Song to add.
+     * @return True if the Song was added, false if a Song with the same id is already present.
+     */
+    public synchronized boolean add(@NonNull Song song) {
+        return add(size(), song);
+    }
+
+    /**
+     * Add a Song at a given position. The Songs from that position onward are shifted by one.
+     *
+     * @param index The position for the Song, between 0 and {@link #size()}.
+     * @param song  The Song to add.
+     * @return True if the Song was added, false if a Song with the same id is already present.
+     * @throws IndexOutOfBoundsException If the index is invalid.
+     */
+    public synchronized boolean add(int index, @NonNull Song song) {
+        if (getById(song.getMediaStoreId()) != null)
+            return false;
+        beforeEdit();
+        nodeById.put(song.getMediaStoreId(), songs.insert(index, song));
+        if (ownsSearchIndex)
+            searchIndex.put(song);
+        return true;
+    }
+
+    /**
+     * @param id The id of the Song to remove.
+     * @return The removed Song, or null if no Song has the given id.
+     */
+    @Nullable
+    public synchronized Song remove(@NonNull String id) {
+        if (!contains(id))
+            return null;
+        beforeEdit();
+        SongTree.Node node = nodeById.remove(Song.parseId(id));
+        songs.remove(node);
+        if (ownsSearchIndex)
+            searchIndex.remove(node.song.getMediaStoreId());
+        return node.song;
+    }
+
+    /**
+     * @param index The position of the Song to remove.
+     * @return The removed Song.
+     * @throws IndexOutOfBoundsException If the index is invalid.
+     */
+    @NonNull
+    public synchronized Song remove(int index) {
+        beforeEdit();
+        SongTree.Node node = songs.get(index);
+        nodeById.remove(node.song.getMediaStoreId());
+        songs.remove(node);
+        if (ownsSearchIndex)
+            searchIndex.remove(node.song.getMediaStoreId());
+        return node.song;
+    }
+
+    /**
+     * Move a Song to another position. The Songs in between are shifted by one.
+     *
+     * @param from The current position of the Song.
+     * @param to   The new position of the Song, between 0 and {@link #size()} - 1.
+     * @throws IndexOutOfBoundsException If either index is invalid.
+     */
+    public synchronized void move(int from, int to) {
+        if (to < 0 || to >= size())
+            throw new IndexOutOfBoundsException("Index: " + to + ", Size: " + size());
+        beforeEdit();
+        SongTree.Node node = songs.get(from);
+        songs.remove(node);
+        songs.insert(to, node);
+    }
+
+    /**
+     * Remove every Song.
+     */
+    public synchronized void clear() {
+        modifications++;
+        version = null;
+        songs.clear();
+        nodeById.clear();
+        sortOrder = null;
+        sortIndex = null;
+        if (ownsSearchIndex) {
+            searchIndex = null;
+            searchVersion = 0;
+            ownsSearchIndex = false;
+        }
+    }
+
+    /**
+     * Queries of three or more characters only check the Songs containing all of their trigrams,
+     * shorter ones check every Song. The result shares the index of this PlayList.
+     *
+     * @param query The text to look for in the title, artist and album of the Songs.
+     * @return A new PlayList with the matching Songs, in the order they are in this one.
+     */
+    @NonNull
+    @Override
+    public synchronized PlayList getMatching(@NonNull String query) {
+        PlayList matching = new PlayList(matchingSongs(SearchKeys.fold(query)));
+        matching.shareSearchIndex(this);
+        return matching;
+    }
+
+    /**
+     * The remaining Songs keep their order, but, as for any edit, stop being a sort order.
+     *
+     * @param query The text to look for in the title, artist and album of the Songs.
+     * @return A new PlayList with the removed Songs, in the order they were in this one.
+     */
+    @NonNull
+    @Override
+    public synchronized PlayList removeNonMatching(@NonNull String query) {
+        List<Song> matching = matchingSongs(SearchKeys.fold(query));
+        Set<Song> kept = new HashSet<>(matching);
+        List<Song> removed = new ArrayList<>(size() - matching.size());
+        for (Song song : getSongs())
+            if (!kept.contains(song))
+                removed.add(song);
+        if (!removed.isEmpty()) {
+            beforeEdit();
+            build(matching);
+            if (ownsSearchIndex)
+                for (Song song : removed)
+                    searchIndex.remove(song.getMediaStoreId());
+        }
+        PlayList nonMatching = new PlayList(removed);
+        nonMatching.shareSearchIndex(this);
+        return nonMatching;
+    }
+
+    /**
+     * Search allowing for typos: Songs are ranked by how much of the query they contain, see
+     * {@link TrigramIndex#similar(String, int, long, PlayList)}. Only the best hits are kept while
+     * ranking, so the cost does not depend on how many Songs are similar.
+     *
+     * @param query The text to look for in the title, artist and album of the Songs.
+     * @param limit The maximum number of hits.
+     * @return The hits, best first.
+     */
+    @NonNull
+    public synchronized List<SearchHit> getSimilar(@NonNull String query, int limit) {
+        return searchIndex().similar(SearchKeys.fold(query), limit, searchVersion, this);
+    }
+
+    /**
+     * @param foldedQuery A folded query.
+     * @return The Songs matching the query, in order.
+     */
+    @NonNull
+    private List<Song> matchingSongs(@NonNull String foldedQuery) {
+        List<Song> matching = new ArrayList<>();
+        long[] candidates = searchIndex().candidates(foldedQuery, searchVersion);
+        if (candidates == null) {
+            for (Song song : getSongs())
+                if (song.matchesFolded(foldedQuery))
+                    matching.add(song);
+            return matching;
+        }
+        // Check the text first, so that only the matches need a position.
+        LongObjectMap<Song> matches = new LongObjectMap<>(candidates.length);
+        for (long id : candidates) {
+            Song song = getById(id);
+            if (song != null && song.matchesFolded(foldedQuery))
+                matches.put(id, song);
+        }
+        if (matches.isEmpty())
+            return matching;
+        // Finding each position costs O(log n), a single pass over the Songs O(n).
+        int log = 32 - Integer.numberOfLeadingZeros(size());
+        if ((long) matches.size() * log > size()) {
+            for (Song song : getSongs())
+                if (matches.containsKey(song.getMediaStoreId()))
+                    matching.add(song);
+            return matching;
+        }
+        // Sort the matches by position, packed in the high bits along with their index.
+        long[] positions = new long[matches.size()];
+        int count = 0;
+        for (long id : matches.keys()) {
+            positions[count++] = ((long) indexOf(id) << 32) | matching.size();
+            matching.add(matches.get(id));
+        }
+        Arrays.sort(positions, 0, count);
+        List<Song> ordered = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            ordered.add(matching.get((int) positions[i]));
+        return ordered;
+    }
+
+    /**
+     * @return The index to search through, built for this PlayList if there is none yet.
+     */
+    @NonNull
+    private TrigramIndex searchIndex() {
+        if (searchIndex == null) {
+            searchIndex = TrigramIndex.build(getSongs());
+            searchVersion = 0;
+            ownsSearchIndex = true;
+        }
+        return searchIndex;
+    }
+
+    /**
+     * Search through the index of another PlayList holding a superset of this one's Songs, if
+     * it is shared. An index owned by the other PlayList follows its edits, not this one's.
+     *
+     * @param other The other PlayList.
+     */
+    private void shareSearchIndex(@NonNull PlayList other) {
+        if (other.searchIndex != null && !other.ownsSearchIndex) {
+            searchIndex = other.searchIndex;
+            searchVersion = other.searchVersion;
         }
-        Collections.sort(songs);
-        for (int i = 0; i < songs.size(); i++)
-            indexById.put(songs.get(i).getId(), i);
     }
 
     /**
@@ -49,8 +415,12 @@ public class PlayList {
      * @return The Song at the given index. Raises IndexOutOfBoundsException if the index is
      * invalid (less than 0 or more than size-1).
      */
-    public Song get(int index) {
-        return songs.get(index);
+    public synchronized Song get(int index) {
+        if (version != null)
+            return version.get(sortOrder, index);
+        if (sortOrder != null)
+            return sortIndex.get(sortOrder, index);
+        return songs.get(index).song;
     }
 
     /**
@@ -59,21 +429,99 @@ public class PlayList {
      */
     @Nullable
     public Song get(String id) {
-        return songById.get(id);
+        return getById(Song.parseId(id));
+    }
+
+    /**
+     * Unlike {@link #indexOf(long)}, never needs to compare text.
+     *
+     * @param id The MediaStore id of the Song.
+     * @return The Song with the given id, or null if it's not present.
+     */
+    @Nullable
+    synchronized Song getById(long id) {
+        if (version != null)
+            return version.get(id);
+        SongTree.Node node = nodeById.get(id);
+        return (node == null) ? null : node.song;
+    }
+
+    /**
+     * @param id The id of a Song.
+     * @return The position of the Song, or -1 if it's not present.
+     */
+    public int indexOf(@Nullable String id) {
+        return indexOf(Song.parseId(id));
+    }
+
+    /**
+     * @param id The MediaStore id of a Song.
+     * @return The position of the Song, or -1 if it's not present.
+     */
+    public synchronized int indexOf(long id) {
+        if (version != null)
+            return version.indexOf(sortOrder, id);
+        SongTree.Node node = nodeById.get(id);
+        if (node == null)
+            return -1;
+        int treeIndex = songs.indexOf(node);
+        return (sortOrder == null) ? treeIndex : sortIndex.rank(sortOrder, treeIndex);
+    }
+
+    /**
+     * @param id The id of a Song.
+     * @return True if the PlayList contains a Song with the given id.
+     */
+    public synchronized boolean contains(@Nullable String id) {
+        if (version != null)
+            return version.get(Song.parseId(id)) != null;
+        return nodeById.containsKey(Song.parseId(id));
+    }
+
+    /**
+     * @return A copy of the Songs in the PlayList, in order.
+     */
+    @NonNull
+    public synchronized List<Song> getSongs() {
+        if (version != null)
+            return version.getSongs(sortOrder);
+        List<Song> list = new ArrayList<>(size());
+        if (sortOrder == null) {
+            songs.collect(list);
+        } else {
+            for (int i = 0; i < sortIndex.size(); i++)
+                list.add(sortIndex.get(sortOrder, i));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * @return A copy of the ids of the Songs in the PlayList.
+     */
+    @NonNull
+    public synchronized Set<String> getSongIds() {
+        Set<String> ids = new HashSet<>(size() * 2);
+        if (version != null) {
+            for (Song song : version.getSongs(null))
+                ids.add(song.getId());
+        }
+        for (long id : nodeById.keys())
+            ids.add(String.valueOf(id));
+        return Collections.unmodifiableSet(ids);
     }
 
     /**
      * @return The size of the PlayList.
      */
-    public int size() {
-        return songs.size();
+    public synchronized int size() {
+        return (version != null) ? version.size() : songs.size();
     }
 
     /**
      * @return True if the playlist is empty, false otherwise.
      */
-    public boolean isEmpty() {
-        return songs.isEmpty();
+    public synchronized boolean isEmpty() {
+        return size() == 0;
     }
 
     /**
@@ -85,17 +533,7 @@ public class PlayList {
      */
     @Nullable
     public Song next(@NonNull String id) {
-        // Empty list -> null.
-        if (songs.isEmpty())
-            return null;
-
-        // Song not found -> null.
-        Integer index = indexById.get(id);
-        if (index == null)
-            return null;
-
-        int nextIndex = (index + 1) % songs.size();
-        return songs.get(nextIndex);
+        return neighbour(Song.parseId(id), 1);
     }
 
     /**
@@ -105,7 +543,7 @@ public class PlayList {
      * @return The next Song.
      */
     public Song next(@NonNull Song song) {
-        return next(song.getId());
+        return neighbour(song.getMediaStoreId(), 1);
     }
 
     /**
@@ -115,17 +553,7 @@ public class PlayList {
      * @return The previous Song.
      */
     public Song previous(@NonNull String id) {
-        // Empty list -> null.
-        if (songs.isEmpty())
-            return null;
-
-        // Song not found -> null.
-        Integer index = indexById.get(id);
-        if (index == null)
-            return null;
-
-        int nextIndex = (index - 1 + songs.size()) % songs.size();
-        return songs.get(nextIndex);
+        return neighbour(Song.parseId(id), -1);
     }
 
     /**
@@ -135,7 +563,7 @@ public class PlayList {
      * @return The previous Song.
      */
     public Song previous(@NonNull Song song) {
-        return previous(song.getId());
+        return neighbour(song.getMediaStoreId(), -1);
     }
 
     /**
@@ -145,17 +573,68 @@ public class PlayList {
      * @return A random Song, if {@code id} is not null, its song will be excluded. Returns null if
      * the playlist is empty.
      */
-    public Song random(@Nullable String id) {
+    public synchronized Song random(@Nullable String id) {
         // Empty playlist -> null
-        if (songs.isEmpty())
+        int size = size();
+        if (size == 0)
             return null;
 
         // Id null or not in playlist -> random.
-        Integer start = indexById.get(id);
-        int max = (id == null || start == null) ? songs.size() + 1 : songs.size();
+        int start = indexOf(id);
+        int max = (start == -1) ? size + 1 : size;
         int step = random.nextInt(max);
 
-        // If start == null -> Step goes from 0, otherwise from start, to skip it.
-        return songs.get((((start != null) ? start : 0) + step) % songs.size());
+        // If start == -1 -> Step goes from 0, otherwise from start, to skip it.
+        return get((((start != -1) ? start : 0) + step) % size);
+    }
+
+    /**
+     * @param id     The MediaStore id of the current Song.
+     * @param offset 1 for the next Song, -1 for the previous one.
+     * @return The Song next to the current one, wrapping around the ends. Null if the id does not
+     * match any Song.
+     */
+    @Nullable
+    private synchronized Song neighbour(long id, int offset) {
+        // Song not found or empty list -> null.
+        int index = indexOf(id);
+        if (index == -1)
+            return null;
+
+        int size = size();
+        return get((index + offset + size) % size);
+    }
+
+    /**
+     * Called before any edit. Positions given to the edit refer to the current order, so the Songs
+     * of a sorted PlayList are first rearranged in the tree to be in that order. The sort index
+     * can not follow edits, and is dropped. A view of a version is copied into the tree.
+     */
+    private void beforeEdit() {
+        modifications++;
+        if (version != null) {
+            List<Song> current = getSongs();
+            version = null;
+            sortOrder = null;
+            build(current);
+        } else if (sortOrder != null) {
+            List<Song> sorted = getSongs();
+            sortOrder = null;
+            build(sorted);
+        }
+        sortIndex = null;
+    }
+
+    /**
+     * Replace the content of the PlayList.
+     *
+     * @param list The Songs, in order.
+     */
+    private void build(@NonNull List<Song> list) {
+        List<SongTree.Node> nodes = new ArrayList<>(list.size());
+        songs.build(list, nodes);
+        nodeById.clear();
+        for (SongTree.Node node : nodes)
+            nodeById.put(node.song.getMediaStoreId(), node);
     }
 }
@@ -0,0 +1,643 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.dezen.riccardo.musicplayer.utils.LongObjectMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class storing the playlists created by the user, as lists of Song ids. The file is a log of
+ * operations: every edit appends a small record, so an edit costs O(1) disk writes no matter how
+ * long the playlist is. When the log holds much more records than the playlists themselves, it is
+ * compacted: every playlist is written as a single record in a new file, which replaces the log.
+ * Opening the store is one sequential read.
+ * <p>
+ * The file layout is: magic (int), format version (int), then records, each being an operation
+ * code (byte) followed by its arguments. A record cut short by a crash is dropped when reading. A
+ * file that can not be read is never deleted: it is moved aside, and what could be read from it is
+ * written to a new log.
+ * <p>
+ * The content is kept in memory, all the methods are thread safe, and disk writes happen in order
+ * on a single background thread.
+ *
+ * @author Riccardo De Zen.
+ */
+class PlayListStore {
+
+    private static final int MAGIC = 0x4d50504c; // "MPPL"
+    private static final int FORMAT_VERSION = 1;
+
+    // Operation codes.
+    private static final byte OP_CREATE = 1;
+    private static final byte OP_RENAME = 2;
+    private static final byte OP_DELETE = 3;
+    private static final byte OP_ADD = 4;
+    private static final byte OP_REMOVE = 5;
+    private static final byte OP_MOVE = 6;
+    private static final byte OP_CLEAR = 7;
+    private static final byte OP_SET = 8;
+
+    // The log is compacted when it has more than this many records, plus one per live entry.
+    private static final int COMPACTION_SLACK = 1024;
+    // Suffix of a log that could not be read, kept for recovery.
+    private static final String UNREADABLE_SUFFIX = ".unreadable";
+
+    // Results of reading a record, besides its length.
+    private static final int END_OF_LOG = -1;
+    private static final int INVALID_RECORD = -2;
+
+    private final File file;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor(runnable ->
+            new Thread(runnable, "PlayListStore")
+    );
+    private final Future<?> loading;
+
+    // Content of the store, by playlist id, in creation order.
+    private final LongObjectMap<StoredList> lists = new LongObjectMap<>();
+    private long nextId = 1;
+    // Records in the log file, and in the pending buffer.
+    private int records = 0;
+    // Entries that the log would hold after compaction.
+    private int liveEntries = 0;
+
+    // Records not written yet, and whether a task writing them is already queued.
+    private final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pending = new DataOutputStream(pendingBytes);
+    private boolean flushQueued = false;
+
+    /**
+     * The file is read in the background, methods called in the meantime wait for it.
+     *
+     * @param file The log file. Created on the first edit if missing.
+     */
+    PlayListStore(@NonNull File file) {
+        this.file = file;
+        loading = diskExecutor.submit(this::load);
+    }
+
+    /**
+     * @return The names of the playlists, by id, in creation order.
+     */
+    @NonNull
+    synchronized Map<Long, String> getNames() {
+        awaitLoaded();
+        long[] ids = lists.keys();
+        Arrays.sort(ids);
+        Map<Long, String> names = new LinkedHashMap<>();
+        for (long id : ids)
+            names.put(id, lists.get(id).name);
+        return names;
+    }
+
+    /**
+     * @param id The id of a playlist.
+     * @return The name of the playlist, or null if there is no such playlist.
+     */
+    @Nullable
+    synchronized String getName(long id) {
+        awaitLoaded();
+        StoredList list = lists.get(id);
+        return (list == null) ? null : list.name;
+    }
+
+    /**
+     * @param id The id of a playlist.
+     * @return A copy of the Song ids in the playlist, in order, or null if there is no such
+     * playlist.
+     */
+    @Nullable
+    synchronized long[] getSongIds(long id) {
+        awaitLoaded();
+        StoredList list = lists.get(id);
+        return (list == null) ? null : Arrays.copyOf(list.songs, list.size);
+    }
+
+    /**
+     * @param name The name of the new playlist.
+     * @return The id of the new, empty, playlist.
+     */
+    synchronized long create(@NonNull String name) {
+        awaitLoaded();
+        long id = nextId;
+        apply(OP_CREATE, id, name, 0, 0);
+        append(OP_CREATE, id, name, 0, 0);
+        return id;
+    }
+
+    /**
+     * @param id   The id of the playlist.
+     * @param name The new name.
+     */
+    synchronized void rename(long id, @NonNull String name) {
+        edit(OP_RENAME, id, name, 0, 0);
+    }
+
+    /**
+     * @param id The id of the playlist to delete.
+     */
+    synchronized void delete(long id) {
+        edit(OP_DELETE, id, null, 0, 0);
+    }
+
+    /**
+     * @param id     The id of the playlist.
+     * @param songId The id of the Song to add. Nothing happens if it is already in the playlist.
+     * @param before The id of the Song the new one goes before, 0 to add it at the end.
+     */
+    synchronized void add(long id, long songId, long before) {
+        edit(OP_ADD, id, null, songId, before);
+    }
+
+    /**
+     * @param id     The id of the playlist.
+     * @param songId The id of the Song to remove.
+     */
+    synchronized void remove(long id, long songId) {
+        edit(OP_REMOVE, id, null, songId, 0);
+    }
+
+    /**
+     * @param id     The id of the playlist.
+     * @param songId The id of the Song to move.
+     * @param before The id of the Song it goes before, 0 to move it to the end.
+     */
+    synchronized void move(long id, long songId, long before) {
+        edit(OP_MOVE, id, null, songId, before);
+    }
+
+    /**
+     * @param id The id of the playlist to empty.
+     */
+    synchronized void clear(long id) {
+        edit(OP_CLEAR, id, null, 0, 0);
+    }
+
+    /**
+     * Replace the whole content of a playlist. Writes a record as long as the playlist, so it is
+     * only meant for reorderings that can not be expressed as single moves.
+     *
+     * @param id      The id of the playlist.
+     * @param songIds The ids of the Songs, in order, without duplicates.
+     */
+    synchronized void set(long id, @NonNull long[] songIds) {
+        awaitLoaded();
+        StoredList list = lists.get(id);
+        if (list == null)
+            return;
+        replace(list, Arrays.copyOf(songIds, songIds.length), songIds.length);
+        try {
+            writeSet(pending, id, songIds, songIds.length);
+        } catch (IOException e) {
+            // Writing to memory does not fail.
+        }
+        recordAppended();
+    }
+
+    /**
+     * Wait until everything has been written to disk.
+     */
+    void sync() {
+        try {
+            diskExecutor.submit(() -> {
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // The empty task can not fail.
+        }
+    }
+
+    /**
+     * Apply an edit to an existing playlist and log it.
+     */
+    private void edit(byte op, long id, @Nullable String name, long songId, long before) {
+        awaitLoaded();
+        if (lists.get(id) == null)
+            return;
+        apply(op, id, name, songId, before);
+        append(op, id, name, songId, before);
+    }
+
+    /**
+     * Apply an operation to the content in memory. Used both for edits and when reading the log.
+     * Arguments not used by the operation are ignored.
+     */
+    private void apply(byte op, long id, @Nullable String name, long songId, long before) {
+        StoredList list = lists.get(id);
+        if (op == OP_CREATE) {
+            lists.put(id, new StoredList(name));
+            nextId = Math.max(nextId, id + 1);
+            liveEntries++;
+            return;
+        }
+        if (list == null)
+            return;
+        int oldSize = list.size;
+        switch (op) {
+            case OP_RENAME:
+                list.name = name;
+                break;
+            case OP_DELETE:
+                lists.remove(id);
+                liveEntries -= 1 + oldSize;
+                return;
+            case OP_ADD:
+                if (!list.contains(songId))
+                    list.insert(list.insertionPoint(before), songId);
+                break;
+            case OP_REMOVE:
+                list.removeAt(list.indexOf(songId));
+                break;
+            case OP_MOVE:
+                int from = list.indexOf(songId);
+                if (from != -1 && songId != before) {
+                    list.removeAt(from);
+                    list.insert(list.insertionPoint(before), songId);
+                }
+                break;
+            case OP_CLEAR:
+                list.clear();
+                break;
+        }
+        liveEntries += list.size - oldSize;
+    }
+
+    /**
+     * Add a record to the pending buffer and make sure it gets written.
+     */
+    private void append(byte op, long id, @Nullable String name, long songId, long before) {
+        try {
+            writeRecord(pending, op, id, name, songId, before);
+        } catch (IOException e) {
+            // Writing to memory does not fail.
+        }
+        recordAppended();
+    }
+
+    /**
+     * Count a record added to the pending buffer, and make sure a task will write it.
+     */
+    private void recordAppended() {
+        records++;
+        if (!flushQueued) {
+            flushQueued = true;
+            diskExecutor.execute(this::flush);
+        }
+    }
+
+    /**
+     * Replace the content of a playlist in memory.
+     */
+    private void replace(@NonNull StoredList list, @NonNull long[] songIds, int count) {
+        liveEntries += count - list.size;
+        list.setContent(songIds, count);
+    }
+
+    private static void writeSet(@NonNull DataOutputStream out, long id, @NonNull long[] songIds,
+                                 int count) throws IOException {
+        out.writeByte(OP_SET);
+        out.writeLong(id);
+        out.writeInt(count);
+        for (int i = 0; i < count; i++)
+            out.writeLong(songIds[i]);
+    }
+
+    private static void writeRecord(@NonNull DataOutputStream out, byte op, long id,
+                                    @Nullable String name, long songId, long before)
+            throws IOException {
+        out.writeByte(op);
+        out.writeLong(id);
+        switch (op) {
+            case OP_CREATE:
+            case OP_RENAME:
+                out.writeUTF(name);
+                break;
+            case OP_ADD:
+            case OP_MOVE:
+                out.writeLong(songId);
+                out.writeLong(before);
+                break;
+            case OP_REMOVE:
+                out.writeLong(songId);
+                break;
+        }
+    }
+
+    /**
+     * Append the pending records to the log, or compact it if it has grown too much.
+     */
+    @WorkerThread
+    private void flush() {
+        byte[] bytes;
+        synchronized (this) {
+            flushQueued = false;
+            if (records > liveEntries + COMPACTION_SLACK) {
+                compact();
+                return;
+            }
+            if (pendingBytes.size() == 0)
+                return;
+            bytes = pendingBytes.toByteArray();
+            pendingBytes.reset();
+        }
+        boolean isNew = !file.isFile() || file.length() == 0;
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+            if (isNew) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+            }
+            out.write(bytes);
+        } catch (IOException e) {
+            // The edits are kept in memory, and will be saved by the next compaction.
+            synchronized (this) {
+                records += COMPACTION_SLACK;
+            }
+        }
+    }
+
+    /**
+     * Replace the log with one holding just the current content. The pending records are already
+     * part of the content, so they are dropped.
+     */
+    @WorkerThread
+    private void compact() {
+        ByteArrayOutputStream bytes;
+        synchronized (this) {
+            flushQueued = false;
+            bytes = compactedLog();
+            pendingBytes.reset();
+        }
+        writeLog(bytes);
+    }
+
+    /**
+     * @return A log holding just the current content. Resets the count of records to match it.
+     */
+    @NonNull
+    private ByteArrayOutputStream compactedLog() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(bytes))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            long[] ids = lists.keys();
+            Arrays.sort(ids);
+            for (long id : ids) {
+                StoredList list = lists.get(id);
+                writeRecord(out, OP_CREATE, id, list.name, 0, 0);
+                writeSet(out, id, list.songs, list.size);
+            }
+        } catch (IOException e) {
+            // Writing to memory does not fail.
+        }
+        records = lists.size() * 2;
+        return bytes;
+    }
+
+    /**
+     * Replace the log file, atomically.
+     *
+     * @param bytes The content of the new log.
+     */
+    @WorkerThread
+    private void writeLog(@NonNull ByteArrayOutputStream bytes) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            bytes.writeTo(out);
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        temp.renameTo(file);
+    }
+
+    /**
+     * Read the log. A last record cut short by a crash is cut off, so that new records are not
+     * appended after it. If the header is not the expected one, or the log can not be read to the
+     * end, the file is moved aside and a new log is written with what could be read.
+     */
+    @WorkerThread
+    private void load() {
+        if (!file.isFile())
+            return;
+        long validLength = 0;
+        boolean readable = false;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+                throw new IOException("Unknown playlist log format");
+            validLength = 8;
+            int read;
+            while ((read = readRecord(in)) >= 0) {
+                validLength += read;
+                records++;
+            }
+            readable = (read == END_OF_LOG);
+        } catch (EOFException e) {
+            // Cut short by a crash, everything read so far is valid.
+            readable = validLength > 0;
+        } catch (IOException e) {
+            // Handled below, the file is kept.
+        }
+        if (readable) {
+            truncate(validLength);
+            return;
+        }
+        File aside = new File(file.getPath() + UNREADABLE_SUFFIX);
+        aside.delete();
+        // Nothing else touches the content while loading, so the lock is not needed.
+        if (file.renameTo(aside) && !lists.isEmpty())
+            writeLog(compactedLog());
+    }
+
+    /**
+     * @param in The log, positioned at the start of a record.
+     * @return The length of the record, {@link #END_OF_LOG} if the log is over, or
+     * {@link #INVALID_RECORD} if the record is not a valid one.
+     * @throws EOFException If the record is incomplete.
+     */
+    private int readRecord(@NonNull DataInputStream in) throws IOException {
+        int op = in.read();
+        if (op == -1)
+            return END_OF_LOG;
+        long id = in.readLong();
+        int length = 9;
+        String name = null;
+        long songId = 0;
+        long before = 0;
+        switch (op) {
+            case OP_CREATE:
+            case OP_RENAME:
+                name = in.readUTF();
+                // The UTF length prefix, plus the modified UTF-8 bytes.
+                length += 2 + modifiedUtfLength(name);
+                break;
+            case OP_ADD:
+            case OP_MOVE:
+                songId = in.readLong();
+                before = in.readLong();
+                length += 16;
+                break;
+            case OP_REMOVE:
+                songId = in.readLong();
+                length += 8;
+                break;
+            case OP_DELETE:
+            case OP_CLEAR:
+                break;
+            case OP_SET:
+                int count = in.readInt();
+                if (count < 0)
+                    return INVALID_RECORD;
+                long[] songs = new long[count];
+                for (int i = 0; i < count; i++)
+                    songs[i] = in.readLong();
+                StoredList list = lists.get(id);
+                if (list != null)
+                    replace(list, songs, count);
+                return length + 4 + 8 * count;
+            default:
+                return INVALID_RECORD;
+        }
+        apply((byte) op, id, name, songId, before);
+        return length;
+    }
+
+    /**
+     * @param length The length to cut the log file to, nothing happens if it is not shorter.
+     */
+    private void truncate(long length) {
+        if (file.length() <= length)
+            return;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        } catch (IOException e) {
+            // The next compaction will replace the file anyway.
+        }
+    }
+
+    /**
+     * Wait for the log to be read. Loading does not take the lock, it runs before anything else
+     * touches the content, and completing the Future publishes what it read.
+     */
+    private void awaitLoaded() {
+        try {
+            loading.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Nothing could be read, the store starts empty.
+        }
+    }
+
+    /**
+     * @param string Any String.
+     * @return The length of the String in modified UTF-8, as written by
+     * {@link DataOutputStream#writeUTF(String)}.
+     */
+    private static int modifiedUtfLength(@NonNull String string) {
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F)
+                length++;
+            else if (c > 0x07FF)
+                length += 3;
+            else
+                length += 2;
+        }
+        return length;
+    }
+
+    /**
+     * A playlist, as a growable array of Song ids. The ids are also kept in a map, so that adding
+     * a Song checks whether it is already there without scanning the list, and reading a list
+     * built by appending costs O(n).
+     */
+    private static final class StoredList {
+        String name;
+        long[] songs = new long[16];
+        int size = 0;
+        // The Songs in the list, values are unused.
+        private final LongObjectMap<Boolean> members = new LongObjectMap<>();
+
+        StoredList(@NonNull String name) {
+            this.name = name;
+        }
+
+        boolean contains(long songId) {
+            return members.containsKey(songId);
+        }
+
+        int indexOf(long songId) {
+            if (!contains(songId))
+                return -1;
+            for (int i = 0; i < size; i++)
+                if (songs[i] == songId)
+                    return i;
+            return -1;
+        }
+
+        /**
+         * @param before The id of a Song, 0 for none.
+         * @return The position of the Song, or the end of the list if it is not there.
+         */
+        int insertionPoint(long before) {
+            int index = (before == 0) ? -1 : indexOf(before);
+            return (index == -1) ? size : index;
+        }
+
+        void insert(int index, long songId) {
+            if (size == songs.length)
+                songs = Arrays.copyOf(songs, Math.max(16, size * 2));
+            System.arraycopy(songs, index, songs, index + 1, size - index);
+            songs[index] = songId;
+            size++;
+            members.put(songId, Boolean.TRUE);
+        }
+
+        void removeAt(int index) {
+            if (index == -1)
+                return;
+            members.remove(songs[index]);
+            System.arraycopy(songs, index + 1, songs, index, size - index - 1);
+            size--;
+        }
+
+        void clear() {
+            size = 0;
+            members.clear();
+        }
+
+        /**
+         * @param songIds The new ids, without duplicates. Not copied.
+         * @param count   The number of ids.
+         */
+        void setContent(@NonNull long[] songIds, int count) {
+            songs = songIds;
+            size = count;
+            members.clear();
+            for (int i = 0; i < count; i++)
+                members.put(songIds[i], Boolean.TRUE);
+        }
+    }
+}
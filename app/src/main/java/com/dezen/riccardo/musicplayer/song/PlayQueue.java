@@ -0,0 +1,336 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Queue of Songs to play before going on with the current {@link PlayList}. Each entry holds the
+ * MediaStore id of a Song and a queue id, unique in the queue, so that the same Song can be queued
+ * more than once. Entries before the position have already been played, the last
+ * {@link #HISTORY_SIZE} of them are kept.
+ * <p>
+ * The entries are stored in a gap buffer: two arrays with a hole at the place of the last edit.
+ * Inserting k Songs costs O(k) plus the distance the hole has to move, so consecutive "play next"
+ * or "add to queue" requests are O(k) each, and a whole album or a selection of thousands of Songs
+ * is a single array copy. Playing the next entry only moves the position.
+ * <p>
+ * Looking up an entry by its queue id scans the arrays. All methods are thread safe.
+ *
+ * @author Riccardo De Zen.
+ */
+public class PlayQueue {
+
+    /**
+     * Returned when there is no entry to play.
+     */
+    public static final long NO_SONG = -1;
+
+    static final int HISTORY_SIZE = 64;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // The entries, with a gap between gapStart (included) and gapEnd (excluded).
+    private long[] songIds = new long[INITIAL_CAPACITY];
+    private long[] queueIds = new long[INITIAL_CAPACITY];
+    private int gapStart = 0;
+    private int gapEnd = INITIAL_CAPACITY;
+    // Number of entries already played.
+    private int position = 0;
+    private long nextQueueId = 0;
+
+    /**
+     * @return The number of entries, played ones included.
+     */
+    public synchronized int size() {
+        return songIds.length - (gapEnd - gapStart);
+    }
+
+    /**
+     * @return The number of entries already played, which is also the index of the next one.
+     */
+    public synchronized int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return True if there is an entry after the position.
+     */
+    public synchronized boolean hasNext() {
+        return position < size();
+    }
+
+    /**
+     * Queue Songs to be played right after the current one, in the given order.
+     *
+     * @param ids The MediaStore ids of the Songs.
+     */
+    public synchronized void playNext(@NonNull long[] ids) {
+        insert(position, ids);
+    }
+
+    /**
+     * Queue Songs to be played after all the queued ones.
+     *
+     * @param ids The MediaStore ids of the Songs.
+     */
+    public synchronized void add(@NonNull long[] ids) {
+        insert(size(), ids);
+    }
+
+    /**
+     * Insert Songs at an index. Inserting before the position puts the Songs among the played
+     * ones.
+     *
+     * @param index The index of the first inserted entry, between 0 and {@link #size()}.
+     * @param ids   The MediaStore ids of the Songs.
+     * @throws IndexOutOfBoundsException If the index is out of bounds.
+     */
+    public synchronized void insert(int index, @NonNull long[] ids) {
+        if (index < 0 || index > size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        ensureGap(ids.length);
+        moveGap(index);
+        for (long id : ids) {
+            songIds[gapStart] = id;
+            queueIds[gapStart] = nextQueueId++;
+            gapStart++;
+        }
+        if (index < position)
+            position += ids.length;
+    }
+
+    /**
+     * @return The MediaStore id of the next Song, or {@link #NO_SONG}. The entry becomes played.
+     */
+    public synchronized long next() {
+        if (!hasNext())
+            return NO_SONG;
+        long id = songIds[physical(position)];
+        position++;
+        trimHistory();
+        return id;
+    }
+
+    /**
+     * @return The queue id of the last played entry, or {@link #NO_SONG} if none was played.
+     */
+    public synchronized long getLastQueueId() {
+        return (position == 0) ? NO_SONG : queueIds[physical(position - 1)];
+    }
+
+    /**
+     * Play an entry out of order. The entries before it become played.
+     *
+     * @param queueId The queue id of the entry.
+     * @return The MediaStore id of the entry's Song, or {@link #NO_SONG} if there is no such
+     * entry.
+     */
+    public synchronized long skipTo(long queueId) {
+        int index = indexOf(queueId);
+        if (index == -1)
+            return NO_SONG;
+        position = index + 1;
+        long id = songIds[physical(index)];
+        trimHistory();
+        return id;
+    }
+
+    /**
+     * @param queueId The queue id of an entry.
+     * @return True if the entry was in the queue and has been removed.
+     */
+    public synchronized boolean remove(long queueId) {
+        int index = indexOf(queueId);
+        if (index == -1)
+            return false;
+        removeAt(index);
+        return true;
+    }
+
+    /**
+     * Remove the first entry of a Song that has not been played yet.
+     *
+     * @param id The MediaStore id of the Song.
+     * @return True if an entry has been removed.
+     */
+    public synchronized boolean removeSong(long id) {
+        for (int i = position; i < size(); i++) {
+            if (songIds[physical(i)] == id) {
+                removeAt(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move an entry, keeping its queue id.
+     *
+     * @param queueId The queue id of the entry.
+     * @param to      The index of the entry after the move.
+     * @return True if the entry was found and moved.
+     * @throws IndexOutOfBoundsException If the destination is out of bounds.
+     */
+    public synchronized boolean move(long queueId, int to) {
+        if (to < 0 || to >= size())
+            throw new IndexOutOfBoundsException("Index: " + to + ", Size: " + size());
+        int from = indexOf(queueId);
+        if (from == -1)
+            return false;
+        long id = songIds[physical(from)];
+        removeAt(from);
+        // Reinsert without drawing a new queue id.
+        moveGap(to);
+        songIds[gapStart] = id;
+        queueIds[gapStart] = queueId;
+        gapStart++;
+        if (to < position)
+            position++;
+        return true;
+    }
+
+    /**
+     * Remove all the entries.
+     */
+    public synchronized void clear() {
+        songIds = new long[INITIAL_CAPACITY];
+        queueIds = new long[INITIAL_CAPACITY];
+        gapStart = 0;
+        gapEnd = INITIAL_CAPACITY;
+        position = 0;
+    }
+
+    /**
+     * Read part of the queue, so that only what is shown needs to be copied.
+     *
+     * @param from  The index of the first entry to read.
+     * @param count The maximum number of entries to read.
+     * @return The entries, fewer than count if the queue ends before.
+     */
+    @NonNull
+    public synchronized List<Entry> getWindow(int from, int count) {
+        int start = Math.max(0, from);
+        int end = (int) Math.min(size(), (long) start + count);
+        List<Entry> window = new ArrayList<>(Math.max(0, end - start));
+        for (int i = start; i < end; i++) {
+            int physical = physical(i);
+            window.add(new Entry(queueIds[physical], songIds[physical]));
+        }
+        return window;
+    }
+
+    /**
+     * @param queueId A queue id.
+     * @return The index of the entry with the id, -1 if there is none.
+     */
+    public synchronized int indexOf(long queueId) {
+        for (int i = 0; i < gapStart; i++)
+            if (queueIds[i] == queueId)
+                return i;
+        for (int i = gapEnd; i < queueIds.length; i++)
+            if (queueIds[i] == queueId)
+                return i - (gapEnd - gapStart);
+        return -1;
+    }
+
+    /**
+     * @param index The index of an entry.
+     */
+    private void removeAt(int index) {
+        moveGap(index);
+        gapEnd++;
+        if (index < position)
+            position--;
+    }
+
+    /**
+     * Drop the oldest played entries once they are twice the kept ones, so that the cost of moving
+     * the gap over them is spread over {@link #HISTORY_SIZE} plays.
+     */
+    private void trimHistory() {
+        if (position <= 2 * HISTORY_SIZE)
+            return;
+        int dropped = position - HISTORY_SIZE;
+        moveGap(0);
+        gapEnd += dropped;
+        position = HISTORY_SIZE;
+    }
+
+    /**
+     * @param index The index of an entry.
+     * @return The index of the entry in the arrays.
+     */
+    private int physical(int index) {
+        return (index < gapStart) ? index : index + (gapEnd - gapStart);
+    }
+
+    /**
+     * Move the gap so that it starts at an index, shifting only the entries in between.
+     *
+     * @param index The new start of the gap.
+     */
+    private void moveGap(int index) {
+        if (index < gapStart) {
+            int count = gapStart - index;
+            System.arraycopy(songIds, index, songIds, gapEnd - count, count);
+            System.arraycopy(queueIds, index, queueIds, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+        } else if (index > gapStart) {
+            int count = index - gapStart;
+            System.arraycopy(songIds, gapEnd, songIds, gapStart, count);
+            System.arraycopy(queueIds, gapEnd, queueIds, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    /**
+     * Grow the arrays, at least doubling them, if the gap is smaller than needed.
+     *
+     * @param needed The number of entries about to be inserted.
+     */
+    private void ensureGap(int needed) {
+        if (gapEnd - gapStart >= needed)
+            return;
+        int size = size();
+        int capacity = Math.max(songIds.length * 2, size + needed);
+        int tail = songIds.length - gapEnd;
+        long[] newSongIds = Arrays.copyOf(songIds, capacity);
+        long[] newQueueIds = Arrays.copyOf(queueIds, capacity);
+        System.arraycopy(songIds, gapEnd, newSongIds, capacity - tail, tail);
+        System.arraycopy(queueIds, gapEnd, newQueueIds, capacity - tail, tail);
+        songIds = newSongIds;
+        queueIds = newQueueIds;
+        gapEnd = capacity - tail;
+    }
+
+    /**
+     * An entry of the queue.
+     */
+    public static final class Entry {
+        private final long queueId;
+        private final long songId;
+
+        Entry(long queueId, long songId) {
+            this.queueId = queueId;
+            this.songId = songId;
+        }
+
+        /**
+         * @return The id of the entry in the queue.
+         */
+        public long getQueueId() {
+            return queueId;
+        }
+
+        /**
+         * @return The MediaStore id of the entry's Song.
+         */
+        public long getSongId() {
+            return songId;
+        }
+    }
+}
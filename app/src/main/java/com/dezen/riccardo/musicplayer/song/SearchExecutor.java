@@ -0,0 +1,208 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.dezen.riccardo.musicplayer.utils.LongObjectMap;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class running searches on a dedicated thread, so that typing never waits for them. Every query
+ * gets a version, and each new query supersedes the ones before it: queued searches for old
+ * queries are skipped, a running one stops before its results are delivered, and the listener
+ * only ever receives results for the latest query. Results may still arrive after a newer query
+ * has been started, {@link #isCurrent(Result)} tells whether they should be shown.
+ * <p>
+ * Consecutive queries over the same PlayList go through one {@link SearchSession}, so each
+ * keystroke only checks the results of the previous one. The results carry the
+ * {@link SearchHit} of each Song, with the ranges of its matches, so that they can be highlighted
+ * while scrolling without searching the text again: the hits of the first Songs are found on the
+ * search thread, the ones of the Songs further down the first time they are asked for, and each
+ * is kept once found.
+ *
+ * @author Riccardo De Zen.
+ */
+public class SearchExecutor {
+
+    // Hits found on the search thread, enough for the first screens of results.
+    private static final int PREFETCHED_HITS = 256;
+    // How many hits are built between checks for a newer query.
+    private static final int CANCEL_CHECK_INTERVAL = 32;
+
+    private final AtomicInteger version = new AtomicInteger();
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "SearchExecutor")
+    );
+    // Only accessed by the search thread.
+    private SearchSession session;
+
+    /**
+     * Start a search, superseding any search in progress. The listener is called from the
+     * search thread, unless the search is superseded before it completes.
+     *
+     * @param playList The PlayList to search.
+     * @param query    The text to look for in the title, artist and album of the Songs.
+     * @param listener The listener that will receive the result.
+     * @return The version of the search.
+     */
+    public int search(@NonNull PlayList playList, @NonNull String query,
+                      @NonNull ResultListener listener) {
+        final int run = version.incrementAndGet();
+        searchExecutor.execute(() -> {
+            if (version.get() != run)
+                return;
+            PlayList matching = runSearch(playList, query);
+            Result result = new Result(run, query, playList, matching);
+            if (prefetchHits(result, run))
+                listener.onSearchCompleted(result);
+        });
+        return run;
+    }
+
+    /**
+     * Drop the results of every search started so far.
+     */
+    public void cancel() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * @param result Some results.
+     * @return True if no search has been started or cancelled after the one of the results.
+     */
+    public boolean isCurrent(@NonNull Result result) {
+        return result.getVersion() == version.get();
+    }
+
+    /**
+     * Cancel every search and stop the search thread. The executor cannot be used afterwards.
+     */
+    public void shutdown() {
+        cancel();
+        searchExecutor.shutdownNow();
+    }
+
+    /**
+     * @param playList The PlayList to search.
+     * @param query    The query.
+     * @return The matching Songs.
+     */
+    @WorkerThread
+    @NonNull
+    private PlayList runSearch(@NonNull PlayList playList, @NonNull String query) {
+        // A different PlayList makes the previous results useless.
+        if (session == null || session.getPlayList() != playList)
+            session = new SearchSession(playList);
+        return session.search(query);
+    }
+
+    /**
+     * Find the hits of the first Songs of some results, so that showing them needs no search.
+     *
+     * @param result The results.
+     * @param run    The version of the search.
+     * @return False if the search has been superseded.
+     */
+    @WorkerThread
+    private boolean prefetchHits(@NonNull Result result, int run) {
+        PlayList matching = result.getPlayList();
+        int count = Math.min(matching.size(), PREFETCHED_HITS);
+        for (int i = 0; i < count && result.foldedQuery != null; i++) {
+            if (i % CANCEL_CHECK_INTERVAL == 0 && version.get() != run)
+                return false;
+            result.getHit(matching.get(i));
+        }
+        return version.get() == run;
+    }
+
+    /**
+     * The results of one search.
+     */
+    public static final class Result {
+        private final int version;
+        private final String query;
+        private final PlayList source;
+        private final PlayList playList;
+        // The folded query, null if empty.
+        private final String foldedQuery;
+        // The hits found so far, by MediaStore id.
+        private final LongObjectMap<SearchHit> hits = new LongObjectMap<>();
+
+        private Result(int version, @NonNull String query, @NonNull PlayList source,
+                       @NonNull PlayList playList) {
+            this.version = version;
+            this.query = query;
+            this.source = source;
+            this.playList = playList;
+            String folded = SearchKeys.fold(query);
+            this.foldedQuery = folded.isEmpty() ? null : folded;
+        }
+
+        /**
+         * @return The version of the search, as returned by
+         * {@link SearchExecutor#search(PlayList, String, ResultListener)}.
+         */
+        public int getVersion() {
+            return version;
+        }
+
+        /**
+         * @return The query.
+         */
+        @NonNull
+        public String getQuery() {
+            return query;
+        }
+
+        /**
+         * @return The PlayList that was searched.
+         */
+        @NonNull
+        public PlayList getSource() {
+            return source;
+        }
+
+        /**
+         * @return The matching Songs, in the order of the searched PlayList. The searched PlayList
+         * itself if the query was empty.
+         */
+        @NonNull
+        public PlayList getPlayList() {
+            return playList;
+        }
+
+        /**
+         * Only the first call for a Song searches its folded keys, later ones read the kept hit.
+         *
+         * @param song A Song of {@link #getPlayList()}.
+         * @return The hit for the Song, with the ranges of its matches. Null if the query was
+         * empty.
+         */
+        @Nullable
+        public synchronized SearchHit getHit(@NonNull Song song) {
+            if (foldedQuery == null)
+                return null;
+            SearchHit hit = hits.get(song.getMediaStoreId());
+            if (hit == null) {
+                hit = SearchHit.of(song, 1f, foldedQuery);
+                hits.put(song.getMediaStoreId(), hit);
+            }
+            return hit;
+        }
+    }
+
+    /**
+     * Listener for the results of a search.
+     */
+    public interface ResultListener {
+        /**
+         * @param result The results of the latest search.
+         */
+        @WorkerThread
+        void onSearchCompleted(@NonNull Result result);
+    }
+}
@@ -0,0 +1,141 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * A Song found by a search, with how well it matched and where. The ranges of the matches are
+ * found in the folded keys of the Song, whose chars are in the same positions as in the original
+ * title, album and artist, so they can be highlighted without searching the text again.
+ *
+ * @author Riccardo De Zen.
+ */
+public final class SearchHit {
+
+    public static final int FIELD_TITLE = 0;
+    public static final int FIELD_ALBUM = 1;
+    public static final int FIELD_ARTIST = 2;
+
+    // Shared by every field with no matches.
+    private static final int[] NO_RANGES = new int[0];
+
+    private final Song song;
+    private final float score;
+    private final int[] titleRanges;
+    private final int[] albumRanges;
+    private final int[] artistRanges;
+
+    /**
+     * @param song         The Song.
+     * @param score        How well the Song matched, from 0 to 1.
+     * @param titleRanges  The ranges of the matches in the title.
+     * @param albumRanges  The ranges of the matches in the album.
+     * @param artistRanges The ranges of the matches in the artist.
+     */
+    private SearchHit(@NonNull Song song, float score, @NonNull int[] titleRanges,
+                      @NonNull int[] albumRanges, @NonNull int[] artistRanges) {
+        this.song = song;
+        this.score = score;
+        this.titleRanges = titleRanges;
+        this.albumRanges = albumRanges;
+        this.artistRanges = artistRanges;
+    }
+
+    /**
+     * @param song        The Song.
+     * @param score       How well the Song matched, from 0 to 1.
+     * @param foldedTerms The terms to find in the Song, already folded with
+     *                    {@link SearchKeys#fold(String)}. Every occurrence of each one is a match.
+     * @return The hit.
+     */
+    @NonNull
+    static SearchHit of(@NonNull Song song, float score, @NonNull String... foldedTerms) {
+        return new SearchHit(song, score,
+                rangesOf(song.getTitleKey(), foldedTerms),
+                rangesOf(song.getAlbumKey(), foldedTerms),
+                rangesOf(song.getArtistKey(), foldedTerms)
+        );
+    }
+
+    /**
+     * @return The Song.
+     */
+    @NonNull
+    public Song getSong() {
+        return song;
+    }
+
+    /**
+     * @return How well the Song matched, from 0 to 1. 1 for substring matches, and for similar
+     * Songs containing every trigram of the query.
+     */
+    public float getScore() {
+        return score;
+    }
+
+    /**
+     * @param field One of {@link #FIELD_TITLE}, {@link #FIELD_ALBUM} or {@link #FIELD_ARTIST}.
+     * @return The matches in the field, as pairs of start (inclusive) and end (exclusive)
+     * offsets, sorted and not overlapping. Empty if there are none. Must not be modified.
+     */
+    @NonNull
+    public int[] getRanges(int field) {
+        switch (field) {
+            case FIELD_TITLE:
+                return titleRanges;
+            case FIELD_ALBUM:
+                return albumRanges;
+            case FIELD_ARTIST:
+                return artistRanges;
+            default:
+                throw new IllegalArgumentException("Unknown field: " + field);
+        }
+    }
+
+    /**
+     * @param key   A folded key.
+     * @param terms Folded terms.
+     * @return Every occurrence of the terms in the key, as pairs of offsets, overlapping ones
+     * merged. Spaces matched before or after the key are left out.
+     */
+    @NonNull
+    private static int[] rangesOf(@NonNull String key, @NonNull String[] terms) {
+        // Each occurrence is packed as start << 32 | end, so sorting sorts by start.
+        long[] found = null;
+        int count = 0;
+        for (String term : terms) {
+            if (term.isEmpty())
+                continue;
+            for (int padded = SearchKeys.indexOfPadded(key, term, 0); padded >= 0;
+                 padded = SearchKeys.indexOfPadded(key, term, padded + 1)) {
+                int start = Math.max(0, padded - 1);
+                int end = Math.min(key.length(), padded - 1 + term.length());
+                if (end <= start)
+                    continue;
+                if (found == null)
+                    found = new long[4];
+                else if (count == found.length)
+                    found = Arrays.copyOf(found, count * 2);
+                found[count++] = ((long) start << 32) | end;
+            }
+        }
+        if (count == 0)
+            return NO_RANGES;
+        Arrays.sort(found, 0, count);
+
+        int[] ranges = new int[count * 2];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int start = (int) (found[i] >>> 32);
+            int end = (int) found[i];
+            if (size > 0 && start <= ranges[size - 1])
+                ranges[size - 1] = Math.max(ranges[size - 1], end);
+            else {
+                ranges[size++] = start;
+                ranges[size++] = end;
+            }
+        }
+        return (size == ranges.length) ? ranges : Arrays.copyOf(ranges, size);
+    }
+}
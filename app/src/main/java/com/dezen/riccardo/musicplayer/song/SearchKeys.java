@@ -0,0 +1,113 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.text.Normalizer;
+
+/**
+ * Folding of text into the form used for searching: lower case, without diacritics, with any
+ * char that is not a letter or a digit replaced by a space. So "Beyonc&eacute;" and "beyonce"
+ * fold to the same key, and so do "AC/DC" and "ac dc".
+ * <p>
+ * Every char is folded on its own into exactly one char, so a range in a folded key is the same
+ * range in the original text, which is what highlighting needs. The keys of the Songs are folded
+ * once, when they are loaded, and saved with the {@link LibrarySnapshot}: changing how text is
+ * folded requires a new snapshot format version.
+ *
+ * @author Riccardo De Zen.
+ */
+final class SearchKeys {
+
+    // Folded form of the Latin chars, where diacritics are found. Other chars are only lowered.
+    private static final char[] LATIN = new char[0x250];
+
+    static {
+        for (char c = 0; c < LATIN.length; c++) {
+            // The first char of the canonical decomposition is the base letter.
+            char base = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD).charAt(0);
+            LATIN[c] = Character.isLetterOrDigit(base) ? Character.toLowerCase(base) : ' ';
+        }
+        // Letters with no decomposition: sharp s, ae, oe, slashed o, eth, d with stroke,
+        // l with stroke, thorn, h with stroke, dotless i, kra, t with stroke.
+        String special = "\u00df\u00e6\u0153\u00f8\u00f0\u0111\u0142\u00fe\u0127\u0131\u0138\u0167";
+        String folded = "saooddlthikt";
+        for (int i = 0; i < special.length(); i++) {
+            char lower = special.charAt(i);
+            LATIN[lower] = folded.charAt(i);
+            LATIN[Character.toUpperCase(lower)] = folded.charAt(i);
+        }
+    }
+
+    private SearchKeys() {
+    }
+
+    /**
+     * @param text Some text, may be null.
+     * @return The folded text, with the same length as the original, empty if it was null. The
+     * same instance if folding changes nothing.
+     */
+    @NonNull
+    static String fold(@Nullable String text) {
+        if (text == null)
+            return "";
+        char[] chars = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            char folded = fold(c);
+            if (folded != c && chars == null)
+                chars = text.toCharArray();
+            if (chars != null)
+                chars[i] = folded;
+        }
+        return (chars == null) ? text : new String(chars);
+    }
+
+    /**
+     * Find a folded term in a folded key, as if the key had a space before and after it, the way
+     * {@link TrigramIndex} indexes it. A term starting or ending with a space, such as a query
+     * typed up to the end of a word, then also matches at the start or end of the key.
+     *
+     * @param key  A folded key.
+     * @param term A folded term.
+     * @param from Where to start looking, in the padded key.
+     * @return Where the term first occurs from there on, in the padded key: the key's chars start
+     * at 1. -1 if it does not occur.
+     */
+    static int indexOfPadded(@NonNull String key, @NonNull String term, int from) {
+        int length = term.length();
+        if (length == 0 || (term.charAt(0) != ' ' && term.charAt(length - 1) != ' ')) {
+            // The term can only occur inside the key.
+            int index = key.indexOf(term, Math.max(0, from - 1));
+            return (index == -1) ? -1 : index + 1;
+        }
+        int last = key.length() + 2 - length;
+        for (int start = Math.max(0, from); start <= last; start++) {
+            int i = 0;
+            while (i < length && paddedCharAt(key, start + i) == term.charAt(i))
+                i++;
+            if (i == length)
+                return start;
+        }
+        return -1;
+    }
+
+    /**
+     * @param key   A folded key.
+     * @param index A position in the key with a space before and after it.
+     * @return The char at the position.
+     */
+    private static char paddedCharAt(@NonNull String key, int index) {
+        return (index == 0 || index > key.length()) ? ' ' : key.charAt(index - 1);
+    }
+
+    /**
+     * @param c A char.
+     * @return The folded char.
+     */
+    private static char fold(char c) {
+        if (c < LATIN.length)
+            return LATIN[c];
+        return Character.isLetterOrDigit(c) ? Character.toLowerCase(c) : ' ';
+    }
+}
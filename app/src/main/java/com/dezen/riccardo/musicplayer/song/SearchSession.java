@@ -0,0 +1,117 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Search as the user types over a {@link PlayList}. The results of the previous queries are kept
+ * in a stack: if the new query contains the one on top, such as when a character is appended,
+ * its Songs can only be among that query's results, so only those are checked. When characters
+ * are deleted, the stack is popped back to a query the new one contains, and its results are
+ * reused. Each keystroke then costs time proportional to the latest results, not to the size of
+ * the PlayList. Only the first query, or one sharing nothing with the previous ones, goes
+ * through {@link PlayList#getMatching(String)}.
+ * <p>
+ * The kept results refer to the content and order of the PlayList when they were found, so they
+ * are dropped whenever the PlayList is edited or sorted, as told by its
+ * {@link PlayList#getModificationCount()}. Not thread safe.
+ *
+ * @author Riccardo De Zen.
+ */
+public class SearchSession {
+
+    private final PlayList playList;
+    // Queries and their results, each query containing all the ones below it.
+    private final Deque<Results> stack = new ArrayDeque<>();
+    // The modification count of the PlayList the results were found in.
+    private int modifications;
+
+    /**
+     * @param playList The PlayList to search.
+     */
+    public SearchSession(@NonNull PlayList playList) {
+        this.playList = playList;
+        this.modifications = playList.getModificationCount();
+    }
+
+    /**
+     * @return The searched PlayList.
+     */
+    @NonNull
+    public PlayList getPlayList() {
+        return playList;
+    }
+
+    /**
+     * @param query The text to look for in the title, artist and album of the Songs.
+     * @return The matching Songs, in the order of the PlayList. The whole PlayList if the query is
+     * empty.
+     */
+    @NonNull
+    public PlayList search(@NonNull String query) {
+        String folded = SearchKeys.fold(query);
+        if (playList.getModificationCount() != modifications) {
+            stack.clear();
+            modifications = playList.getModificationCount();
+        }
+        if (folded.isEmpty()) {
+            stack.clear();
+            return playList;
+        }
+        while (!stack.isEmpty() && !folded.contains(stack.peek().query))
+            stack.pop();
+        Results top = stack.peek();
+        if (top != null && top.query.equals(folded))
+            return top.getPlayList();
+
+        Results results;
+        if (top == null) {
+            PlayList matching = playList.getMatching(query);
+            results = new Results(folded, matching.getSongs(), matching);
+        } else {
+            // The Songs matching the new query can only be among the ones matching the old one.
+            List<Song> narrowed = new ArrayList<>();
+            for (Song song : top.songs)
+                if (song.matchesFolded(folded))
+                    narrowed.add(song);
+            results = new Results(folded, narrowed, null);
+        }
+        stack.push(results);
+        return results.getPlayList();
+    }
+
+    /**
+     * @return The number of result sets kept.
+     */
+    int depth() {
+        return stack.size();
+    }
+
+    /**
+     * The results of one query.
+     */
+    private static final class Results {
+        private final String query;
+        private final List<Song> songs;
+        // Built the first time the results are returned.
+        private PlayList playList;
+
+        Results(@NonNull String query, @NonNull List<Song> songs, @Nullable PlayList playList) {
+            this.query = query;
+            this.songs = songs;
+            this.playList = playList;
+        }
+
+        @NonNull
+        PlayList getPlayList() {
+            if (playList == null)
+                playList = new PlayList(songs);
+            return playList;
+        }
+    }
+}
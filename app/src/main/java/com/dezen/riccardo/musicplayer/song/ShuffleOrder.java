@@ -0,0 +1,313 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.dezen.riccardo.musicplayer.utils.IntIntMap;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Shuffled order of a {@link PlayList}. Every Song is played once before any is repeated, then a
+ * new order is drawn. The order is a Fisher-Yates shuffle of the positions in the PlayList,
+ * generated one step at a time: only the swapped positions are stored, so the memory used is
+ * proportional to the Songs played, not to the size of the PlayList.
+ * <p>
+ * When possible, a Song by the same artist as the previous one is not picked. The last
+ * {@link #HISTORY_SIZE} Songs are remembered, so that {@link #previous()} goes back through the
+ * Songs actually played, and {@link #next()} goes forward again before drawing new ones.
+ * <p>
+ * The permutation refers to positions, so it is rebuilt whenever the PlayList is edited or
+ * sorted, as told by its {@link PlayList#getModificationCount()}, or replaced. The Songs already
+ * played in the round stay played, and the history, which holds Song ids, is kept: Songs no longer
+ * in the PlayList are just skipped. The PlayList is locked while the order reads it.
+ *
+ * @author Riccardo De Zen.
+ */
+public class ShuffleOrder {
+
+    static final int HISTORY_SIZE = 256;
+    // Draws to try before accepting a Song by the same artist as the previous one.
+    private static final int ARTIST_ATTEMPTS = 4;
+
+    private final Random random;
+    private PlayList playList;
+    // The size of the PlayList, and its modification count, when the permutation was built.
+    private int size;
+    private int modifications;
+
+    // The permutation, position -> value, and its inverse. Only entries that differ from the
+    // identity are stored.
+    private final IntIntMap permutation = new IntIntMap();
+    private final IntIntMap inverse = new IntIntMap();
+    // The permutation is drawn up to this position.
+    private int drawn = 0;
+    // Whether the next draw must skip the last position, which holds the previous round's Song.
+    private boolean skipLast = false;
+    // The ids of the Songs drawn in this round, to draw them again if the PlayList changes.
+    private long[] roundIds = new long[16];
+
+    // Ring buffer of the ids of the played Songs, and how many steps back from the newest one we
+    // are.
+    private final long[] history = new long[HISTORY_SIZE];
+    private int historyEnd = 0;
+    private int historySize = 0;
+    private int historyOffset = 0;
+
+    /**
+     * @param playList The PlayList to shuffle.
+     * @param startId  The id of the Song playing now, which is considered already played in the
+     *                 first round. May be null.
+     */
+    public ShuffleOrder(@NonNull PlayList playList, @Nullable String startId) {
+        this(playList, startId, new Random());
+    }
+
+    /**
+     * @param playList The PlayList to shuffle.
+     * @param startId  The id of the Song playing now, may be null.
+     * @param random   The source of randomness.
+     */
+    ShuffleOrder(@NonNull PlayList playList, @Nullable String startId, @NonNull Random random) {
+        this.playList = playList;
+        this.random = random;
+        this.size = playList.size();
+        this.modifications = playList.getModificationCount();
+        if (startId != null)
+            jumpTo(startId);
+    }
+
+    /**
+     * Follow another PlayList, such as a new version of the current one. The Songs played in
+     * this round and the history are kept, as far as they are in the new PlayList.
+     *
+     * @param playList The new PlayList.
+     */
+    public synchronized void setPlayList(@NonNull PlayList playList) {
+        this.playList = playList;
+        synchronized (playList) {
+            rebuild();
+        }
+    }
+
+    /**
+     * @return The next Song in the order, going forward in the history first if {@link
+     * #previous()} was called. Null if the PlayList is empty.
+     */
+    @Nullable
+    public synchronized Song next() {
+        synchronized (playList) {
+            refresh();
+            while (historyOffset > 0) {
+                historyOffset--;
+                Song song = songAt(historyOffset);
+                if (song != null)
+                    return song;
+            }
+            if (size == 0)
+                return null;
+            if (drawn == size)
+                reshuffle();
+            Song song = playList.get(draw());
+            record(song.getMediaStoreId());
+            return song;
+        }
+    }
+
+    /**
+     * @return The Song played before the current one, or null if the history is over.
+     */
+    @Nullable
+    public synchronized Song previous() {
+        synchronized (playList) {
+            refresh();
+            for (int offset = historyOffset + 1; offset < historySize; offset++) {
+                Song song = songAt(offset);
+                if (song != null) {
+                    historyOffset = offset;
+                    return song;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Tell the order a Song was picked outside of it. The Song becomes the current one, and is not
+     * drawn again in this round. Nothing happens if the Song is already the current one.
+     *
+     * @param id The id of the Song.
+     */
+    public synchronized void jumpTo(@NonNull String id) {
+        synchronized (playList) {
+            refresh();
+            long songId = Song.parseId(id);
+            int position = playList.indexOf(songId);
+            if (position == -1)
+                return;
+            if (historySize > 0 && historyAt(historyOffset) == songId)
+                return;
+            if (drawn == size)
+                reshuffle();
+            markDrawn(position);
+            skipLast = false;
+            // Jumping discards the Songs ahead in the history, like a browser does.
+            historySize -= historyOffset;
+            historyEnd = (historyEnd - historyOffset + HISTORY_SIZE) % HISTORY_SIZE;
+            historyOffset = 0;
+            record(songId);
+        }
+    }
+
+    /**
+     * @return The number of stored permutation entries, for tests.
+     */
+    int storedEntries() {
+        return permutation.size();
+    }
+
+    /**
+     * One step of Fisher-Yates: pick a random position among those not drawn yet, trying to avoid
+     * the artist of the previous Song.
+     *
+     * @return The drawn position.
+     */
+    private int draw() {
+        Song last = (historySize == 0) ? null : songAt(0);
+        String lastArtist = (last == null) ? null : last.getArtist();
+        int remaining = size - drawn - (skipLast ? 1 : 0);
+        skipLast = false;
+        int index = drawn + random.nextInt(remaining);
+        for (int attempt = 1; attempt < ARTIST_ATTEMPTS && lastArtist != null; attempt++) {
+            String artist = playList.get(valueAt(index)).getArtist();
+            if (!lastArtist.equals(artist))
+                break;
+            index = drawn + random.nextInt(remaining);
+        }
+        swap(drawn, index);
+        int position = valueAt(drawn++);
+        addToRound(playList.get(position).getMediaStoreId());
+        return position;
+    }
+
+    /**
+     * Move a position to the drawn part of the permutation, unless it is there already.
+     *
+     * @param position A position in the PlayList.
+     */
+    private void markDrawn(int position) {
+        int index = inverse.get(position, position);
+        if (index >= drawn) {
+            swap(drawn++, index);
+            addToRound(playList.get(position).getMediaStoreId());
+        }
+    }
+
+    /**
+     * @param songId The id of a Song drawn in this round.
+     */
+    private void addToRound(long songId) {
+        if (drawn > roundIds.length)
+            roundIds = Arrays.copyOf(roundIds, roundIds.length * 2);
+        roundIds[drawn - 1] = songId;
+    }
+
+    /**
+     * Rebuild the permutation if the PlayList changed since it was built.
+     */
+    private void refresh() {
+        if (playList.getModificationCount() != modifications)
+            rebuild();
+    }
+
+    /**
+     * Build the permutation again for the current positions of the Songs. The Songs drawn in
+     * this round that are still in the PlayList are drawn again, in the same order.
+     */
+    private void rebuild() {
+        size = playList.size();
+        modifications = playList.getModificationCount();
+        long[] played = roundIds;
+        int playedCount = drawn;
+        roundIds = new long[played.length];
+        permutation.clear();
+        inverse.clear();
+        drawn = 0;
+        skipLast = false;
+        for (int i = 0; i < playedCount; i++) {
+            int position = playList.indexOf(played[i]);
+            if (position != -1)
+                markDrawn(position);
+        }
+    }
+
+    /**
+     * Start a new round. The first Song of the new round is never the last one of the previous.
+     */
+    private void reshuffle() {
+        permutation.clear();
+        inverse.clear();
+        drawn = 0;
+        int current = (historySize == 0) ? -1 : playList.indexOf(historyAt(historyOffset));
+        if (current != -1 && size > 1) {
+            // Keep the current Song out of the first draw only, by moving it to the last
+            // position, which the first draw skips.
+            swap(size - 1, current);
+            skipLast = true;
+        }
+    }
+
+    private int valueAt(int index) {
+        return permutation.get(index, index);
+    }
+
+    /**
+     * Swap two entries of the permutation.
+     */
+    private void swap(int first, int second) {
+        if (first == second)
+            return;
+        int firstValue = valueAt(first);
+        int secondValue = valueAt(second);
+        set(first, secondValue);
+        set(second, firstValue);
+    }
+
+    private void set(int index, int value) {
+        if (index == value) {
+            permutation.remove(index);
+            inverse.remove(value);
+        } else {
+            permutation.put(index, value);
+            inverse.put(value, index);
+        }
+    }
+
+    /**
+     * @param songId The id of a Song, to add as the newest one in the history.
+     */
+    private void record(long songId) {
+        history[historyEnd] = songId;
+        historyEnd = (historyEnd + 1) % HISTORY_SIZE;
+        historySize = Math.min(historySize + 1, HISTORY_SIZE);
+    }
+
+    /**
+     * @param stepsBack 0 for the newest Song in the history.
+     * @return The Song, or null if it is not in the PlayList anymore.
+     */
+    @Nullable
+    private Song songAt(int stepsBack) {
+        int position = playList.indexOf(historyAt(stepsBack));
+        return (position == -1) ? null : playList.get(position);
+    }
+
+    /**
+     * @param stepsBack 0 for the newest Song in the history.
+     * @return The id of the Song in the history.
+     */
+    private long historyAt(int stepsBack) {
+        return history[(historyEnd - 1 - stepsBack + 2 * HISTORY_SIZE) % HISTORY_SIZE];
+    }
+}
@@ -0,0 +1,228 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * PlayList defined by a {@link SmartRule}, containing the Songs of the library that match it. The
+ * matching Songs are kept as a {@link LibraryVersion} sorted in the one order of the PlayList,
+ * updated by checking only the Songs that changed: an update costs O(changes log n), no matter the
+ * size of the library. Rules reading the clock are checked again against the whole library once
+ * their earliest {@link SmartRule#changesAt(Song, int)} time has passed.
+ * <p>
+ * The content can be read from any thread, it is replaced at once on every update, and
+ * {@link Observer}s are told about each new content. Updates are made by the
+ * {@link SongManager}, one at a time.
+ *
+ * @author Riccardo De Zen.
+ */
+public final class SmartPlayList {
+
+    private final String name;
+    private final SmartRule rule;
+    private final SortOrder order;
+    // Added and removed from any thread, notified from the SongManager's background thread.
+    private final Set<Observer> observers = new CopyOnWriteArraySet<>();
+    private volatile LibraryVersion members;
+    // The earliest time the rule may change its result for a Song of the library, in
+    // milliseconds since the epoch. Only used by updates.
+    private long nextChange = Long.MAX_VALUE;
+
+    /**
+     * @param name  The name of the PlayList.
+     * @param rule  The rule of the PlayList.
+     * @param order The order of the Songs.
+     */
+    SmartPlayList(@NonNull String name, @NonNull SmartRule rule, @NonNull SortOrder order) {
+        this.name = name;
+        this.rule = rule;
+        this.order = order;
+        members = LibraryVersion.build(Collections.<Song>emptyList(), 0, order);
+    }
+
+    /**
+     * @return The name of this PlayList.
+     */
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The rule of this PlayList.
+     */
+    @NonNull
+    public SmartRule getRule() {
+        return rule;
+    }
+
+    /**
+     * @return The order of the Songs.
+     */
+    @NonNull
+    public SortOrder getSortOrder() {
+        return order;
+    }
+
+    /**
+     * @return The number of matching Songs.
+     */
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * @return The matching Songs, as a version of their own, kept by id and in the order of this
+     * PlayList only.
+     */
+    @NonNull
+    public LibraryVersion getVersion() {
+        return members;
+    }
+
+    /**
+     * The PlayList is a view of the Songs matching now, and does not follow later updates, which
+     * are delivered to the {@link Observer}s. It can be passed to
+     * {@link SongManager#setPlayList(SmartPlayList)} to follow them.
+     *
+     * @return A PlayList with the matching Songs in the order of this PlayList, built in O(1).
+     */
+    @NonNull
+    public PlayList getPlayList() {
+        return new PlayList(members, order);
+    }
+
+    /**
+     * @param observer The new Object observing changes in the matching Songs.
+     */
+    public void observe(@NonNull Observer observer) {
+        observers.add(observer);
+    }
+
+    /**
+     * @param observer The Observer to remove.
+     */
+    public void removeObserver(@NonNull Observer observer) {
+        observers.remove(observer);
+    }
+
+    /**
+     * Check every Song of the library, in O(n log n).
+     *
+     * @param library The library.
+     * @param counts  The play counts.
+     */
+    void rebuild(@NonNull LibraryVersion library, @NonNull PlayCounts counts) {
+        List<Song> matching = new ArrayList<>();
+        long next = Long.MAX_VALUE;
+        for (Song song : library.getSongs(null)) {
+            int playCount = counts.get(song.getMediaStoreId());
+            if (rule.matches(song, playCount))
+                matching.add(song);
+            next = Math.min(next, rule.changesAt(song, playCount));
+        }
+        nextChange = next;
+        members = LibraryVersion.build(matching, members.getVersion() + 1, order);
+    }
+
+    /**
+     * Check only the Songs that changed.
+     *
+     * @param changed Songs that were added or modified, or whose play count changed.
+     * @param removed Songs that were removed from the library.
+     * @param counts  The play counts.
+     * @return True if the content changed.
+     */
+    boolean update(@NonNull Collection<Song> changed, @NonNull Collection<Song> removed,
+                   @NonNull PlayCounts counts) {
+        LibraryVersion current = members;
+        List<Song> added = new ArrayList<>();
+        List<Song> dropped = new ArrayList<>();
+        for (Song song : changed) {
+            int playCount = counts.get(song.getMediaStoreId());
+            Song member = current.get(song.getMediaStoreId());
+            if (rule.matches(song, playCount)) {
+                // A play of a matching Song changes nothing.
+                if (member != song)
+                    added.add(song);
+            }
+            else if (member != null)
+                dropped.add(song);
+            nextChange = Math.min(nextChange, rule.changesAt(song, playCount));
+        }
+        for (Song song : removed)
+            if (current.get(song.getMediaStoreId()) != null)
+                dropped.add(song);
+        if (added.isEmpty() && dropped.isEmpty())
+            return false;
+        members = current.withUpdates(added, dropped);
+        return true;
+    }
+
+    /**
+     * @return The time from which {@link #expire(LibraryVersion, PlayCounts, long)} has something
+     * to check, in milliseconds since the epoch. {@link Long#MAX_VALUE} if never.
+     */
+    long getNextChange() {
+        return nextChange;
+    }
+
+    /**
+     * Check the library again if the rule may have changed its result for some Song. The rule is
+     * read for every Song, in O(n), but only the Songs that start or stop matching are changed.
+     *
+     * @param library The library.
+     * @param counts  The play counts.
+     * @param now     The current time, in milliseconds since the epoch.
+     * @return True if the content changed.
+     */
+    boolean expire(@NonNull LibraryVersion library, @NonNull PlayCounts counts, long now) {
+        if (now < nextChange)
+            return false;
+        LibraryVersion current = members;
+        List<Song> added = new ArrayList<>();
+        List<Song> dropped = new ArrayList<>();
+        long next = Long.MAX_VALUE;
+        for (Song song : library.getSongs(null)) {
+            int playCount = counts.get(song.getMediaStoreId());
+            boolean matches = rule.matches(song, playCount);
+            if (matches != (current.get(song.getMediaStoreId()) != null))
+                (matches ? added : dropped).add(song);
+            next = Math.min(next, rule.changesAt(song, playCount));
+        }
+        nextChange = next;
+        if (added.isEmpty() && dropped.isEmpty())
+            return false;
+        members = current.withUpdates(added, dropped);
+        return true;
+    }
+
+    /**
+     * Tell the Observers about the current content.
+     */
+    void notifyObservers() {
+        PlayList playList = getPlayList();
+        for (Observer observer : observers)
+            observer.onChanged(this, playList);
+    }
+
+    /**
+     * Observer of the Songs matching a SmartPlayList.
+     */
+    public interface Observer {
+        /**
+         * Called when Songs start or stop matching the rule, on a background thread.
+         *
+         * @param smartPlayList The PlayList that changed.
+         * @param playList      The matching Songs, as returned by
+         *                      {@link SmartPlayList#getPlayList()}.
+         */
+        void onChanged(@NonNull SmartPlayList smartPlayList, @NonNull PlayList playList);
+    }
+}
@@ -0,0 +1,33 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Rule deciding which Songs belong to a {@link SmartPlayList}. A rule only looks at one Song at a
+ * time, so that a change to a Song only needs the Song to be checked again. See
+ * {@link SmartRules} for the common ones.
+ *
+ * @author Riccardo De Zen.
+ */
+public interface SmartRule {
+    /**
+     * @param song      A Song.
+     * @param playCount How many times the Song has been played.
+     * @return True if the Song belongs to the PlayList.
+     */
+    boolean matches(@NonNull Song song, int playCount);
+
+    /**
+     * Rules reading the clock can start or stop matching a Song that did not change. The
+     * {@link SmartPlayList} checks the library again at the earliest of these times.
+     *
+     * @param song      A Song.
+     * @param playCount How many times the Song has been played.
+     * @return The time, in milliseconds since the epoch, from which
+     * {@link #matches(Song, int)} may give a different result for the Song. {@link Long#MAX_VALUE}
+     * if only a change to the Song or its play count can change the result.
+     */
+    default long changesAt(@NonNull Song song, int playCount) {
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,177 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The common {@link SmartRule}s, and ways to combine them.
+ *
+ * @author Riccardo De Zen.
+ */
+public final class SmartRules {
+
+    private SmartRules() {
+    }
+
+    /**
+     * @param artist An artist.
+     * @return A rule matching the Songs by the artist, ignoring case.
+     */
+    @NonNull
+    public static SmartRule artistIs(@NonNull String artist) {
+        return (song, playCount) -> artist.equalsIgnoreCase(song.getArtist());
+    }
+
+    /**
+     * @param album An album.
+     * @return A rule matching the Songs in the album, ignoring case.
+     */
+    @NonNull
+    public static SmartRule albumIs(@NonNull String album) {
+        return (song, playCount) -> album.equalsIgnoreCase(song.getAlbum());
+    }
+
+    /**
+     * @param millis A duration, in milliseconds.
+     * @return A rule matching the Songs shorter than the duration.
+     */
+    @NonNull
+    public static SmartRule shorterThan(long millis) {
+        return (song, playCount) -> song.getDuration() < millis;
+    }
+
+    /**
+     * @param millis A duration, in milliseconds.
+     * @return A rule matching the Songs at least as long as the duration.
+     */
+    @NonNull
+    public static SmartRule atLeast(long millis) {
+        return (song, playCount) -> song.getDuration() >= millis;
+    }
+
+    /**
+     * The current time is read when a Song is checked. Each matching Song stops matching once it
+     * is older than the given days, see {@link SmartRule#changesAt(Song, int)}.
+     *
+     * @param days A number of days.
+     * @return A rule matching the Songs added in the last days.
+     */
+    @NonNull
+    public static SmartRule addedInLast(int days) {
+        return new SmartRule() {
+            @Override
+            public boolean matches(@NonNull Song song, int playCount) {
+                // MediaStore dates are in seconds.
+                long since = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) -
+                        TimeUnit.DAYS.toSeconds(days);
+                return song.getDateAdded() >= since;
+            }
+
+            @Override
+            public long changesAt(@NonNull Song song, int playCount) {
+                // Time only moves forward, a Song that is too old never matches again.
+                if (!matches(song, playCount))
+                    return Long.MAX_VALUE;
+                return TimeUnit.SECONDS.toMillis(
+                        song.getDateAdded() + TimeUnit.DAYS.toSeconds(days) + 1);
+            }
+        };
+    }
+
+    /**
+     * @return A rule matching the Songs that were never played.
+     */
+    @NonNull
+    public static SmartRule neverPlayed() {
+        return (song, playCount) -> playCount == 0;
+    }
+
+    /**
+     * @param times A number of plays.
+     * @return A rule matching the Songs played at least the given times.
+     */
+    @NonNull
+    public static SmartRule playedAtLeast(int times) {
+        return (song, playCount) -> playCount >= times;
+    }
+
+    /**
+     * @param rules Some rules.
+     * @return A rule matching the Songs matched by all of the rules.
+     */
+    @NonNull
+    public static SmartRule all(@NonNull SmartRule... rules) {
+        return new SmartRule() {
+            @Override
+            public boolean matches(@NonNull Song song, int playCount) {
+                for (SmartRule rule : rules)
+                    if (!rule.matches(song, playCount))
+                        return false;
+                return true;
+            }
+
+            @Override
+            public long changesAt(@NonNull Song song, int playCount) {
+                return earliestChange(rules, song, playCount);
+            }
+        };
+    }
+
+    /**
+     * @param rules Some rules.
+     * @return A rule matching the Songs matched by any of the rules.
+     */
+    @NonNull
+    public static SmartRule any(@NonNull SmartRule... rules) {
+        return new SmartRule() {
+            @Override
+            public boolean matches(@NonNull Song song, int playCount) {
+                for (SmartRule rule : rules)
+                    if (rule.matches(song, playCount))
+                        return true;
+                return false;
+            }
+
+            @Override
+            public long changesAt(@NonNull Song song, int playCount) {
+                return earliestChange(rules, song, playCount);
+            }
+        };
+    }
+
+    /**
+     * @param rule A rule.
+     * @return A rule matching the Songs the given one does not match.
+     */
+    @NonNull
+    public static SmartRule not(@NonNull SmartRule rule) {
+        return new SmartRule() {
+            @Override
+            public boolean matches(@NonNull Song song, int playCount) {
+                return !rule.matches(song, playCount);
+            }
+
+            @Override
+            public long changesAt(@NonNull Song song, int playCount) {
+                return rule.changesAt(song, playCount);
+            }
+        };
+    }
+
+    /**
+     * A combination can only change when one of its rules does.
+     *
+     * @param rules     Some rules.
+     * @param song      A Song.
+     * @param playCount The play count of the Song.
+     * @return The earliest time one of the rules may change its result for the Song.
+     */
+    private static long earliestChange(@NonNull SmartRule[] rules, @NonNull Song song,
+                                       int playCount) {
+        long earliest = Long.MAX_VALUE;
+        for (SmartRule rule : rules)
+            earliest = Math.min(earliest, rule.changesAt(song, playCount));
+        return earliest;
+    }
+}
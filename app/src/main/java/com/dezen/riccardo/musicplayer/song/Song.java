@@ -1,11 +1,13 @@
 package com.dezen.riccardo.musicplayer.song;
 
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.MediaStore;
 import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaMetadataCompat;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.dezen.riccardo.musicplayer.Filterable;
 import com.dezen.riccardo.musicplayer.utils.Utils;
@@ -14,12 +16,21 @@ import java.util.Map;
 import java.util.Objects;
 
 /**
- * Class containing the data for a single Song.
+ * Class containing the data for a single Song. The data itself lives in a {@link SongStore}, and
+ * the media framework Objects are only built when asked for.
  *
  * @author Riccardo De Zen.
  */
 public final class Song implements Filterable<String>, Comparable<Song> {
 
+    /**
+     * Metadata keys for the MediaStore timestamps, in seconds. They are not part of the standard
+     * {@link MediaMetadataCompat} keys, and are only used to keep track of library changes.
+     */
+    public static final String METADATA_KEY_DATE_ADDED = Song.class.getName() + ".DATE_ADDED";
+    public static final String METADATA_KEY_DATE_MODIFIED =
+            Song.class.getName() + ".DATE_MODIFIED";
+
     public static final String[] META_COLUMNS = {
             MediaMetadataCompat.METADATA_KEY_MEDIA_ID,
             MediaMetadataCompat.METADATA_KEY_TITLE,
@@ -38,79 +49,178 @@ public final class Song implements Filterable<String>, Comparable<Song> {
     public static final Map<String, String> META_TO_MEDIA = Utils.toMap(META_COLUMNS,
             MEDIA_COLUMNS);
 
-    private final MediaMetadataCompat metadata;
-    private final MediaBrowserCompat.MediaItem mediaItem;
-
-    private final String id;
-    private final String title;
-    private final String album;
-    private final String artist;
-
-    private final Uri uri;
+    // The store row holding this Song's fields.
+    private final SongStore.Chunk chunk;
+    private final int row;
 
     /**
-     * @param metadata The {@link MediaMetadataCompat} for this Song. Must contain at least: id,
-     *                 uri, title, artist, album.
+     * Songs are created by a {@link SongStore}, and are only views over one of its rows.
+     *
+     * @param chunk The chunk containing the row.
+     * @param row   The row in the chunk.
      */
-    private Song(@NonNull MediaMetadataCompat metadata) {
-        mediaItem = new MediaBrowserCompat.MediaItem(
-                metadata.getDescription(),
-                MediaBrowserCompat.MediaItem.FLAG_PLAYABLE
-        );
-
-        this.metadata = metadata;
-        this.id = metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
-        this.title = metadata.getString(MediaMetadataCompat.METADATA_KEY_TITLE);
-        this.album = metadata.getString(MediaMetadataCompat.METADATA_KEY_ALBUM);
-        this.artist = metadata.getString(MediaMetadataCompat.METADATA_KEY_ARTIST);
-
-        this.uri = Uri.parse(metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI));
+    Song(@NonNull SongStore.Chunk chunk, int row) {
+        this.chunk = chunk;
+        this.row = row;
     }
 
+    /**
+     * The metadata is not stored, a new Object is built on every call.
+     *
+     * @return The {@link MediaMetadataCompat} for this Song.
+     */
     @NonNull
     public MediaMetadataCompat getMetadata() {
-        return metadata;
+        return new MediaMetadataCompat.Builder()
+                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, getId())
+                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI, getUri().toString())
+                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, getTitle())
+                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, getAlbum())
+                .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, getArtist())
+                .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, getDuration())
+                .putLong(METADATA_KEY_DATE_ADDED, getDateAdded())
+                .putLong(METADATA_KEY_DATE_MODIFIED, getDateModified())
+                .build();
     }
 
+    /**
+     * The item is not stored, a new Object is built on every call.
+     *
+     * @return The playable {@link MediaBrowserCompat.MediaItem} for this Song.
+     */
     @NonNull
     public MediaBrowserCompat.MediaItem getMediaItem() {
-        return mediaItem;
+        return new MediaBrowserCompat.MediaItem(
+                getMetadata().getDescription(),
+                MediaBrowserCompat.MediaItem.FLAG_PLAYABLE
+        );
     }
 
     @NonNull
     public String getId() {
-        return id;
+        return String.valueOf(chunk.ids[row]);
+    }
+
+    /**
+     * @return The MediaStore id of the Song, the numeric form of {@link #getId()}.
+     */
+    public long getMediaStoreId() {
+        return chunk.ids[row];
     }
 
     @NonNull
     public String getTitle() {
-        return title;
+        return chunk.titles[row];
     }
 
     @NonNull
     public String getArtist() {
-        return artist;
+        return chunk.artists[row];
     }
 
     @NonNull
     public String getAlbum() {
-        return album;
+        return chunk.albums[row];
+    }
+
+    /**
+     * @return The duration of the Song, in milliseconds. 0 if unknown.
+     */
+    public long getDuration() {
+        return chunk.durations[row];
+    }
+
+    /**
+     * @return The time the Song was added to the MediaStore, in seconds. 0 if unknown.
+     */
+    public long getDateAdded() {
+        return chunk.datesAdded[row];
     }
 
+    /**
+     * @return The last time the Song's file was modified, in seconds. 0 if unknown.
+     */
+    public long getDateModified() {
+        return chunk.datesModified[row];
+    }
+
+    /**
+     * The Uri is not stored, a new Object is built on every call.
+     *
+     * @return The content Uri of this Song.
+     */
     @NonNull
     public Uri getUri() {
-        return uri;
+        return ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                chunk.ids[row]);
     }
 
     /**
-     * A song matches a Query if its title contains the query itself.
+     * A song matches a Query if its title, artist or album contains the query, ignoring case,
+     * diacritics and punctuation. See {@link SearchKeys}.
      *
      * @param query any String.
-     * @return True if the Song's title contains the query, false otherwise.
+     * @return True if the Song's title, artist or album contains the query, false otherwise.
      */
     @Override
     public boolean matches(String query) {
-        return getTitle().contains(query);
+        return matchesFolded(SearchKeys.fold(query));
+    }
+
+    /**
+     * Only compares the folded keys stored with the Song, nothing is allocated. The keys are
+     * matched as if padded with spaces, as in the {@link TrigramIndex}, so "beat " matches a
+     * title ending with "beat".
+     *
+     * @param foldedQuery A query, already folded with {@link SearchKeys#fold(String)}.
+     * @return True if the Song's title, artist or album contains the query.
+     */
+    boolean matchesFolded(@NonNull String foldedQuery) {
+        return SearchKeys.indexOfPadded(getTitleKey(), foldedQuery, 0) >= 0 ||
+                SearchKeys.indexOfPadded(getArtistKey(), foldedQuery, 0) >= 0 ||
+                SearchKeys.indexOfPadded(getAlbumKey(), foldedQuery, 0) >= 0;
+    }
+
+    /**
+     * @return The folded title, as long as the title.
+     */
+    @NonNull
+    String getTitleKey() {
+        return chunk.titleKeys[row];
+    }
+
+    /**
+     * @return The folded artist, as long as the artist.
+     */
+    @NonNull
+    String getArtistKey() {
+        return chunk.artistKeys[row];
+    }
+
+    /**
+     * @return The folded album, as long as the album.
+     */
+    @NonNull
+    String getAlbumKey() {
+        return chunk.albumKeys[row];
+    }
+
+    /**
+     * Unlike {@link #equals(Object)}, which only compares ids, this tells whether a Song changed.
+     *
+     * @param other Another Song.
+     * @return True if every field of the Songs is the same.
+     */
+    boolean sameFields(@NonNull Song other) {
+        if (chunk == other.chunk && row == other.row)
+            return true;
+        return getMediaStoreId() == other.getMediaStoreId() &&
+                getDuration() == other.getDuration() &&
+                getDateAdded() == other.getDateAdded() &&
+                getDateModified() == other.getDateModified() &&
+                Objects.equals(getTitle(), other.getTitle()) &&
+                Objects.equals(getAlbum(), other.getAlbum()) &&
+                Objects.equals(getArtist(), other.getArtist());
     }
 
     /**
@@ -123,32 +233,77 @@ public final class Song implements Filterable<String>, Comparable<Song> {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Song song = (Song) o;
-        return getId().equals(song.getId());
+        return getMediaStoreId() == song.getMediaStoreId();
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(getId());
+        long id = getMediaStoreId();
+        return (int) (id ^ (id >>> 32));
     }
 
     /**
      * @param song The song to compare with this.
-     * @return Compares the titles of the two Songs. Which means that by default, songs are sorted
-     * by title.
+     * @return Compares the numeric ids of the two Songs. Which means that by default, songs are
+     * sorted in the order they were added to the MediaStore. See {@link SortOrder} for the other
+     * orders.
      */
     @Override
     public int compareTo(@NonNull Song song) {
-        return this.getId().compareTo(song.getId());
+        return Long.compare(getMediaStoreId(), song.getMediaStoreId());
+    }
+
+    /**
+     * @param id The String form of a MediaStore id, as returned by {@link #getId()}.
+     * @return The numeric id, or -1 if the String is null or not a valid id.
+     */
+    public static long parseId(@Nullable String id) {
+        if (id == null)
+            return -1;
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
     /**
-     * Create a Song Object from its Metadata.
+     * Create a Song Object from its Metadata. The Song is stored alone, Songs that are created
+     * together should be added to the same {@link SongStore} instead.
      *
-     * @param metadata The metadata for this Song.
+     * @param metadata The metadata for this Song. Must contain at least: id, title, artist, album.
      * @return The Song object.
      */
     @NonNull
     public static Song from(@NonNull MediaMetadataCompat metadata) {
-        return new Song(metadata);
+        return from(
+                Long.parseLong(metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID)),
+                metadata.getString(MediaMetadataCompat.METADATA_KEY_TITLE),
+                metadata.getString(MediaMetadataCompat.METADATA_KEY_ALBUM),
+                metadata.getString(MediaMetadataCompat.METADATA_KEY_ARTIST),
+                metadata.getLong(MediaMetadataCompat.METADATA_KEY_DURATION),
+                metadata.getLong(METADATA_KEY_DATE_ADDED),
+                metadata.getLong(METADATA_KEY_DATE_MODIFIED)
+        );
+    }
+
+    /**
+     * Create a Song Object from its raw fields, as they are stored in the MediaStore. The Song is
+     * stored alone, Songs that are created together should be added to the same
+     * {@link SongStore} instead.
+     *
+     * @param id           The MediaStore id of the Song.
+     * @param title        The title.
+     * @param album        The album.
+     * @param artist       The artist.
+     * @param duration     The duration, in milliseconds.
+     * @param dateAdded    The time the Song was added to the MediaStore, in seconds.
+     * @param dateModified The last time the Song's file was modified, in seconds.
+     * @return The Song object.
+     */
+    @NonNull
+    public static Song from(long id, String title, String album, String artist, long duration,
+                            long dateAdded, long dateModified) {
+        return new SongStore(1).add(id, title, album, artist, duration, dateAdded, dateModified);
     }
 }
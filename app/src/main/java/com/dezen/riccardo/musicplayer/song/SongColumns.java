@@ -0,0 +1,178 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import android.database.Cursor;
+import android.provider.MediaStore;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class reading rows of the audio media table into one array per column, instead of going
+ * through a Bundle for each row. Column indices are resolved once, when the reader is created, and
+ * numeric columns are read as primitives. {@link Song} Objects are only built afterwards, through
+ * {@link #materialize(int)}, and all the Songs built by a reader share the same {@link SongStore}.
+ * <p>
+ * A reader can be reused for several batches of the same cursor by calling {@link #clear()}.
+ *
+ * @author Riccardo De Zen.
+ */
+class SongColumns {
+
+    /**
+     * The columns to query, the cursor given to the reader must contain at least these.
+     */
+    static final String[] PROJECTION = {
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media.ALBUM,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.DURATION,
+            MediaStore.Audio.Media.DATE_ADDED,
+            MediaStore.Audio.Media.DATE_MODIFIED
+    };
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    // Column indices in the cursor.
+    private final int idColumn;
+    private final int titleColumn;
+    private final int albumColumn;
+    private final int artistColumn;
+    private final int durationColumn;
+    private final int dateAddedColumn;
+    private final int dateModifiedColumn;
+
+    // Column data, only the first size rows are valid.
+    private long[] ids;
+    private long[] durations;
+    private long[] datesAdded;
+    private long[] datesModified;
+    private String[] titles;
+    private String[] albums;
+    private String[] artists;
+    private int size = 0;
+
+    // Where the materialized Songs are stored.
+    private final SongStore store;
+
+    /**
+     * @param cursor  The cursor rows will be read from.
+     * @param strings The table the Strings of the Songs go through.
+     * @throws IllegalArgumentException If the cursor is missing one of the {@link #PROJECTION}
+     *                                  columns.
+     */
+    SongColumns(@NonNull Cursor cursor, @NonNull StringTable strings) {
+        idColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
+        titleColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE);
+        albumColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM);
+        artistColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST);
+        durationColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION);
+        dateAddedColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_ADDED);
+        dateModifiedColumn = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_MODIFIED);
+        allocate(Math.max(DEFAULT_CAPACITY, Math.min(cursor.getCount(), SongLoadTask.BATCH_SIZE)));
+        store = new SongStore(cursor.getCount(), strings);
+    }
+
+    /**
+     * Read at most {@code max} rows, starting from the row after the current cursor position. The
+     * rows are appended to the ones already read.
+     *
+     * @param cursor The cursor, must be the one this reader was created for.
+     * @param max    The maximum number of rows to read.
+     * @return The number of rows read. Less than {@code max} only if the cursor is exhausted.
+     */
+    int read(@NonNull Cursor cursor, int max) {
+        int read = 0;
+        while (read < max && cursor.moveToNext()) {
+            if (size == ids.length)
+                grow();
+            ids[size] = cursor.getLong(idColumn);
+            titles[size] = cursor.getString(titleColumn);
+            albums[size] = cursor.getString(albumColumn);
+            artists[size] = cursor.getString(artistColumn);
+            durations[size] = cursor.getLong(durationColumn);
+            datesAdded[size] = cursor.getLong(dateAddedColumn);
+            datesModified[size] = cursor.getLong(dateModifiedColumn);
+            size++;
+            read++;
+        }
+        return read;
+    }
+
+    /**
+     * @return The number of rows currently held.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param row A row index, between 0 and {@link #size()} - 1.
+     * @return The MediaStore id of the row.
+     */
+    long getId(int row) {
+        return ids[row];
+    }
+
+    /**
+     * Build the Song for a row.
+     *
+     * @param row A row index, between 0 and {@link #size()} - 1.
+     * @return The Song for the row.
+     */
+    @NonNull
+    Song materialize(int row) {
+        return store.add(ids[row], titles[row], albums[row], artists[row], durations[row],
+                datesAdded[row], datesModified[row]);
+    }
+
+    /**
+     * Build the Songs for all the rows currently held.
+     *
+     * @param target The list the Songs are appended to.
+     */
+    void materializeAll(@NonNull List<Song> target) {
+        for (int i = 0; i < size; i++)
+            target.add(materialize(i));
+    }
+
+    /**
+     * Forget the rows read so far, keeping the allocated arrays.
+     */
+    void clear() {
+        // Drop string references so they can be collected.
+        Arrays.fill(titles, 0, size, null);
+        Arrays.fill(albums, 0, size, null);
+        Arrays.fill(artists, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * @param capacity The number of rows the arrays should be able to hold.
+     */
+    private void allocate(int capacity) {
+        ids = new long[capacity];
+        durations = new long[capacity];
+        datesAdded = new long[capacity];
+        datesModified = new long[capacity];
+        titles = new String[capacity];
+        albums = new String[capacity];
+        artists = new String[capacity];
+    }
+
+    /**
+     * Double the capacity of the arrays.
+     */
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        durations = Arrays.copyOf(durations, capacity);
+        datesAdded = Arrays.copyOf(datesAdded, capacity);
+        datesModified = Arrays.copyOf(datesModified, capacity);
+        titles = Arrays.copyOf(titles, capacity);
+        albums = Arrays.copyOf(albums, capacity);
+        artists = Arrays.copyOf(artists, capacity);
+    }
+}
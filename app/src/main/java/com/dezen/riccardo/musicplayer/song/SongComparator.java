@@ -0,0 +1,99 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.text.Collator;
+import java.util.Comparator;
+
+/**
+ * Comparator of Songs in one of the {@link SortOrder}s, or by id. Ties are broken by id, so two
+ * Songs only compare equal if they have the same id. Gives the same order as {@link SortIndex}
+ * for Songs listed by id.
+ * <p>
+ * Text is compared directly with the Collator, which costs more than comparing collation keys
+ * but keeps nothing: this comparator places the few Songs of an update, while whole lists are
+ * sorted through a {@link SortIndex}. Comparisons lock the Collator, so comparators sharing one
+ * can be used from any thread.
+ *
+ * @author Riccardo De Zen.
+ */
+final class SongComparator implements Comparator<Song> {
+
+    // Songs sorted by id.
+    static final SongComparator BY_ID = new SongComparator();
+
+    @Nullable
+    private final SortOrder order;
+    @Nullable
+    private final Collator collator;
+
+    /**
+     * @param order    The order.
+     * @param collator The Collator to compare text with.
+     */
+    SongComparator(@NonNull SortOrder order, @NonNull Collator collator) {
+        this.order = order;
+        this.collator = collator;
+    }
+
+    private SongComparator() {
+        this.order = null;
+        this.collator = null;
+    }
+
+    @Override
+    public int compare(@NonNull Song first, @NonNull Song second) {
+        int result = (order == null) ? 0 : compareFields(first, second);
+        return (result != 0) ? result :
+                Long.compare(first.getMediaStoreId(), second.getMediaStoreId());
+    }
+
+    /**
+     * Compare the fields of the order one at a time, as {@link SortIndex} does.
+     */
+    private int compareFields(@NonNull Song first, @NonNull Song second) {
+        int result;
+        switch (order) {
+            case ARTIST:
+                result = compareArtists(first, second);
+                if (result == 0)
+                    result = compareAlbums(first, second);
+                return (result != 0) ? result : compareTitles(first, second);
+            case ALBUM:
+                result = compareAlbums(first, second);
+                return (result != 0) ? result : compareTitles(first, second);
+            case DURATION:
+                result = Long.compare(first.getDuration(), second.getDuration());
+                return (result != 0) ? result : compareTitles(first, second);
+            case DATE_ADDED:
+                result = Long.compare(second.getDateAdded(), first.getDateAdded());
+                return (result != 0) ? result : compareTitles(first, second);
+            default:
+                result = compareTitles(first, second);
+                return (result != 0) ? result : compareArtists(first, second);
+        }
+    }
+
+    private int compareTitles(@NonNull Song first, @NonNull Song second) {
+        return compareText(first.getTitle(), second.getTitle());
+    }
+
+    private int compareAlbums(@NonNull Song first, @NonNull Song second) {
+        return compareText(first.getAlbum(), second.getAlbum());
+    }
+
+    private int compareArtists(@NonNull Song first, @NonNull Song second) {
+        return compareText(first.getArtist(), second.getArtist());
+    }
+
+    /**
+     * @return The comparison of the texts, missing ones being empty, as with collation keys.
+     */
+    private int compareText(@Nullable String first, @Nullable String second) {
+        synchronized (collator) {
+            return collator.compare((first == null) ? "" : first,
+                    (second == null) ? "" : second);
+        }
+    }
+}
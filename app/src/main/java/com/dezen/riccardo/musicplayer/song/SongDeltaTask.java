@@ -0,0 +1,79 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import android.database.Cursor;
+import android.provider.MediaStore;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Class defining the background task that loads only the songs that changed since the last sync.
+ * Instead of building every Song again, it reads the ids of all the rows (so that removed songs
+ * can be detected) and builds Songs only for the rows that were added or modified after the
+ * watermark.
+ *
+ * @author Riccardo De Zen.
+ */
+class SongDeltaTask extends LibraryLoadTask {
+
+    private final Cursor idCursor;
+    private final Cursor changedCursor;
+    private final StringTable strings;
+    private final SongLoader.SongDeltaListener listener;
+
+    /**
+     * Constructor.
+     *
+     * @param idCursor      A cursor containing only the {@link MediaStore.Audio.Media#_ID} column
+     *                      for every row in the table.
+     * @param changedCursor A cursor containing the full rows that changed since the last sync.
+     * @param strings       The table the Strings of the library went through, so that the
+     *                      changed songs share them.
+     * @param listener      The listener that will receive the result.
+     */
+    SongDeltaTask(@NonNull Cursor idCursor,
+                  @NonNull Cursor changedCursor,
+                  @NonNull StringTable strings,
+                  @NonNull SongLoader.SongDeltaListener listener) {
+        this.idCursor = idCursor;
+        this.changedCursor = changedCursor;
+        this.strings = strings;
+        this.listener = listener;
+    }
+
+    /**
+     * Reads the current ids and the changed rows, then hands them to the listener.
+     *
+     * @return {@code true} if the delta was delivered, {@code false} if the task was cancelled.
+     */
+    @Override
+    boolean load() {
+        Set<String> currentIds = new HashSet<>(idCursor.getCount());
+        List<Song> changed = new ArrayList<>(changedCursor.getCount());
+        try {
+            int idColumn = idCursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
+            while (!isCancelled() && idCursor.moveToNext())
+                currentIds.add(String.valueOf(idCursor.getLong(idColumn)));
+            setProgress(50);
+
+            if (!isCancelled()) {
+                SongColumns columns = new SongColumns(changedCursor, strings);
+                columns.read(changedCursor, Integer.MAX_VALUE);
+                columns.materializeAll(changed);
+            }
+        } finally {
+            idCursor.close();
+            changedCursor.close();
+        }
+        if (isCancelled())
+            return false;
+
+        setProgress(100);
+        listener.onDeltaLoaded(changed, currentIds);
+        return true;
+    }
+}
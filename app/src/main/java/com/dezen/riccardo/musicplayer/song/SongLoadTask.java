@@ -1,16 +1,11 @@
 package com.dezen.riccardo.musicplayer.song;
 
-import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.database.Cursor;
-import android.net.Uri;
-import android.os.AsyncTask;
-import android.provider.MediaStore;
-import android.support.v4.media.MediaMetadataCompat;
 
 import androidx.annotation.NonNull;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -19,69 +14,65 @@ import java.util.List;
  *
  * @author Riccardo De Zen.
  */
-class SongLoadTask extends AsyncTask<Void, Integer, Boolean> {
+class SongLoadTask extends LibraryLoadTask {
 
-    private ContentResolver contentResolver;
-    private List<Song> songs = new ArrayList<>();
-    private SongLoader.SongListListener listener;
-    private Cursor cursor;
+    /**
+     * Number of Songs handed to the listener at once while loading.
+     */
+    static final int BATCH_SIZE = 250;
+
+    private final List<Song> songs = new ArrayList<>();
+    private final SongLoader.SongListListener listener;
+    private final Cursor cursor;
+    private final StringTable strings;
 
     /**
      * Constructor.
      *
      * @param cursor   The cursor that should load the songs.
+     * @param strings  The table the Strings of the songs go through.
      * @param listener The listener that will receive the result.
      */
-    public SongLoadTask(@NonNull Cursor cursor,
-                        @NonNull SongLoader.SongListListener listener,
-                        @NonNull ContentResolver contentResolver) {
+    SongLoadTask(@NonNull Cursor cursor, @NonNull StringTable strings,
+                 @NonNull SongLoader.SongListListener listener) {
         this.cursor = cursor;
+        this.strings = strings;
         this.listener = listener;
-        this.contentResolver = contentResolver;
     }
 
     /**
-     * The method uses {@code cursor} to load the list of songs, and then puts the result
-     * into {@code container}. The progress is an integer ranging from 0 to 100, and is
-     * published every time its value changes (its value is computed after each song is loaded).
+     * The method uses {@code cursor} to load the list of songs. The progress is an integer
+     * ranging from 0 to 100, and is updated after each batch is loaded.
+     * Rows are read {@link #BATCH_SIZE} at a time through {@link SongColumns}, and each batch is
+     * handed to {@link SongLoader.SongListListener#onBatchLoaded(List)}, so that the first songs
+     * can be shown before the whole cursor has been read.
      *
-     * @param voids No arguments are taken into consideration.
-     * @return {@code true} if the process was successful, {@code false} if no song was found.
+     * @return {@code true} if the songs were delivered, {@code false} if the task was cancelled.
      */
     @Override
-    protected Boolean doInBackground(Void... voids) {
-        final int count = cursor.getCount();
-        if (count < 1) return false;
-
-        songs.clear();
-        MediaMetadataCompat.Builder builder = new MediaMetadataCompat.Builder();
+    boolean load() {
+        try {
+            final int count = cursor.getCount();
+            SongColumns columns = new SongColumns(cursor, strings);
 
-        cursor.moveToFirst();
-        do {
-            // Uri is not in both tables.
-            Uri uri = ContentUris.withAppendedId(
-                    MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                    Long.parseLong(cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media._ID)))
-            );
-            // TODO Add some regex filter.
-
-            // If the file is an audio file, continue.
-            builder.putString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI, String.valueOf(uri));
-
-            for (String key : cursor.getColumnNames()) {
-                String metaKey = Song.MEDIA_TO_META.get(key);
-                if (metaKey == null)
-                    continue;
-                builder.putString(metaKey, cursor.getString(cursor.getColumnIndex(key)));
+            cursor.moveToPosition(-1);
+            while (!isCancelled() && columns.read(cursor, BATCH_SIZE) > 0) {
+                int batchStart = songs.size();
+                columns.materializeAll(songs);
+                columns.clear();
+                listener.onBatchLoaded(Collections.unmodifiableList(
+                        new ArrayList<>(songs.subList(batchStart, songs.size()))
+                ));
+                // Long math, or the division always truncates to 0.
+                setProgress((int) (100L * songs.size() / count));
             }
+        } finally {
+            cursor.close();
+        }
+        if (isCancelled())
+            return false;
 
-            // TODO grrrr this is not really ok, whatevs.
-            builder.putLong(MediaMetadataCompat.METADATA_KEY_DURATION, cursor.getLong(cursor.getColumnIndex(MediaStore.Audio.Media.DURATION)));
-
-            songs.add(Song.from(builder.build()));
-            publishProgress(songs.size() / count * 100);
-        } while (cursor.moveToNext());
-
+        // An empty library is still a loaded library.
         listener.onLoaded(songs);
         return true;
     }
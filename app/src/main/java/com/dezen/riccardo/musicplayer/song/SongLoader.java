@@ -5,14 +5,22 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Process;
 import android.provider.MediaStore;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import com.dezen.riccardo.musicplayer.utils.CircularBlockingDeque;
 import com.dezen.riccardo.musicplayer.utils.Utils;
 
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -37,6 +45,11 @@ public class SongLoader {
      */
     private static SongLoader activeInstance;
 
+    /**
+     * The application Context, used to check the MediaStore version.
+     */
+    private Context appContext;
+
     /**
      * The {@link ContentResolver} to use when querying the data.
      */
@@ -58,6 +71,23 @@ public class SongLoader {
             new CircularBlockingDeque<>(MAX_QUEUE_SIZE)
     );
 
+    /**
+     * Single thread running the library loads, see {@link #request(long, LoadPriority,
+     * SongListListener)}.
+     */
+    private final ExecutorService loadExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "SongLoader")
+    );
+    private final Object loadLock = new Object();
+    private LoadRequest runningLoad;
+    private LoadRequest pendingLoad;
+    private LibraryLoadTask runningTask;
+    private volatile int loaderTid = 0;
+    // The table the Strings of the library go through, so that the Songs of every delta share
+    // them. Replaced on full loads, which replace every Song, so it only keeps the Strings of
+    // Songs removed since the last one. Only used on the loading thread.
+    private StringTable libraryStrings = new StringTable();
+
     /**
      * Private constructor.
      *
@@ -66,7 +96,8 @@ public class SongLoader {
      *                context.
      */
     private SongLoader(Context context) {
-        contentResolver = context.getApplicationContext().getContentResolver();
+        appContext = context.getApplicationContext();
+        contentResolver = appContext.getContentResolver();
         resources = context.getResources();
     }
 
@@ -85,25 +116,231 @@ public class SongLoader {
 
     /**
      * Method to retrieve an updated cursor from the {@link android.content.ContentResolver}.
-     * All columns are included by default.
+     * Only the columns in {@link SongColumns#PROJECTION} are included.
      */
     private Cursor getCursor() {
         return contentResolver.query(
                 MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                null,
+                SongColumns.PROJECTION,
                 null,
                 null,
                 MediaStore.Audio.Media.TITLE
         );
     }
 
+    /**
+     * Method to retrieve a cursor containing only the rows that were added or modified at or after
+     * a certain time. The bound is inclusive because MediaStore timestamps are in seconds, and rows
+     * changed in the same second as the watermark must not be missed.
+     *
+     * @param since The watermark, in seconds.
+     */
+    private Cursor getChangedCursor(long since) {
+        String bound = String.valueOf(since);
+        return contentResolver.query(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                SongColumns.PROJECTION,
+                MediaStore.Audio.Media.DATE_MODIFIED + " >= ? OR " +
+                        MediaStore.Audio.Media.DATE_ADDED + " >= ?",
+                new String[]{bound, bound},
+                MediaStore.Audio.Media.TITLE
+        );
+    }
+
+    /**
+     * Method to retrieve a cursor containing only the id of every row, used to detect removals.
+     */
+    private Cursor getIdCursor() {
+        return contentResolver.query(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String[]{MediaStore.Audio.Media._ID},
+                null,
+                null,
+                null
+        );
+    }
+
     /**
      * Method used to start a background loading operation.
      *
      * @param listener A Listener that will receive the result of the loading.
      */
     public void loadSongList(@NonNull SongListListener listener) {
-        new SongLoadTask(getCursor(), listener, contentResolver).execute();
+        request(0, LoadPriority.USER, listener);
+    }
+
+    /**
+     * Method used to start a background loading operation that only loads the songs that changed
+     * since {@code since}. If the MediaStore cannot be queried this way, a full load is performed
+     * instead, and its result is delivered to {@link SongListListener#onLoaded(List)}.
+     *
+     * @param since    The watermark of the last sync, in seconds. Values {@code <= 0} always
+     *                 trigger a full load.
+     * @param priority The priority of the operation.
+     * @param listener A Listener that will receive the result of the loading.
+     */
+    public void loadSongDelta(long since, @NonNull LoadPriority priority,
+                              @NonNull SongDeltaListener listener) {
+        request(since, priority, listener);
+    }
+
+    /**
+     * Run some work on the loading thread. It runs before any load requested afterwards.
+     *
+     * @param task The work to run.
+     */
+    public void runOnLoader(@NonNull Runnable task) {
+        loadExecutor.execute(task);
+    }
+
+    /**
+     * @return The table the Strings of the library go through, for Songs built outside of the
+     * loads. Only usable from tasks given to {@link #runOnLoader(Runnable)}.
+     */
+    @WorkerThread
+    @NonNull
+    StringTable getLibraryStrings() {
+        return libraryStrings;
+    }
+
+    /**
+     * Only one load runs at a time. If a load is already running, the request is queued, and
+     * merged with any other request already waiting: the merged request is a full load if any of
+     * them is, syncs from the oldest watermark otherwise, and has the highest priority.
+     * A request made while a load is running is never merged into it, because the running load
+     * may have already read the rows the request is about.
+     *
+     * @param since    The watermark, 0 for a full load.
+     * @param priority The priority of the request.
+     * @param listener The listener for the request.
+     */
+    private void request(long since, @NonNull LoadPriority priority,
+                         @NonNull SongListListener listener) {
+        synchronized (loadLock) {
+            if (pendingLoad != null) {
+                pendingLoad.merge(since, priority, listener);
+                return;
+            }
+            LoadRequest request = new LoadRequest(since, priority, listener);
+            if (runningLoad == null) {
+                runningLoad = request;
+                loadExecutor.execute(() -> runLoad(request));
+                return;
+            }
+            pendingLoad = request;
+            // Don't keep a user waiting behind a low priority load.
+            if (priority.compareTo(runningLoad.priority) > 0 && loaderTid != 0) {
+                runningLoad.priority = priority;
+                Process.setThreadPriority(loaderTid, priority.threadPriority);
+            }
+        }
+    }
+
+    /**
+     * Run a request on the loading thread, then start the pending one, if any.
+     *
+     * @param request The request to run.
+     */
+    @WorkerThread
+    private void runLoad(@NonNull LoadRequest request) {
+        loaderTid = Process.myTid();
+        Process.setThreadPriority(request.priority.threadPriority);
+        try {
+            boolean delivered = false;
+            if (request.since > 0) {
+                Cursor idCursor = getIdCursor();
+                Cursor changedCursor = getChangedCursor(request.since);
+                if (idCursor != null && changedCursor != null)
+                    delivered = execute(request,
+                            new SongDeltaTask(idCursor, changedCursor, libraryStrings, request));
+                else {
+                    // Fallback, the provider did not answer the smaller queries.
+                    if (idCursor != null)
+                        idCursor.close();
+                    if (changedCursor != null)
+                        changedCursor.close();
+                }
+            }
+            if (!delivered && !request.cancelled) {
+                Cursor cursor = getCursor();
+                if (cursor != null) {
+                    libraryStrings = new StringTable();
+                    execute(request, new SongLoadTask(cursor, libraryStrings, request));
+                }
+            }
+        } finally {
+            synchronized (loadLock) {
+                runningTask = null;
+                runningLoad = pendingLoad;
+                pendingLoad = null;
+                if (runningLoad != null) {
+                    final LoadRequest next = runningLoad;
+                    loadExecutor.execute(() -> runLoad(next));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param request The request the task is running for.
+     * @param task    The task to run.
+     * @return The result of {@link LibraryLoadTask#load()}, false if the request was cancelled.
+     */
+    @WorkerThread
+    private boolean execute(@NonNull LoadRequest request, @NonNull LibraryLoadTask task) {
+        synchronized (loadLock) {
+            if (request.cancelled)
+                return false;
+            runningTask = task;
+        }
+        return task.load();
+    }
+
+    /**
+     * Cancel the running load, if any, and drop the pending one. Their listeners are not called.
+     */
+    public void cancelLoad() {
+        synchronized (loadLock) {
+            pendingLoad = null;
+            if (runningLoad != null)
+                runningLoad.cancelled = true;
+            if (runningTask != null)
+                runningTask.cancel();
+        }
+    }
+
+    /**
+     * @return The state of the loading operations.
+     */
+    @NonNull
+    public LoadState getLoadState() {
+        synchronized (loadLock) {
+            if (runningLoad == null)
+                return LoadState.IDLE;
+            return (runningTask instanceof SongDeltaTask) ? LoadState.SYNCING : LoadState.LOADING;
+        }
+    }
+
+    /**
+     * @return The progress of the running load, from 0 to 100. 0 if no load is running.
+     */
+    public int getLoadProgress() {
+        synchronized (loadLock) {
+            return (runningTask == null) ? 0 : runningTask.getProgress();
+        }
+    }
+
+    /**
+     * The MediaStore version changes when the database is rebuilt or wiped, in which case any
+     * watermark is meaningless and a full load is needed.
+     *
+     * @return The current MediaStore version, or null if it is not available on this device.
+     */
+    @Nullable
+    public String getMediaStoreVersion() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q)
+            return null;
+        return MediaStore.getVersion(appContext);
     }
 
     /**
@@ -123,6 +360,16 @@ public class SongLoader {
      * Interface used to define callbacks for {@link SongLoader#loadSongList(SongListListener)}.
      */
     public interface SongListListener {
+        /**
+         * Method called while the songs are being loaded, every time a new batch of songs is
+         * ready. Called on the loading thread. {@link #onLoaded(List)} is still called with the
+         * full list at the end.
+         *
+         * @param batch The songs loaded since the last batch.
+         */
+        default void onBatchLoaded(@NonNull List<Song> batch) {
+        }
+
         /**
          * Method called when the songs have been loaded.
          *
@@ -131,6 +378,106 @@ public class SongLoader {
         void onLoaded(@NonNull List<Song> newList);
     }
 
+    /**
+     * Priority of a load. User loads run at the default thread priority, background loads at a
+     * lower one, so that they don't compete with the UI.
+     */
+    public enum LoadPriority {
+        BACKGROUND(Process.THREAD_PRIORITY_BACKGROUND),
+        USER(Process.THREAD_PRIORITY_DEFAULT);
+
+        private final int threadPriority;
+
+        LoadPriority(int threadPriority) {
+            this.threadPriority = threadPriority;
+        }
+    }
+
+    /**
+     * State of the loading operations.
+     */
+    public enum LoadState {
+        // Nothing is being loaded.
+        IDLE,
+        // The whole library is being loaded.
+        LOADING,
+        // Only the changes since the last sync are being loaded.
+        SYNCING
+    }
+
+    /**
+     * A request for a load, possibly resulting from merging several requests. Forwards the result
+     * to all the listeners of the merged requests.
+     */
+    private static final class LoadRequest implements SongDeltaListener {
+
+        private final Set<SongListListener> listeners = new LinkedHashSet<>();
+        private long since;
+        private LoadPriority priority;
+        private volatile boolean cancelled = false;
+
+        LoadRequest(long since, @NonNull LoadPriority priority,
+                    @NonNull SongListListener listener) {
+            this.since = (listener instanceof SongDeltaListener) ? Math.max(0, since) : 0;
+            this.priority = priority;
+            listeners.add(listener);
+        }
+
+        /**
+         * @param since    The watermark of the other request.
+         * @param priority The priority of the other request.
+         * @param listener The listener of the other request.
+         */
+        void merge(long since, @NonNull LoadPriority priority,
+                   @NonNull SongListListener listener) {
+            listeners.add(listener);
+            if (since <= 0 || this.since <= 0 || !(listener instanceof SongDeltaListener))
+                this.since = 0;
+            else
+                this.since = Math.min(this.since, since);
+            if (priority.compareTo(this.priority) > 0)
+                this.priority = priority;
+        }
+
+        @Override
+        public void onBatchLoaded(@NonNull List<Song> batch) {
+            for (SongListListener listener : listeners)
+                listener.onBatchLoaded(batch);
+        }
+
+        @Override
+        public void onLoaded(@NonNull List<Song> newList) {
+            for (SongListListener listener : listeners)
+                listener.onLoaded(newList);
+        }
+
+        /**
+         * Only called if all the listeners are {@link SongDeltaListener}s, see
+         * {@link #merge(long, LoadPriority, SongListListener)}.
+         */
+        @Override
+        public void onDeltaLoaded(@NonNull List<Song> changed, @NonNull Set<String> currentIds) {
+            for (SongListListener listener : listeners)
+                ((SongDeltaListener) listener).onDeltaLoaded(changed, currentIds);
+        }
+    }
+
+    /**
+     * Interface used to define callbacks for {@link SongLoader#loadSongDelta(long, LoadPriority,
+     * SongDeltaListener)}. Extends {@link SongListListener} because a full load may be performed
+     * as a fallback.
+     */
+    public interface SongDeltaListener extends SongListListener {
+        /**
+         * Method called when the changes since the last sync have been loaded.
+         *
+         * @param changed    The songs that were added or modified since the last sync.
+         * @param currentIds The ids of all the songs currently in the MediaStore. Any known song
+         *                   whose id is not in here has been removed.
+         */
+        void onDeltaLoaded(@NonNull List<Song> changed, @NonNull Set<String> currentIds);
+    }
+
     /**
      * Interface for {@link SongLoader#loadThumbnail(Song, ThumbnailListener)} callback.
      */
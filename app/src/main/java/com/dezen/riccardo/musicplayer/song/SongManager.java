@@ -1,18 +1,34 @@
 package com.dezen.riccardo.musicplayer.song;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.res.Resources;
+import android.database.ContentObserver;
 import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.MediaStore;
 import android.util.Size;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
+import com.dezen.riccardo.musicplayer.utils.LongObjectMap;
 import com.dezen.riccardo.musicplayer.utils.NaiveFifoCache;
 import com.dezen.riccardo.musicplayer.utils.Utils;
 
-import java.util.HashSet;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Class defining the shared data shared among the app. Any Object can observe the Manager for
@@ -22,24 +38,110 @@ import java.util.Set;
  *
  * @author Riccardo De Zen.
  */
-public class SongManager implements SongLoader.SongListListener, SongLibrary {
+public class SongManager implements SongLoader.SongDeltaListener, SongLibrary {
 
     private static SongManager instance;
 
+    // Name of the file containing the library snapshot, in the app's private files.
+    private static final String SNAPSHOT_FILE = "library.snapshot";
+    // Name of the file containing the tags read from the songs' files.
+    private static final String TAGS_FILE = "library.tags";
+    // Name of the file containing the user's playlists.
+    private static final String PLAYLISTS_FILE = "playlists.log";
+    // Name of the file containing the play counts.
+    private static final String PLAY_COUNTS_FILE = "play.counts";
+
+    // Quiet time after a MediaStore change notification before syncing, in milliseconds.
+    private static final long CHANGE_DEBOUNCE_MS = 1500;
+    // Maximum time a sync can be postponed by a continuous stream of notifications.
+    private static final long CHANGE_MAX_DELAY_MS = 10000;
+
     // Cache for thumbnails.
     private final NaiveFifoCache<String, Bitmap> thumbnailCache = new NaiveFifoCache<>(50);
 
-    // Observers for the PlayList.
-    private final Set<PlayListObserver> playListObservers = new HashSet<>();
-    // Observers for the Library.
-    private final Set<LibraryObserver> libraryObservers = new HashSet<>();
+    // Observers for the PlayList. Added and removed on the main thread, notified from the loading
+    // threads, so iterating must not see concurrent changes.
+    private final Set<PlayListObserver> playListObservers = new CopyOnWriteArraySet<>();
+    // Observers for the Library, notified from the diff thread.
+    private final Set<LibraryObserver> libraryObservers = new CopyOnWriteArraySet<>();
+    // Thread computing the differences between library versions, in publishing order, and
+    // saving small files.
+    private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor();
+    // The last library the LibraryObservers were notified of. Only used on the diff thread.
+    private PlayList notifiedLibrary = new PlayList();
 
     // Keep null until something is set. If null return library when asking for PL.
     private PlayList currentPlayList;
+    // View of the current library version, in the library order.
     private PlayList songLibrary;
+    // The current library version, readable from any thread without locking.
+    private volatile LibraryVersion libraryVersion = LibraryVersion.empty();
+    // Trigram index of the library, shared by its views. Replaced on full loads, updated with
+    // every other change.
+    private TrigramIndex searchIndex = new TrigramIndex();
+    // Artists, albums and genres of the library. Replaced on full loads, updated with every
+    // other change, including the tags being read.
+    private LibraryFacets facets = new LibraryFacets();
+    // The order the library is sorted in, kept across library updates.
+    private SortOrder librarySortOrder = SortOrder.TITLE;
+
+    // Whether the library has been loaded at least once, even if it turned out to be empty.
+    private boolean libraryLoaded = false;
+    // Whether the snapshot is being read. Loads wait for it, so that only the changes since the
+    // snapshot are loaded.
+    private boolean restoring = false;
+    // Priority of the load requested while restoring, null if none was.
+    private SongLoader.LoadPriority deferredLoad;
+    // Latest MediaStore timestamp seen in the library, in seconds. 0 means a full load is needed.
+    private long syncWatermark = 0;
+    // MediaStore version the watermark refers to. Null if unknown or unavailable.
+    private String syncedVersion;
+
+    // Songs received so far while streaming a full load into an empty library, null otherwise.
+    private LibraryVersion streamedSongs;
+    // Size of the streamed library the last time it was published.
+    private int publishedSize;
 
     private final Resources resources;
     private final SongLoader songLoader;
+    private final File snapshotFile;
+    private final File tagsFile;
+    private final TagEnricher tagEnricher;
+    private final PlayListStore playListStore;
+    private final File playCountsFile;
+    private final PlayCounts playCounts;
+    // The smart PlayLists, kept up to date with the library.
+    private final List<SmartPlayList> smartPlayLists = new ArrayList<>();
+    // The smart PlayList the current PlayList follows, null if none.
+    private SmartPlayList followedSmartPlayList;
+
+    // Tags read from the files, by Song id. Loaded from disk the first time they are needed.
+    private Map<String, SongTags> songTags;
+    // Songs whose tags are being read, by id. Starting an extraction stops the running one, so
+    // each extraction reads these too.
+    private final LongObjectMap<Song> untagged = new LongObjectMap<>();
+    // Modification time of the files that could not be read, by Song id. They are only read
+    // again once they change.
+    private final LongObjectMap<Long> unreadable = new LongObjectMap<>();
+
+    // Debouncing of MediaStore change notifications, all on the main thread.
+    private final Handler changeHandler = new Handler(Looper.getMainLooper());
+    private final Runnable pendingSync = this::onMediaStoreSettled;
+    // Checks the smart PlayLists whose rules read the clock, on the loading thread.
+    private final Runnable smartPlayListExpiry = this::onSmartPlayListsExpired;
+    private long firstPendingChange = -1;
+
+    private final ContentResolver contentResolver;
+    // Whether the MediaStore observer is registered. Only used on the main thread.
+    private boolean watchingMediaStore = false;
+    // Syncs the library when the MediaStore's audio table changes, while the library or the
+    // PlayList are observed.
+    private final ContentObserver mediaStoreObserver = new ContentObserver(changeHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onMediaStoreChanged();
+        }
+    };
 
     /**
      * The private constructor.
@@ -49,9 +151,79 @@ public class SongManager implements SongLoader.SongListListener, SongLibrary {
     private SongManager(@NonNull Context context) {
         resources = context.getResources();
         songLoader = SongLoader.getInstance(context);
+        snapshotFile = new File(context.getApplicationContext().getFilesDir(), SNAPSHOT_FILE);
+        tagsFile = new File(context.getApplicationContext().getFilesDir(), TAGS_FILE);
+        tagEnricher = new TagEnricher(context);
+        playListStore = new PlayListStore(
+                new File(context.getApplicationContext().getFilesDir(), PLAYLISTS_FILE)
+        );
+        playCountsFile = new File(context.getApplicationContext().getFilesDir(),
+                PLAY_COUNTS_FILE);
+        playCounts = PlayCounts.read(playCountsFile);
+        contentResolver = context.getApplicationContext().getContentResolver();
+
+        // The library starts empty. The constructor runs on the main thread, and decoding the
+        // snapshot and indexing it is too slow for it, so it is done on the loading thread, before
+        // any load.
+        setLibrary(libraryVersion);
+        restoring = true;
+        songLoader.runOnLoader(this::restoreSnapshot);
+    }
+
+    /**
+     * Publish the last saved snapshot, if any, then run the load requested meanwhile. If there is
+     * a snapshot it may be stale, so it is reconciled with the MediaStore in the background.
+     */
+    @WorkerThread
+    private void restoreSnapshot() {
+        LibrarySnapshot snapshot = LibrarySnapshot.read(snapshotFile,
+                songLoader.getLibraryStrings());
+        List<Song> songs = (snapshot == null) ? Collections.<Song>emptyList() :
+                snapshot.getSongs();
+        LibraryVersion start;
+        synchronized (this) {
+            start = libraryVersion;
+        }
+        // Everything derived from the snapshot is built without holding the lock.
+        LibraryVersion restored = null;
+        TrigramIndex restoredIndex = null;
+        LibraryFacets restoredFacets = null;
+        if (!songs.isEmpty()) {
+            restored = LibraryVersion.build(songs, start.getVersion() + 1);
+            restoredIndex = TrigramIndex.build(songs);
+            restoredFacets = LibraryFacets.build(songs, null);
+        }
 
-        // The list of songs starts as empty.
-        songLibrary = new PlayList();
+        boolean published = false;
+        SongLoader.LoadPriority load;
+        List<SmartPlayList> rebuilt = Collections.emptyList();
+        synchronized (this) {
+            restoring = false;
+            load = deferredLoad;
+            deferredLoad = null;
+            // Nothing can have been loaded meanwhile, but the snapshot must never replace a
+            // newer library.
+            if (restored != null && libraryVersion == start) {
+                searchIndex = restoredIndex;
+                facets = restoredFacets;
+                setLibrary(restored);
+                rebuilt = rebuildSmartPlayLists();
+                syncWatermark = snapshot.getWatermark();
+                syncedVersion = snapshot.getStoreVersion();
+                libraryLoaded = true;
+                published = true;
+                if (load == null)
+                    load = SongLoader.LoadPriority.BACKGROUND;
+            }
+        }
+        if (published) {
+            notifyLibraryObservers();
+            if (currentPlayList == null)
+                notifyPlayListObservers();
+            onSmartPlayListsChanged(rebuilt);
+        }
+        if (load != null)
+            updateSongs(load);
     }
 
     /**
@@ -67,18 +239,126 @@ public class SongManager implements SongLoader.SongListListener, SongLibrary {
     }
 
     /**
-     * Method to retrieve the list of songs. If the List is empty it will also attempt to load it
-     * in the background.
+     * Method to retrieve the list of songs. If the library has never been loaded it will also
+     * attempt to load it in the background, unless a load is already running.
      *
      * @return A List of all the songs that are currently loaded.
      */
     @NonNull
     public synchronized PlayList getLibrary() {
-        if (songLibrary.isEmpty())
+        if (!libraryLoaded && (restoring || songLoader.getLoadState() ==
+                SongLoader.LoadState.IDLE))
             updateSongs();
         return songLibrary;
     }
 
+    /**
+     * @return The current version of the library. Versions are immutable, so this can be called,
+     * and the result read, from any thread without locking.
+     */
+    @NonNull
+    public LibraryVersion getLibraryVersion() {
+        return libraryVersion;
+    }
+
+    /**
+     * Change the order of the library. The library is already sorted in every order, so this is
+     * O(1). Observers are notified.
+     *
+     * @param order The new order.
+     */
+    public void setLibrarySortOrder(@NonNull SortOrder order) {
+        synchronized (this) {
+            if (order == librarySortOrder)
+                return;
+            librarySortOrder = order;
+            setLibrary(libraryVersion);
+        }
+        notifyLibraryObservers();
+        if (currentPlayList == null)
+            notifyPlayListObservers();
+    }
+
+    /**
+     * @return The order the library is sorted in.
+     */
+    @NonNull
+    public synchronized SortOrder getLibrarySortOrder() {
+        return librarySortOrder;
+    }
+
+    /**
+     * @param id The id of a Song.
+     * @return The tags read from the Song's file, or null if they have not been read yet.
+     */
+    @Nullable
+    public synchronized SongTags getTags(@NonNull String id) {
+        return (songTags == null) ? null : songTags.get(id);
+    }
+
+    /**
+     * @return Every artist in the library, by name. Each one holds the artist's tracks on each
+     * album.
+     */
+    @NonNull
+    public synchronized List<Facet> getArtists() {
+        return facets.getArtists();
+    }
+
+    /**
+     * @param name The name of an artist. Case and diacritics are ignored.
+     * @return The artist, or null if there is no Song by that artist in the library.
+     */
+    @Nullable
+    public synchronized Facet getArtist(@Nullable String name) {
+        return facets.getArtist(name);
+    }
+
+    /**
+     * @return Every album in the library, by name.
+     */
+    @NonNull
+    public synchronized List<Facet> getAlbums() {
+        return facets.getAlbums();
+    }
+
+    /**
+     * @return Every genre in the library, by name. Genres are read from the files, so they are
+     * only known after the tags have been read.
+     */
+    @NonNull
+    public synchronized List<Facet> getGenres() {
+        return facets.getGenres();
+    }
+
+    /**
+     * @param name The name of a genre. Case and diacritics are ignored.
+     * @return The genre, or null if there is no Song of that genre in the library.
+     */
+    @Nullable
+    public synchronized Facet getGenre(@Nullable String name) {
+        return facets.getGenre(name);
+    }
+
+    /**
+     * @param song A Song.
+     * @return The artist of the Song, or null if the Song is not in the library.
+     */
+    @Nullable
+    public synchronized Facet getArtistOf(@NonNull Song song) {
+        return facets.getArtistOf(song.getMediaStoreId());
+    }
+
+    /**
+     * @param song A Song.
+     * @return The album of the Song, with its tracks in order, or null if the Song is not in the
+     * library.
+     */
+    @Nullable
+    public synchronized Facet getAlbumOf(@NonNull Song song) {
+        return facets.getAlbumOf(song.getMediaStoreId());
+    }
+
     /**
      * @return The current PlayList.
      */
@@ -96,6 +376,20 @@ public class SongManager implements SongLoader.SongListListener, SongLibrary {
      */
     public synchronized void setPlayList(@NonNull PlayList newPlayList) {
         currentPlayList = newPlayList;
+        followedSmartPlayList = null;
+        notifyPlayListObservers();
+    }
+
+    /**
+     * Sets the Songs of a smart PlayList as the new PlayList. Unlike
+     * {@link #setPlayList(PlayList)}, the PlayList is replaced, and the observers notified, each
+     * time Songs start or stop matching, until another PlayList is set.
+     *
+     * @param smartPlayList A smart PlayList added to this manager.
+     */
+    public synchronized void setPlayList(@NonNull SmartPlayList smartPlayList) {
+        currentPlayList = smartPlayList.getPlayList();
+        followedSmartPlayList = smartPlayList;
         notifyPlayListObservers();
     }
 
@@ -104,9 +398,220 @@ public class SongManager implements SongLoader.SongListListener, SongLibrary {
      */
     public synchronized void resetPlayList() {
         currentPlayList = null;
+        followedSmartPlayList = null;
         notifyPlayListObservers();
     }
 
+    /**
+     * @param name The name of the new PlayList.
+     * @return The id of the new, empty, PlayList.
+     */
+    public long createPlayList(@NonNull String name) {
+        return playListStore.create(name);
+    }
+
+    /**
+     * @param id   The id of a PlayList created by the user.
+     * @param name The new name.
+     */
+    public void renamePlayList(long id, @NonNull String name) {
+        playListStore.rename(id, name);
+    }
+
+    /**
+     * @param id The id of a PlayList created by the user.
+     */
+    public void deletePlayList(long id) {
+        playListStore.delete(id);
+    }
+
+    /**
+     * @return The names of the PlayLists created by the user, by id, in creation order.
+     */
+    @NonNull
+    public Map<Long, String> getPlayListNames() {
+        return playListStore.getNames();
+    }
+
+    /**
+     * Open a PlayList created by the user. Songs that are not in the library are left out, but
+     * stay saved in the PlayList, and show up again once they are back in the library.
+     *
+     * @param id The id of the PlayList.
+     * @return The PlayList, or null if there is no PlayList with the given id.
+     */
+    @Nullable
+    public UserPlayList openPlayList(long id) {
+        long[] songIds = playListStore.getSongIds(id);
+        if (songIds == null)
+            return null;
+        List<Song> songs = new ArrayList<>(songIds.length);
+        LibraryVersion library = libraryVersion;
+        for (long songId : songIds) {
+            Song song = library.get(songId);
+            if (song != null)
+                songs.add(song);
+        }
+        return new UserPlayList(playListStore, id, songs);
+    }
+
+    /**
+     * Add a smart PlayList. From now on it is kept up to date with the library, the play counts
+     * and the clock, until removed. Smart PlayLists are not saved.
+     *
+     * @param name  The name of the PlayList.
+     * @param rule  The rule the Songs of the PlayList match.
+     * @param order The order of the Songs of the PlayList.
+     * @return The new PlayList, already containing the matching Songs.
+     */
+    @NonNull
+    public SmartPlayList addSmartPlayList(@NonNull String name, @NonNull SmartRule rule,
+                                          @NonNull SortOrder order) {
+        SmartPlayList smartPlayList = new SmartPlayList(name, rule, order);
+        synchronized (this) {
+            smartPlayList.rebuild(libraryVersion, playCounts);
+            smartPlayLists.add(smartPlayList);
+        }
+        scheduleSmartPlayListExpiry();
+        return smartPlayList;
+    }
+
+    /**
+     * @param smartPlayList A smart PlayList, which stops being updated. A current PlayList
+     *                      following it keeps its last Songs.
+     */
+    public void removeSmartPlayList(@NonNull SmartPlayList smartPlayList) {
+        synchronized (this) {
+            smartPlayLists.remove(smartPlayList);
+            if (followedSmartPlayList == smartPlayList)
+                followedSmartPlayList = null;
+        }
+        scheduleSmartPlayListExpiry();
+    }
+
+    /**
+     * @return The smart PlayLists, in the order they were added.
+     */
+    @NonNull
+    public synchronized List<SmartPlayList> getSmartPlayLists() {
+        return new ArrayList<>(smartPlayLists);
+    }
+
+    /**
+     * Count a play of a Song. Only the Song is checked again against the smart PlayLists. Returns
+     * at once: the work runs on the background thread, so that a player calling this while
+     * holding its own lock never waits for this manager's.
+     *
+     * @param song The Song that started playing.
+     */
+    public void recordPlay(@NonNull Song song) {
+        backgroundExecutor.execute(() -> {
+            playCounts.increment(song.getMediaStoreId());
+            List<SmartPlayList> changed;
+            synchronized (this) {
+                changed = updateSmartPlayLists(Collections.singletonList(song),
+                        Collections.<Song>emptyList());
+            }
+            onSmartPlayListsChanged(changed);
+            playCounts.write(playCountsFile);
+        });
+    }
+
+    /**
+     * Check every Song of the library against the smart PlayLists. Called with the lock held.
+     *
+     * @return The smart PlayLists, which all changed.
+     */
+    @NonNull
+    private List<SmartPlayList> rebuildSmartPlayLists() {
+        for (SmartPlayList smartPlayList : smartPlayLists)
+            smartPlayList.rebuild(libraryVersion, playCounts);
+        return new ArrayList<>(smartPlayLists);
+    }
+
+    /**
+     * Check some changes against the smart PlayLists. Called with the lock held.
+     *
+     * @param changed Songs that were added or modified, or whose play count changed.
+     * @param removed Songs that were removed from the library.
+     * @return The smart PlayLists whose content changed.
+     */
+    @NonNull
+    private List<SmartPlayList> updateSmartPlayLists(@NonNull Collection<Song> changed,
+                                                     @NonNull Collection<Song> removed) {
+        List<SmartPlayList> updated = new ArrayList<>();
+        for (SmartPlayList smartPlayList : smartPlayLists)
+            if (smartPlayList.update(changed, removed, playCounts))
+                updated.add(smartPlayList);
+        return updated;
+    }
+
+    /**
+     * Called on the main thread when a rule of the smart PlayLists may have changed its result.
+     */
+    private void onSmartPlayListsExpired() {
+        songLoader.runOnLoader(this::expireSmartPlayLists);
+    }
+
+    /**
+     * Check the whole library against the smart PlayLists whose rules may have changed their
+     * result since the Songs were last checked.
+     */
+    @WorkerThread
+    private void expireSmartPlayLists() {
+        List<SmartPlayList> changed = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (SmartPlayList smartPlayList : smartPlayLists)
+                if (smartPlayList.expire(libraryVersion, playCounts, now))
+                    changed.add(smartPlayList);
+        }
+        onSmartPlayListsChanged(changed);
+    }
+
+    /**
+     * Replace the current PlayList if it follows one of the changed smart PlayLists, notify the
+     * observers of the changed ones from the background thread, and schedule the next time their
+     * rules may change. Called without the lock.
+     *
+     * @param changed The smart PlayLists whose content changed.
+     */
+    private void onSmartPlayListsChanged(@NonNull List<SmartPlayList> changed) {
+        boolean replaced = false;
+        synchronized (this) {
+            if (followedSmartPlayList != null && changed.contains(followedSmartPlayList)) {
+                currentPlayList = followedSmartPlayList.getPlayList();
+                replaced = true;
+            }
+        }
+        // The observers may take their own locks, which must never wait while holding this one.
+        if (replaced)
+            notifyPlayListObservers();
+        if (!changed.isEmpty())
+            backgroundExecutor.execute(() -> {
+                for (SmartPlayList smartPlayList : changed)
+                    smartPlayList.notifyObservers();
+            });
+        scheduleSmartPlayListExpiry();
+    }
+
+    /**
+     * Schedule the check of the smart PlayLists at the earliest time one of their rules may
+     * change its result. The wait is measured on the uptime clock, so it runs late if the device
+     * sleeps, and any later change to the library schedules it again.
+     */
+    private void scheduleSmartPlayListExpiry() {
+        long next = Long.MAX_VALUE;
+        synchronized (this) {
+            for (SmartPlayList smartPlayList : smartPlayLists)
+                next = Math.min(next, smartPlayList.getNextChange());
+        }
+        changeHandler.removeCallbacks(smartPlayListExpiry);
+        if (next != Long.MAX_VALUE)
+            changeHandler.postDelayed(smartPlayListExpiry,
+                    Math.max(0, next - System.currentTimeMillis()));
+    }
+
     /**
      * Returns a Bitmap for a Song. The operation is performed asynchronously. If the song is
      * unknown, the operation is performed synchronously immediately.
@@ -152,9 +657,123 @@ public class SongManager implements SongLoader.SongListListener, SongLibrary {
     /**
      * Method used to update the song list. A new List will be created and used when replacing
      * the current one. Observe this Object to be notified of these updates.
+     * If the library has already been loaded, only the songs changed since the last sync are
+     * queried. A full load is performed if the library is empty or if the MediaStore has been
+     * rebuilt since the last sync.
      */
     public void updateSongs() {
-        songLoader.loadSongList(this);
+        updateSongs(SongLoader.LoadPriority.USER);
+    }
+
+    /**
+     * @param priority The priority of the load, see {@link #updateSongs()}.
+     */
+    private void updateSongs(@NonNull SongLoader.LoadPriority priority) {
+        String version = songLoader.getMediaStoreVersion();
+        long since;
+        synchronized (this) {
+            // The watermark is not known until the snapshot has been read.
+            if (restoring) {
+                if (deferredLoad == null || priority.compareTo(deferredLoad) > 0)
+                    deferredLoad = priority;
+                return;
+            }
+            boolean versionChanged = version != null && !version.equals(syncedVersion);
+            since = (songLibrary.isEmpty() || versionChanged) ? 0 : syncWatermark;
+        }
+        songLoader.loadSongDelta(since, priority, this);
+    }
+
+    /**
+     * Called on the main thread for every MediaStore change notification. Bursts of
+     * notifications, such as the ones caused by copying a folder, are folded into a single sync,
+     * which starts once no notification has been received for {@link #CHANGE_DEBOUNCE_MS}, or
+     * at most {@link #CHANGE_MAX_DELAY_MS} after the first notification of the burst.
+     */
+    private void onMediaStoreChanged() {
+        long now = SystemClock.uptimeMillis();
+        if (firstPendingChange < 0)
+            firstPendingChange = now;
+        changeHandler.removeCallbacks(pendingSync);
+        long delay = Math.min(CHANGE_DEBOUNCE_MS, firstPendingChange + CHANGE_MAX_DELAY_MS - now);
+        changeHandler.postDelayed(pendingSync, Math.max(0, delay));
+    }
+
+    /**
+     * Called when a burst of MediaStore change notifications is over. Only the changes are
+     * queried, see {@link #updateSongs()}.
+     */
+    private void onMediaStoreSettled() {
+        firstPendingChange = -1;
+        updateSongs(SongLoader.LoadPriority.BACKGROUND);
+    }
+
+    /**
+     * @param songs The Songs in the library. By construction of the Song database, there are no
+     *              duplicates.
+     * @return A new library version, numbered after the current one, sharing nothing with it.
+     */
+    @NonNull
+    private LibraryVersion newVersion(@NonNull Collection<Song> songs) {
+        return LibraryVersion.build(songs, libraryVersion.getVersion() + 1);
+    }
+
+    /**
+     * Publish a new library version, viewed in the library order. Called with the lock held.
+     *
+     * @param version The new version.
+     */
+    private void setLibrary(@NonNull LibraryVersion version) {
+        libraryVersion = version;
+        songLibrary = new PlayList(version, librarySortOrder);
+        songLibrary.setSearchIndex(searchIndex, version.getVersion());
+    }
+
+    /**
+     * @param songs Some Songs.
+     * @param since The current watermark.
+     * @return The maximum between {@code since} and the timestamps of the Songs.
+     */
+    private static long watermarkOf(@NonNull Iterable<Song> songs, long since) {
+        long watermark = since;
+        for (Song song : songs)
+            watermark = Math.max(watermark, Math.max(song.getDateAdded(), song.getDateModified()));
+        return watermark;
+    }
+
+    /**
+     * Method called while a full load is running. If the library is empty, the songs loaded so far
+     * are published to the observers, so that the first ones can be shown right away. If a library
+     * is already being shown, nothing happens until the load is complete.
+     * Each batch is added to a version of its own in O(batch log n), which is published only when
+     * the amount of loaded songs has doubled since the last one, so that observers are not
+     * flooded with updates.
+     *
+     * @param batch The songs loaded since the last batch.
+     */
+    @Override
+    public void onBatchLoaded(@NonNull List<Song> batch) {
+        synchronized (this) {
+            if (streamedSongs == null) {
+                if (!songLibrary.isEmpty())
+                    return;
+                streamedSongs = libraryVersion;
+                publishedSize = 0;
+                searchIndex = new TrigramIndex();
+                facets = new LibraryFacets();
+            }
+            streamedSongs = streamedSongs.withChanges(batch, null);
+            searchIndex = searchIndex.update(batch, Collections.<Song>emptyList(),
+                    streamedSongs.getVersion());
+            facets.update(batch, Collections.<Song>emptyList(), songTags);
+            if (streamedSongs.size() < 2 * publishedSize)
+                return;
+            setLibrary(streamedSongs);
+            publishedSize = streamedSongs.size();
+        }
+        notifyLibraryObservers();
+        if (currentPlayList == null)
+            notifyPlayListObservers();
     }
 
     /**
@@ -165,14 +784,182 @@ public class SongManager implements SongLoader.SongListListener, SongLibrary {
      */
     @Override
     public void onLoaded(@NonNull List<Song> newList) {
+        List<SmartPlayList> rebuilt;
         synchronized (this) {
-            // By construction of the Song database we know that the list is also a Set.
-            songLibrary = new PlayList(new HashSet<>(newList));
+            // Replacing every streamed Song would cost more than indexing from scratch.
+            searchIndex = TrigramIndex.build(newList);
+            facets = LibraryFacets.build(newList, songTags);
+            setLibrary(newVersion(newList));
+            // Every Song is new, so every Song must be checked anyway.
+            rebuilt = rebuildSmartPlayLists();
+            libraryLoaded = true;
+            streamedSongs = null;
+            syncWatermark = watermarkOf(newList, 0);
+            syncedVersion = songLoader.getMediaStoreVersion();
         }
         notifyLibraryObservers();
         // If the currentPlayList is null, observers believe the full library is the playlist.
         if (currentPlayList == null)
             notifyPlayListObservers();
+        onSmartPlayListsChanged(rebuilt);
+        // Persisting is not needed to show the library, do it after notifying.
+        saveSnapshot();
+        enrichTags(null);
+    }
+
+    /**
+     * Method called when the changes since the last sync get loaded. The changes are applied to
+     * the current library, and the observers are notified only if something actually changed.
+     *
+     * @param changed    The songs that were added or modified since the last sync.
+     * @param currentIds The ids of all the songs currently in the MediaStore.
+     */
+    @Override
+    public void onDeltaLoaded(@NonNull List<Song> changed, @NonNull Set<String> currentIds) {
+        List<Song> kept;
+        List<SmartPlayList> updated = Collections.emptyList();
+        synchronized (this) {
+            LibraryVersion previous = libraryVersion;
+            syncWatermark = watermarkOf(changed, syncWatermark);
+            // The watermark is inclusive, so the rows changed in its second come back on every
+            // sync: only the ones that differ from the library are changes.
+            kept = new ArrayList<>(changed.size());
+            for (Song song : changed) {
+                Song current = previous.get(song.getMediaStoreId());
+                if ((current == null || !current.sameFields(song)) &&
+                        currentIds.contains(song.getId()))
+                    kept.add(song);
+            }
+            // Nothing added or modified, and nothing removed.
+            boolean unchanged = kept.isEmpty() && currentIds.size() == previous.size();
+            if (!unchanged) {
+                // Songs can only have been removed if there are fewer ids than Songs.
+                List<Song> removed = (previous.size() + kept.size() > currentIds.size()) ?
+                        previous.missingFrom(currentIds) : Collections.<Song>emptyList();
+                for (Song song : removed) {
+                    untagged.remove(song.getMediaStoreId());
+                    unreadable.remove(song.getMediaStoreId());
+                }
+                LibraryVersion next = previous.withUpdates(kept, removed);
+                // Views of the previous versions keep finding their own Songs.
+                searchIndex = searchIndex.update(kept, removed, next.getVersion());
+                facets.update(kept, removed, songTags);
+                setLibrary(next);
+                updated = updateSmartPlayLists(kept, removed);
+            }
+            if (unchanged)
+                kept = null;
+        }
+        if (kept != null) {
+            notifyLibraryObservers();
+            if (currentPlayList == null)
+                notifyPlayListObservers();
+            onSmartPlayListsChanged(updated);
+            saveSnapshot();
+        }
+        // The saved tags may not have been read yet, even if nothing changed.
+        enrichTags((kept == null) ? Collections.<Song>emptyList() : kept);
+    }
+
+    /**
+     * Save the current library to disk, so it can be shown right away the next time the app is
+     * started. Called from the loading threads, never on the main thread.
+     */
+    @WorkerThread
+    private void saveSnapshot() {
+        LibrarySnapshot snapshot;
+        synchronized (this) {
+            snapshot = new LibrarySnapshot(songLibrary.getSongs(), syncWatermark, syncedVersion);
+        }
+        snapshot.write(snapshotFile);
+    }
+
+    /**
+     * Start reading the tags of some Songs that have none, or whose file changed since they were
+     * read. Files that could not be read are not read again until they change. Called from the
+     * loading threads, never on the main thread.
+     *
+     * @param changed The Songs that were added or modified, or null to check the whole library.
+     *                The whole library is checked anyway the first time, against the saved tags.
+     */
+    @WorkerThread
+    private void enrichTags(@Nullable Collection<Song> changed) {
+        List<Song> toRead;
+        synchronized (this) {
+            if (songTags == null) {
+                songTags = TagStore.read(tagsFile);
+                // Track numbers and genres were unknown until now.
+                facets = LibraryFacets.build(songLibrary.getSongs(), songTags);
+                changed = null;
+            }
+            if (changed == null) {
+                untagged.clear();
+                changed = songLibrary.getSongs();
+            }
+            boolean added = false;
+            for (Song song : changed) {
+                SongTags tags = songTags.get(song.getId());
+                Long failedAt = unreadable.get(song.getMediaStoreId());
+                if ((tags == null || !tags.isUpToDate(song)) &&
+                        (failedAt == null || failedAt != song.getDateModified())) {
+                    untagged.put(song.getMediaStoreId(), song);
+                    added = true;
+                }
+            }
+            // Otherwise the running extraction, if any, already reads everything needed.
+            if (!added)
+                return;
+            toRead = new ArrayList<>(untagged.size());
+            for (long id : untagged.keys())
+                toRead.add(untagged.get(id));
+        }
+        tagEnricher.enrich(toRead, this::onTagsExtracted);
+    }
+
+    /**
+     * Method called when the tags of some Songs have been read. They are saved to disk along with
+     * the tags of the other Songs still in the library.
+     *
+     * @param extracted The tags that have been read.
+     * @param failed    The Songs whose file could not be read.
+     */
+    @WorkerThread
+    private void onTagsExtracted(@NonNull List<SongTags> extracted, @NonNull List<Song> failed) {
+        List<SongTags> toSave = new ArrayList<>();
+        synchronized (this) {
+            List<Song> tagged = new ArrayList<>(extracted.size());
+            for (SongTags tags : extracted) {
+                songTags.put(String.valueOf(tags.getSongId()), tags);
+                Song song = libraryVersion.get(tags.getSongId());
+                if (song != null)
+                    tagged.add(song);
+                doneReading(tags.getSongId(), tags.getDateModified());
+            }
+            for (Song song : failed) {
+                if (libraryVersion.get(song.getMediaStoreId()) != null)
+                    unreadable.put(song.getMediaStoreId(), song.getDateModified());
+                doneReading(song.getMediaStoreId(), song.getDateModified());
+            }
+            // Only the Songs whose tags were read can have moved to other groups.
+            facets.update(tagged, Collections.<Song>emptyList(), songTags);
+            // Forget the tags of removed Songs.
+            songTags.keySet().retainAll(songLibrary.getSongIds());
+            toSave.addAll(songTags.values());
+        }
+        if (!extracted.isEmpty())
+            TagStore.write(tagsFile, toSave);
+    }
+
+    /**
+     * Stop waiting for the tags of a Song, unless it changed again since it was read.
+     *
+     * @param songId       The id of the Song.
+     * @param dateModified The modification time of the file that was read.
+     */
+    private void doneReading(long songId, long dateModified) {
+        Song song = untagged.get(songId);
+        if (song != null && song.getDateModified() == dateModified)
+            untagged.remove(songId);
     }
 
     /**
@@ -180,6 +967,7 @@ public class SongManager implements SongLoader.SongListListener, SongLibrary {
      */
     public void observeLibrary(@NonNull LibraryObserver newObserver) {
         libraryObservers.add(newObserver);
+        updateMediaStoreWatch();
     }
 
     /**
@@ -187,6 +975,7 @@ public class SongManager implements SongLoader.SongListListener, SongLibrary {
      */
     public void observePlayList(@NonNull PlayListObserver newObserver) {
         playListObservers.add(newObserver);
+        updateMediaStoreWatch();
     }
 
     /**
@@ -194,6 +983,7 @@ public class SongManager implements SongLoader.SongListListener, SongLibrary {
      */
     public void removeObserver(@NonNull PlayListObserver observer) {
         playListObservers.remove(observer);
+        updateMediaStoreWatch();
     }
 
     /**
@@ -201,14 +991,52 @@ public class SongManager implements SongLoader.SongListListener, SongLibrary {
      */
     public void removeObserver(@NonNull LibraryObserver observer) {
         libraryObservers.remove(observer);
+        updateMediaStoreWatch();
     }
 
     /**
-     * Notify the LibraryObservers there has been a change in the library.
+     * Register the MediaStore observer when the first observer of the library or the PlayList is
+     * added, and unregister it when the last one is removed, so that the MediaStore is not watched
+     * for the whole life of the process. Changes made while it was not watched are synced as soon
+     * as it is again.
+     */
+    private void updateMediaStoreWatch() {
+        boolean observed = !libraryObservers.isEmpty() || !playListObservers.isEmpty();
+        if (observed == watchingMediaStore)
+            return;
+        watchingMediaStore = observed;
+        if (!observed) {
+            contentResolver.unregisterContentObserver(mediaStoreObserver);
+            return;
+        }
+        contentResolver.registerContentObserver(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, mediaStoreObserver
+        );
+        boolean loaded;
+        synchronized (this) {
+            loaded = libraryLoaded;
+        }
+        // Until the first load there is nothing to catch up with.
+        if (loaded)
+            onMediaStoreChanged();
+    }
+
+    /**
+     * Notify the LibraryObservers there has been a change in the library. The differences from the
+     * previous library are computed in the background, and the observers are notified from there.
      */
     protected void notifyLibraryObservers() {
-        for (LibraryObserver o : libraryObservers)
-            o.onChanged(getLibrary());
+        // Not getLibrary(), which may trigger yet another load.
+        PlayList library;
+        synchronized (this) {
+            library = songLibrary;
+        }
+        backgroundExecutor.execute(() -> {
+            LibraryDiff diff = LibraryDiff.compute(notifiedLibrary, library);
+            notifiedLibrary = library;
+            for (LibraryObserver o : libraryObservers)
+                o.onChanged(library, diff);
+        });
     }
 
     /**
@@ -221,11 +1049,12 @@ public class SongManager implements SongLoader.SongListListener, SongLibrary {
 
     public interface LibraryObserver {
         /**
-         * Called when the library is updated.
+         * Called when the library is updated, on a background thread.
          *
          * @param newLibrary The new Library.
+         * @param diff       The differences from the library of the previous call.
          */
-        void onChanged(@NonNull PlayList newLibrary);
+        void onChanged(@NonNull PlayList newLibrary, @NonNull LibraryDiff diff);
     }
 
     public interface PlayListObserver {
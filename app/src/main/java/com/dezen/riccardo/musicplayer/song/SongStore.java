@@ -0,0 +1,168 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact storage for the fields of many {@link Song}s. Fields are kept in one primitive array per
+ * column instead of one Object per Song, and Strings go through a {@link StringTable}, so that an
+ * artist or album is held once no matter how many Songs share it. Songs are views over a row.
+ * The {@link SearchKeys folded} title, album and artist are stored along with the originals, so
+ * that searching never folds the text of a Song.
+ * <p>
+ * Rows are stored in fixed size chunks which are never reallocated, and rows are never modified
+ * once added, so a Song can be safely read from any thread it has been handed to. The store itself
+ * is not thread safe: rows must be added from a single thread.
+ *
+ * @author Riccardo De Zen.
+ */
+final class SongStore {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final StringTable strings;
+    private final int firstCapacity;
+    private int size = 0;
+
+    /**
+     * @param expectedSize The expected number of rows. Only used to avoid allocating too much for
+     *                     small stores, adding more rows is always possible.
+     */
+    SongStore(int expectedSize) {
+        this(expectedSize, new StringTable());
+    }
+
+    /**
+     * @param expectedSize The expected number of rows, see {@link #SongStore(int)}.
+     * @param strings      The table the Strings go through, which may be shared with other
+     *                     stores added to from the same thread.
+     */
+    SongStore(int expectedSize, @NonNull StringTable strings) {
+        this.firstCapacity = Math.max(1, Math.min(expectedSize, CHUNK_SIZE));
+        this.strings = strings;
+    }
+
+    /**
+     * Add a row to the store.
+     *
+     * @param id           The MediaStore id of the Song.
+     * @param title        The title.
+     * @param album        The album.
+     * @param artist       The artist.
+     * @param duration     The duration, in milliseconds.
+     * @param dateAdded    The time the Song was added to the MediaStore, in seconds.
+     * @param dateModified The last time the Song's file was modified, in seconds.
+     * @return The Song for the new row.
+     */
+    @NonNull
+    Song add(long id, @Nullable String title, @Nullable String album, @Nullable String artist,
+             long duration, long dateAdded, long dateModified) {
+        return add(id, title, album, artist, duration, dateAdded, dateModified, null, null, null);
+    }
+
+    /**
+     * Add a row to the store, along with its folded keys, as saved by a previous run. Keys that
+     * are missing, or do not have the length of their text, are folded again.
+     *
+     * @param id           The MediaStore id of the Song.
+     * @param title        The title.
+     * @param album        The album.
+     * @param artist       The artist.
+     * @param duration     The duration, in milliseconds.
+     * @param dateAdded    The time the Song was added to the MediaStore, in seconds.
+     * @param dateModified The last time the Song's file was modified, in seconds.
+     * @param titleKey     The folded title.
+     * @param albumKey     The folded album.
+     * @param artistKey    The folded artist.
+     * @return The Song for the new row.
+     */
+    @NonNull
+    Song add(long id, @Nullable String title, @Nullable String album, @Nullable String artist,
+             long duration, long dateAdded, long dateModified, @Nullable String titleKey,
+             @Nullable String albumKey, @Nullable String artistKey) {
+        Chunk chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (chunk == null || chunk.size == chunk.ids.length) {
+            // Chunks double in size up to CHUNK_SIZE, so that small stores stay small.
+            int capacity = (chunk == null) ? firstCapacity :
+                    Math.min(CHUNK_SIZE, chunk.ids.length * 2);
+            chunk = new Chunk(capacity);
+            chunks.add(chunk);
+        }
+        int row = chunk.size++;
+        chunk.ids[row] = id;
+        chunk.titles[row] = strings.intern(title);
+        chunk.albums[row] = strings.intern(album);
+        chunk.artists[row] = strings.intern(artist);
+        chunk.titleKeys[row] = strings.intern(keyOf(title, titleKey));
+        chunk.albumKeys[row] = strings.intern(keyOf(album, albumKey));
+        chunk.artistKeys[row] = strings.intern(keyOf(artist, artistKey));
+        chunk.durations[row] = duration;
+        chunk.datesAdded[row] = dateAdded;
+        chunk.datesModified[row] = dateModified;
+        size++;
+        return new Song(chunk, row);
+    }
+
+    /**
+     * @param text The text of a field.
+     * @param key  The saved key of the field, may be null.
+     * @return The saved key if it fits the text, the text folded otherwise.
+     */
+    @NonNull
+    private static String keyOf(@Nullable String text, @Nullable String key) {
+        int length = (text == null) ? 0 : text.length();
+        return (key != null && key.length() == length) ? key : SearchKeys.fold(text);
+    }
+
+    /**
+     * @return The number of rows in the store.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of unique Strings in the store.
+     */
+    int uniqueStrings() {
+        return strings.size();
+    }
+
+    /**
+     * A block of rows, one array per column. Only the first size rows are valid.
+     */
+    static final class Chunk {
+        final long[] ids;
+        final long[] durations;
+        final long[] datesAdded;
+        final long[] datesModified;
+        final String[] titles;
+        final String[] albums;
+        final String[] artists;
+        // Folded text columns, for searching.
+        final String[] titleKeys;
+        final String[] albumKeys;
+        final String[] artistKeys;
+        int size = 0;
+
+        /**
+         * @param capacity The number of rows in the chunk.
+         */
+        private Chunk(int capacity) {
+            ids = new long[capacity];
+            durations = new long[capacity];
+            datesAdded = new long[capacity];
+            datesModified = new long[capacity];
+            titles = new String[capacity];
+            albums = new String[capacity];
+            artists = new String[capacity];
+            titleKeys = new String[capacity];
+            albumKeys = new String[capacity];
+            artistKeys = new String[capacity];
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Class containing the tags of a Song that the MediaStore does not provide reliably, and that are
+ * read from the file itself by {@link TagEnricher}. Numeric tags are 0 when unknown.
+ *
+ * @author Riccardo De Zen.
+ */
+public final class SongTags {
+
+    private final long songId;
+    private final long dateModified;
+    @Nullable
+    private final String genre;
+    @Nullable
+    private final String albumArtist;
+    private final int trackNumber;
+    private final int discNumber;
+    private final int year;
+    private final int bitrate;
+    private final int sampleRate;
+
+    /**
+     * @param songId       The MediaStore id of the Song.
+     * @param dateModified The modification time of the file the tags were read from, in seconds.
+     *                     Used to tell whether the tags are stale.
+     * @param genre        The genre.
+     * @param albumArtist  The album artist.
+     * @param trackNumber  The track number in the disc.
+     * @param discNumber   The disc number.
+     * @param year         The year.
+     * @param bitrate      The bitrate, in bits per second.
+     * @param sampleRate   The sample rate, in Hz.
+     */
+    SongTags(long songId, long dateModified, @Nullable String genre, @Nullable String albumArtist,
+             int trackNumber, int discNumber, int year, int bitrate, int sampleRate) {
+        this.songId = songId;
+        this.dateModified = dateModified;
+        this.genre = genre;
+        this.albumArtist = albumArtist;
+        this.trackNumber = trackNumber;
+        this.discNumber = discNumber;
+        this.year = year;
+        this.bitrate = bitrate;
+        this.sampleRate = sampleRate;
+    }
+
+    public long getSongId() {
+        return songId;
+    }
+
+    public long getDateModified() {
+        return dateModified;
+    }
+
+    @Nullable
+    public String getGenre() {
+        return genre;
+    }
+
+    @Nullable
+    public String getAlbumArtist() {
+        return albumArtist;
+    }
+
+    public int getTrackNumber() {
+        return trackNumber;
+    }
+
+    public int getDiscNumber() {
+        return discNumber;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @param song A Song.
+     * @return True if these tags were read from the current version of the Song's file.
+     */
+    public boolean isUpToDate(@NonNull Song song) {
+        return dateModified == song.getDateModified();
+    }
+}
@@ -0,0 +1,259 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Sequence of Songs stored as an implicit treap: a binary tree ordered by position, balanced by
+ * random priorities and augmented with subtree sizes. Nodes also point to their parent, so the
+ * position of a node can be found by walking up to the root. Inserting, removing and finding a
+ * node by position, or the position of a node, are all O(log n) on average.
+ * <p>
+ * Nodes are handed out so that callers can keep an index from ids to nodes. A node stays valid,
+ * and keeps the same Song, until it is removed. Not thread safe.
+ *
+ * @author Riccardo De Zen.
+ */
+class SongTree {
+
+    private final Random random = new Random();
+    private final Node[] pair = new Node[2];
+    private Node root;
+
+    /**
+     * @return The number of Songs in the tree.
+     */
+    int size() {
+        return size(root);
+    }
+
+    /**
+     * Replace the content of the tree, in O(n).
+     *
+     * @param songs The Songs, in order.
+     * @param nodes If not null, receives the node of each Song, in the same order.
+     */
+    void build(@NonNull List<Song> songs, @Nullable List<Node> nodes) {
+        // Build the cartesian tree of the priorities, keeping the right spine on a stack.
+        Node[] spine = new Node[songs.size()];
+        int top = 0;
+        for (Song song : songs) {
+            Node node = new Node(song, random.nextInt());
+            Node last = null;
+            while (top > 0 && spine[top - 1].priority < node.priority)
+                last = spine[--top];
+            node.left = last;
+            if (last != null)
+                last.parent = node;
+            if (top > 0) {
+                spine[top - 1].right = node;
+                node.parent = spine[top - 1];
+            }
+            spine[top++] = node;
+            if (nodes != null)
+                nodes.add(node);
+        }
+        root = (top > 0) ? spine[0] : null;
+        computeSizes(root);
+    }
+
+    /**
+     * @param index A position, between 0 and {@link #size()} - 1.
+     * @return The node at the position.
+     * @throws IndexOutOfBoundsException If the position is invalid.
+     */
+    @NonNull
+    Node get(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            } else {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * @param node A node in this tree.
+     * @return The position of the node.
+     */
+    int indexOf(@NonNull Node node) {
+        int index = size(node.left);
+        for (Node child = node; child.parent != null; child = child.parent)
+            if (child == child.parent.right)
+                index += size(child.parent.left) + 1;
+        return index;
+    }
+
+    /**
+     * @param index The position for the Song, between 0 and {@link #size()}.
+     * @param song  The Song to insert.
+     * @return The node of the Song.
+     * @throws IndexOutOfBoundsException If the position is invalid.
+     */
+    @NonNull
+    Node insert(int index, @NonNull Song song) {
+        Node node = new Node(song, random.nextInt());
+        insert(index, node);
+        return node;
+    }
+
+    /**
+     * Insert a node which is not in any tree.
+     *
+     * @param index The position for the node, between 0 and {@link #size()}.
+     * @param node  The node.
+     * @throws IndexOutOfBoundsException If the position is invalid.
+     */
+    void insert(int index, @NonNull Node node) {
+        if (index < 0 || index > size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        split(root, index);
+        Node left = pair[0];
+        Node right = pair[1];
+        root = merge(merge(left, node), right);
+        root.parent = null;
+    }
+
+    /**
+     * Remove a node from this tree. The node can be inserted again afterwards.
+     *
+     * @param node A node in this tree.
+     */
+    void remove(@NonNull Node node) {
+        Node parent = node.parent;
+        Node replacement = merge(node.left, node.right);
+        if (replacement != null)
+            replacement.parent = parent;
+        if (parent == null)
+            root = replacement;
+        else if (parent.left == node)
+            parent.left = replacement;
+        else
+            parent.right = replacement;
+        for (Node ancestor = parent; ancestor != null; ancestor = ancestor.parent)
+            ancestor.size--;
+        node.left = node.right = node.parent = null;
+        node.size = 1;
+    }
+
+    /**
+     * Remove every node.
+     */
+    void clear() {
+        root = null;
+    }
+
+    /**
+     * @param target The list the Songs are appended to, in order.
+     */
+    void collect(@NonNull List<Song> target) {
+        // In-order visit, going up through the parents instead of keeping a stack.
+        Node node = (root == null) ? null : leftmost(root);
+        while (node != null) {
+            target.add(node.song);
+            if (node.right != null) {
+                node = leftmost(node.right);
+            } else {
+                while (node.parent != null && node == node.parent.right)
+                    node = node.parent;
+                node = node.parent;
+            }
+        }
+    }
+
+    /**
+     * Split a subtree in its first {@code count} nodes and the rest, stored in {@link #pair}.
+     * The parents of the two resulting roots are not updated.
+     */
+    private void split(@Nullable Node node, int count) {
+        if (node == null) {
+            pair[0] = pair[1] = null;
+        } else if (size(node.left) >= count) {
+            split(node.left, count);
+            node.left = pair[1];
+            update(node);
+            pair[1] = node;
+        } else {
+            split(node.right, count - size(node.left) - 1);
+            node.right = pair[0];
+            update(node);
+            pair[0] = node;
+        }
+    }
+
+    /**
+     * Concatenate two subtrees. The parent of the resulting root is not updated.
+     */
+    @Nullable
+    private static Node merge(@Nullable Node left, @Nullable Node right) {
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    /**
+     * Fix the size of a node and the parent of its children.
+     */
+    private static void update(@NonNull Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        if (node.left != null)
+            node.left.parent = node;
+        if (node.right != null)
+            node.right.parent = node;
+    }
+
+    private static int computeSizes(@Nullable Node node) {
+        if (node == null)
+            return 0;
+        node.size = 1 + computeSizes(node.left) + computeSizes(node.right);
+        return node.size;
+    }
+
+    @NonNull
+    private static Node leftmost(@NonNull Node node) {
+        while (node.left != null)
+            node = node.left;
+        return node;
+    }
+
+    private static int size(@Nullable Node node) {
+        return (node == null) ? 0 : node.size;
+    }
+
+    /**
+     * A node of the tree, holding one Song.
+     */
+    static final class Node {
+        final Song song;
+        private final int priority;
+        private Node left;
+        private Node right;
+        private Node parent;
+        private int size = 1;
+
+        private Node(@NonNull Song song, int priority) {
+            this.song = song;
+            this.priority = priority;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.List;
+
+/**
+ * The {@link SortOrder}s of a fixed list of Songs. Each order is a permutation of the positions in
+ * the list, stored along with its inverse, so that once an order is computed, finding the Song at
+ * a sorted position, and finding the sorted position of a Song, are O(1). Orders are computed the
+ * first time they are used, as most lists are only ever shown in one or two of them.
+ * <p>
+ * Text is compared through collation keys, built for the fields an order compares while it is
+ * computed, and dropped right after: only the permutations are kept. Thread safe.
+ *
+ * @author Riccardo De Zen.
+ */
+final class SortIndex {
+
+    // The text fields that can be compared.
+    private static final int TITLE = 0;
+    private static final int ALBUM = 1;
+    private static final int ARTIST = 2;
+
+    private final Song[] songs;
+    // For each order: sorted position -> list position, and list position -> sorted position.
+    // Null until the order is first used.
+    private final int[][] orders = new int[SortOrder.values().length][];
+    private final int[][] ranks = new int[SortOrder.values().length][];
+
+    /**
+     * O(n), no order is computed yet.
+     *
+     * @param list The Songs, in their unsorted order.
+     */
+    SortIndex(@NonNull List<Song> list) {
+        songs = list.toArray(new Song[0]);
+    }
+
+    /**
+     * @return The number of Songs.
+     */
+    int size() {
+        return songs.length;
+    }
+
+    /**
+     * @param order The order.
+     * @param index A position in the sorted list.
+     * @return The Song at the position.
+     */
+    @NonNull
+    Song get(@NonNull SortOrder order, int index) {
+        return songs[sorted(order)[index]];
+    }
+
+    /**
+     * @param order        The order.
+     * @param listPosition The position of a Song in the unsorted list.
+     * @return The position of the Song in the sorted list.
+     */
+    synchronized int rank(@NonNull SortOrder order, int listPosition) {
+        sorted(order);
+        return ranks[order.ordinal()][listPosition];
+    }
+
+    /**
+     * Compute every order at once, building the keys of each field only once, for lists that are
+     * needed in every order.
+     */
+    synchronized void sortAll() {
+        Collator collator = Collator.getInstance();
+        CollationKey[] titles = keys(collator, TITLE);
+        CollationKey[] albums = keys(collator, ALBUM);
+        CollationKey[] artists = keys(collator, ARTIST);
+        for (SortOrder order : SortOrder.values())
+            if (orders[order.ordinal()] == null)
+                sort(order, titles, albums, artists);
+    }
+
+    /**
+     * @param order The order.
+     * @return The list positions in the order, computed in O(n log n) if it is the first time.
+     */
+    @NonNull
+    private synchronized int[] sorted(@NonNull SortOrder order) {
+        int[] sorted = orders[order.ordinal()];
+        if (sorted != null)
+            return sorted;
+        Collator collator = Collator.getInstance();
+        CollationKey[] albums = (order == SortOrder.ARTIST || order == SortOrder.ALBUM) ?
+                keys(collator, ALBUM) : null;
+        CollationKey[] artists = (order == SortOrder.ARTIST || order == SortOrder.TITLE) ?
+                keys(collator, ARTIST) : null;
+        return sort(order, keys(collator, TITLE), albums, artists);
+    }
+
+    /**
+     * Compute an order.
+     *
+     * @param order   The order.
+     * @param titles  The title keys.
+     * @param albums  The album keys, may be null if the order does not compare albums.
+     * @param artists The artist keys, may be null if the order does not compare artists.
+     * @return The list positions in the order.
+     */
+    @NonNull
+    private int[] sort(@NonNull SortOrder order, @NonNull CollationKey[] titles,
+                       @Nullable CollationKey[] albums, @Nullable CollationKey[] artists) {
+        int size = songs.length;
+        IndexComparator comparator;
+        switch (order) {
+            case ARTIST:
+                comparator = (a, b) -> {
+                    int result = artists[a].compareTo(artists[b]);
+                    if (result == 0)
+                        result = albums[a].compareTo(albums[b]);
+                    return (result != 0) ? result : titles[a].compareTo(titles[b]);
+                };
+                break;
+            case ALBUM:
+                comparator = (a, b) -> {
+                    int result = albums[a].compareTo(albums[b]);
+                    return (result != 0) ? result : titles[a].compareTo(titles[b]);
+                };
+                break;
+            case DURATION:
+                comparator = (a, b) -> {
+                    int result = Long.compare(songs[a].getDuration(), songs[b].getDuration());
+                    return (result != 0) ? result : titles[a].compareTo(titles[b]);
+                };
+                break;
+            case DATE_ADDED:
+                comparator = (a, b) -> {
+                    int result = Long.compare(songs[b].getDateAdded(), songs[a].getDateAdded());
+                    return (result != 0) ? result : titles[a].compareTo(titles[b]);
+                };
+                break;
+            default:
+                comparator = (a, b) -> {
+                    int result = titles[a].compareTo(titles[b]);
+                    return (result != 0) ? result : artists[a].compareTo(artists[b]);
+                };
+                break;
+        }
+        int[] sorted = new int[size];
+        for (int i = 0; i < size; i++)
+            sorted[i] = i;
+        // The merge sort is stable, so ties keep the list order.
+        mergeSort(sorted, new int[size], 0, size, comparator);
+        int[] rank = new int[size];
+        for (int i = 0; i < size; i++)
+            rank[sorted[i]] = i;
+        orders[order.ordinal()] = sorted;
+        ranks[order.ordinal()] = rank;
+        return sorted;
+    }
+
+    /**
+     * @param collator The Collator to build the keys with.
+     * @param field    One of {@link #TITLE}, {@link #ALBUM} or {@link #ARTIST}.
+     * @return The collation keys of the field of every Song, in list order.
+     */
+    @NonNull
+    private CollationKey[] keys(@NonNull Collator collator, int field) {
+        CollationKey[] keys = new CollationKey[songs.length];
+        for (int i = 0; i < keys.length; i++) {
+            String text;
+            switch (field) {
+                case TITLE:
+                    text = songs[i].getTitle();
+                    break;
+                case ALBUM:
+                    text = songs[i].getAlbum();
+                    break;
+                default:
+                    text = songs[i].getArtist();
+                    break;
+            }
+            keys[i] = collator.getCollationKey((text == null) ? "" : text);
+        }
+        return keys;
+    }
+
+    /**
+     * Stable merge sort of int values, which would need boxing to go through
+     * {@link java.util.Arrays#sort(Object[], java.util.Comparator)}.
+     *
+     * @param values  The values, sorted in place between from (inclusive) and to (exclusive).
+     * @param scratch An array at least as long as values.
+     */
+    private static void mergeSort(int[] values, int[] scratch, int from, int to,
+                                  IndexComparator comparator) {
+        if (to - from < 2)
+            return;
+        int middle = (from + to) >>> 1;
+        mergeSort(values, scratch, from, middle, comparator);
+        mergeSort(values, scratch, middle, to, comparator);
+        // Already in order, nothing to merge.
+        if (comparator.compare(values[middle - 1], values[middle]) <= 0)
+            return;
+        System.arraycopy(values, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle &&
+                    comparator.compare(scratch[left], scratch[right]) <= 0))
+                values[i] = scratch[left++];
+            else
+                values[i] = scratch[right++];
+        }
+    }
+
+    /**
+     * Comparator of positions in the list.
+     */
+    private interface IndexComparator {
+        int compare(int first, int second);
+    }
+}
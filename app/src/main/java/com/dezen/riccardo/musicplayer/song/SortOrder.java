@@ -0,0 +1,20 @@
+package com.dezen.riccardo.musicplayer.song;
+
+/**
+ * The orders a {@link PlayList} can be sorted in. Text is compared with the rules of the current
+ * locale, ties are broken by the next most meaningful field, and finally by id.
+ *
+ * @author Riccardo De Zen.
+ */
+public enum SortOrder {
+    // Title, then artist.
+    TITLE,
+    // Artist, then album, then title.
+    ARTIST,
+    // Album, then title.
+    ALBUM,
+    // Shortest first, then title.
+    DURATION,
+    // Most recently added first, then title.
+    DATE_ADDED
+}
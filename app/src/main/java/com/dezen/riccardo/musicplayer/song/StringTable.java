@@ -0,0 +1,41 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+
+/**
+ * Table of unique Strings. Equal Strings passed to {@link #intern(String)} are replaced by a single
+ * instance, so that values repeated across a library, such as artists and albums, are only held
+ * once. Unlike {@link String#intern()}, the Strings can be collected along with the table.
+ * Not thread safe.
+ *
+ * @author Riccardo De Zen.
+ */
+class StringTable {
+
+    private final HashMap<String, String> strings = new HashMap<>();
+
+    /**
+     * @param string Any String, may be null.
+     * @return The instance in the table equal to {@code string}, which is added if absent. Null
+     * if {@code string} is null.
+     */
+    @Nullable
+    String intern(@Nullable String string) {
+        if (string == null)
+            return null;
+        String unique = strings.get(string);
+        if (unique != null)
+            return unique;
+        strings.put(string, string);
+        return string;
+    }
+
+    /**
+     * @return The number of unique Strings in the table.
+     */
+    int size() {
+        return strings.size();
+    }
+}
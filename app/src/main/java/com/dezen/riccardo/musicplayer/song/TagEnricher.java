@@ -0,0 +1,233 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import android.content.Context;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class reading the tags the MediaStore does not provide from the files themselves. Extraction
+ * is slow, so it runs after the library has been loaded, on a small pool of low priority threads.
+ * Each worker owns its own {@link Reader}, as {@link MediaMetadataRetriever} is not thread safe.
+ * Starting a new extraction stops the one in progress.
+ *
+ * @author Riccardo De Zen.
+ */
+class TagEnricher {
+
+    private static final int WORKERS = Math.max(1,
+            Math.min(Runtime.getRuntime().availableProcessors() - 1, 3));
+
+    private final ReaderFactory readers;
+    private final AtomicInteger generation = new AtomicInteger();
+    private final ExecutorService pool = Executors.newFixedThreadPool(WORKERS, runnable ->
+            new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "TagEnricher")
+    );
+
+    /**
+     * @param context The calling Context, the application Context is retrieved from it.
+     */
+    TagEnricher(@NonNull Context context) {
+        Context appContext = context.getApplicationContext();
+        readers = () -> new FileReader(appContext);
+    }
+
+    /**
+     * @param readers The factory of the workers' readers.
+     */
+    TagEnricher(@NonNull ReaderFactory readers) {
+        this.readers = readers;
+    }
+
+    /**
+     * Start extracting the tags for some Songs, stopping any extraction in progress. The listener
+     * is called once, from one of the worker threads, when all the Songs have been read or when
+     * the extraction is stopped. In the latter case, only the Songs read so far are delivered.
+     *
+     * @param songs    The Songs to read the tags of.
+     * @param listener The listener that will receive the result.
+     */
+    void enrich(@NonNull List<Song> songs, @NonNull TagListener listener) {
+        final int run = generation.incrementAndGet();
+        if (songs.isEmpty())
+            return;
+
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger runningWorkers = new AtomicInteger(WORKERS);
+        final List<SongTags> results = Collections.synchronizedList(new ArrayList<>());
+        final List<Song> failed = Collections.synchronizedList(new ArrayList<>());
+        for (int w = 0; w < WORKERS; w++) {
+            pool.execute(() -> {
+                Reader reader = readers.create();
+                try {
+                    int index;
+                    while (generation.get() == run &&
+                            (index = next.getAndIncrement()) < songs.size()) {
+                        Song song = songs.get(index);
+                        SongTags tags = reader.read(song);
+                        if (tags != null)
+                            results.add(tags);
+                        else
+                            failed.add(song);
+                    }
+                } finally {
+                    reader.release();
+                    // The last worker to finish delivers the result.
+                    if (runningWorkers.decrementAndGet() == 0)
+                        listener.onTagsExtracted(new ArrayList<>(results),
+                                new ArrayList<>(failed));
+                }
+            });
+        }
+    }
+
+    /**
+     * Stop the extraction in progress, if any. Its listener still receives the partial result.
+     */
+    void cancel() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Tags such as the track number are often in the "3/12" form.
+     *
+     * @param value A tag value, may be null.
+     * @return The number the value starts with, 0 if there is none.
+     */
+    static int parseLeadingInt(@Nullable String value) {
+        if (value == null)
+            return 0;
+        int result = 0;
+        int i = 0;
+        while (i < value.length() && Character.isWhitespace(value.charAt(i)))
+            i++;
+        for (; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9' || result > (Integer.MAX_VALUE - 9) / 10)
+                break;
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    /**
+     * Interface for {@link TagEnricher#enrich(List, TagListener)} callback.
+     */
+    interface TagListener {
+        /**
+         * Method called when the extraction is over.
+         *
+         * @param tags   The tags that could be read.
+         * @param failed The Songs whose file could not be read.
+         */
+        void onTagsExtracted(@NonNull List<SongTags> tags, @NonNull List<Song> failed);
+    }
+
+    /**
+     * Reader of the tags of one Song at a time, owned by a single worker.
+     */
+    interface Reader {
+        /**
+         * @param song The Song to read.
+         * @return The tags of the Song, or null if its file could not be read.
+         */
+        @Nullable
+        SongTags read(@NonNull Song song);
+
+        /**
+         * Release the resources of the reader, which is not used afterwards.
+         */
+        void release();
+    }
+
+    /**
+     * Factory of the workers' {@link Reader}s, called from the workers.
+     */
+    interface ReaderFactory {
+        @NonNull
+        Reader create();
+    }
+
+    /**
+     * Reader of the files themselves.
+     */
+    private static final class FileReader implements Reader {
+        private final Context context;
+        private final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+
+        FileReader(@NonNull Context context) {
+            this.context = context;
+        }
+
+        @Nullable
+        @Override
+        public SongTags read(@NonNull Song song) {
+            try {
+                retriever.setDataSource(context, song.getUri());
+            } catch (RuntimeException e) {
+                return null;
+            }
+            return new SongTags(
+                    song.getMediaStoreId(),
+                    song.getDateModified(),
+                    retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_GENRE),
+                    retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUMARTIST),
+                    parseLeadingInt(retriever.extractMetadata(
+                            MediaMetadataRetriever.METADATA_KEY_CD_TRACK_NUMBER)),
+                    parseLeadingInt(retriever.extractMetadata(
+                            MediaMetadataRetriever.METADATA_KEY_DISC_NUMBER)),
+                    parseLeadingInt(retriever.extractMetadata(
+                            MediaMetadataRetriever.METADATA_KEY_YEAR)),
+                    parseLeadingInt(retriever.extractMetadata(
+                            MediaMetadataRetriever.METADATA_KEY_BITRATE)),
+                    readSampleRate(song)
+            );
+        }
+
+        /**
+         * The retriever only exposes the sample rate from api 31, so the track format is read
+         * instead.
+         *
+         * @param song The Song to read.
+         * @return The sample rate of the first audio track, 0 if unknown.
+         */
+        private int readSampleRate(@NonNull Song song) {
+            MediaExtractor extractor = new MediaExtractor();
+            try {
+                extractor.setDataSource(context, song.getUri(), null);
+                for (int i = 0; i < extractor.getTrackCount(); i++) {
+                    MediaFormat format = extractor.getTrackFormat(i);
+                    String mime = format.getString(MediaFormat.KEY_MIME);
+                    if (mime != null && mime.startsWith("audio/") &&
+                            format.containsKey(MediaFormat.KEY_SAMPLE_RATE))
+                        return format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                }
+                return 0;
+            } catch (IOException | RuntimeException e) {
+                return 0;
+            } finally {
+                extractor.release();
+            }
+        }
+
+        @Override
+        public void release() {
+            retriever.release();
+        }
+    }
+}
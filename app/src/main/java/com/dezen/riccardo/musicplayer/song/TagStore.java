@@ -0,0 +1,113 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class handling the on-disk copy of the {@link SongTags} extracted by {@link TagEnricher}, so
+ * that files are only read again when they change.
+ * <p>
+ * The file layout is: magic (int), format version (int), count (int), then one record per Song:
+ * song id, date modified (long), genre, album artist (UTF string, empty if unknown), track
+ * number, disc number, year, bitrate, sample rate (int).
+ *
+ * @author Riccardo De Zen.
+ */
+class TagStore {
+
+    private static final int MAGIC = 0x4d505447; // "MPTG"
+    private static final int FORMAT_VERSION = 1;
+
+    private TagStore() {
+    }
+
+    /**
+     * @param file The file to read.
+     * @return The tags in the file, by Song id. Empty if the file is missing, corrupted, or has
+     * been written with a different format version.
+     */
+    @NonNull
+    static Map<String, SongTags> read(@NonNull File file) {
+        Map<String, SongTags> tags = new HashMap<>();
+        if (!file.isFile())
+            return tags;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+                return tags;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                SongTags songTags = new SongTags(
+                        in.readLong(),
+                        in.readLong(),
+                        emptyToNull(in.readUTF()),
+                        emptyToNull(in.readUTF()),
+                        in.readInt(),
+                        in.readInt(),
+                        in.readInt(),
+                        in.readInt(),
+                        in.readInt()
+                );
+                tags.put(String.valueOf(songTags.getSongId()), songTags);
+            }
+        } catch (IOException e) {
+            // A corrupted file is just a missing file.
+            tags.clear();
+        }
+        return tags;
+    }
+
+    /**
+     * Write the tags to a file, replacing it atomically.
+     *
+     * @param file The destination file.
+     * @param tags The tags to write.
+     * @return {@code true} if the file was written, {@code false} otherwise.
+     */
+    static boolean write(@NonNull File file, @NonNull Collection<SongTags> tags) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(tags.size());
+            for (SongTags songTags : tags) {
+                out.writeLong(songTags.getSongId());
+                out.writeLong(songTags.getDateModified());
+                out.writeUTF(nullToEmpty(songTags.getGenre()));
+                out.writeUTF(nullToEmpty(songTags.getAlbumArtist()));
+                out.writeInt(songTags.getTrackNumber());
+                out.writeInt(songTags.getDiscNumber());
+                out.writeInt(songTags.getYear());
+                out.writeInt(songTags.getBitrate());
+                out.writeInt(songTags.getSampleRate());
+            }
+        } catch (IOException e) {
+            temp.delete();
+            return false;
+        }
+        return temp.renameTo(file);
+    }
+
+    @Nullable
+    private static String emptyToNull(@NonNull String string) {
+        return string.isEmpty() ? null : string;
+    }
+
+    @NonNull
+    private static String nullToEmpty(@Nullable String string) {
+        return (string == null) ? "" : string;
+    }
+}
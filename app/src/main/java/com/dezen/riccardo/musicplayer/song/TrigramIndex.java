@@ -0,0 +1,509 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.dezen.riccardo.musicplayer.utils.LongObjectMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Inverted index from the trigrams of the titles, artists and albums of some Songs, in their
+ * {@link SearchKeys folded} form, to the Songs containing them. A Song contains a query of
+ * three or more characters only if it contains every trigram of the query, so intersecting the
+ * posting lists of those trigrams gives a small set of candidates, to be checked with
+ * {@link Song#matches(String)}, instead of scanning every Song.
+ * <p>
+ * Each field is indexed with a space before and after it, so that the trigrams at the edges of
+ * words are there too. Those make {@link #similar(String, int, long, PlayList)} rank a misspelled
+ * word by how many of its trigrams, edges included, a Song shares with it, which tolerates typos
+ * that exact matching does not. Candidates are checked against fields padded the same way, so a
+ * query ending with a space still finds a word at the end of a field.
+ * <p>
+ * Each indexed Song gets a document number, in insertion order, so posting lists are sorted
+ * arrays of ints that only grow at the end while the library loads. Numbers are not reused when
+ * a Song is replaced or removed: the index is rebuilt once most of them are unused. All methods
+ * are thread safe.
+ * <p>
+ * An index shared by the {@link LibraryVersion}s of the library is changed through
+ * {@link #update(Collection, Collection, long)}, which never drops a document: it records the
+ * version that added it and the one that replaced or removed it, so that a query for an older
+ * version still finds that version's Songs, and none of the later ones. Once most documents are
+ * out of date, the update returns a new index for the later versions, and the older ones keep
+ * reading this one, which no longer changes. The other methods edit the latest version in place,
+ * and are meant for an index nobody else reads.
+ *
+ * @author Riccardo De Zen.
+ */
+class TrigramIndex {
+
+    /**
+     * Queries shorter than this have no trigrams, and can not use the index.
+     */
+    static final int MIN_QUERY_LENGTH = 3;
+    // Unused document numbers tolerated before rebuilding, on top of the live ones.
+    private static final int REBUILD_SLACK = 1024;
+    // Minimum share of the trigrams of a fuzzy query a Song must contain to be a hit.
+    private static final float MIN_SIMILARITY = 1f / 3;
+
+    // Posting list of each trigram, by the trigram's three chars packed in a long.
+    private final LongObjectMap<Posting> postings = new LongObjectMap<>();
+    // Document number of each Song, by MediaStore id.
+    private final LongObjectMap<Integer> documents = new LongObjectMap<>();
+    // Indexed Song of each document number, null if replaced or removed.
+    private Song[] songs = new Song[16];
+    // Number of distinct trigrams of each document.
+    private int[] trigramCounts = new int[16];
+    // Version each document was added in, and the one it was replaced or removed in.
+    private long[] addedIn = new long[16];
+    private long[] removedIn = new long[16];
+    private int documentCount = 0;
+    // The version of the last update, queried when no version is given.
+    private long latest = 0;
+    // Shared trigrams of each document with the fuzzy query being run, all 0 between queries.
+    private int[] shared = new int[0];
+
+    /**
+     * Index some Songs, O(total length of their text). Should not run on the main thread for
+     * big collections.
+     *
+     * @param songs The Songs.
+     * @return The new index.
+     */
+    @NonNull
+    static TrigramIndex build(@NonNull Collection<Song> songs) {
+        TrigramIndex index = new TrigramIndex();
+        index.putAll(songs);
+        return index;
+    }
+
+    /**
+     * @return The number of indexed Songs.
+     */
+    synchronized int size() {
+        return documents.size();
+    }
+
+    /**
+     * Add a Song, or replace the one with the same id.
+     *
+     * @param song The Song.
+     */
+    synchronized void put(@NonNull Song song) {
+        Integer old = documents.get(song.getMediaStoreId());
+        if (old != null)
+            unindex(old);
+        add(song, latest);
+        if (documentCount > 2 * documents.size() + REBUILD_SLACK)
+            compact();
+    }
+
+    /**
+     * Index a Song as a new document.
+     *
+     * @param song    The Song, not indexed yet.
+     * @param version The version adding it.
+     */
+    private void add(@NonNull Song song, long version) {
+        if (documentCount == songs.length) {
+            songs = Arrays.copyOf(songs, songs.length * 2);
+            trigramCounts = Arrays.copyOf(trigramCounts, songs.length);
+            addedIn = Arrays.copyOf(addedIn, songs.length);
+            removedIn = Arrays.copyOf(removedIn, songs.length);
+        }
+        int document = documentCount++;
+        long[] trigrams = trigramsOf(song);
+        songs[document] = song;
+        trigramCounts[document] = trigrams.length;
+        addedIn[document] = version;
+        removedIn[document] = Long.MAX_VALUE;
+        documents.put(song.getMediaStoreId(), document);
+        for (long trigram : trigrams) {
+            Posting posting = postings.get(trigram);
+            if (posting == null) {
+                posting = new Posting();
+                postings.put(trigram, posting);
+            }
+            posting.append(document);
+        }
+    }
+
+    /**
+     * @param songs Songs to add, or to replace the ones with the same id.
+     */
+    synchronized void putAll(@NonNull Collection<Song> songs) {
+        for (Song song : songs)
+            put(song);
+    }
+
+    /**
+     * @param id The MediaStore id of the Song to remove. Nothing happens if it is not indexed.
+     */
+    synchronized void remove(long id) {
+        Integer document = documents.remove(id);
+        if (document != null)
+            unindex(document);
+    }
+
+    /**
+     * Apply the changes of a library update, in O(total length of their text), keeping the
+     * Songs of the previous versions for their queries.
+     *
+     * @param changed Songs that were added or modified.
+     * @param removed Songs that were removed, by id.
+     * @param version The version the changes lead to, greater than any before.
+     * @return The index for this version and the next ones: this index, or a new one holding only
+     * the Songs of this version if most documents were out of date.
+     */
+    @NonNull
+    synchronized TrigramIndex update(@NonNull Collection<Song> changed,
+                                     @NonNull Collection<Song> removed, long version) {
+        for (Song song : removed)
+            retire(song.getMediaStoreId(), version);
+        for (Song song : changed) {
+            retire(song.getMediaStoreId(), version);
+            add(song, version);
+        }
+        latest = version;
+        if (documentCount <= 2 * documents.size() + REBUILD_SLACK)
+            return this;
+        List<Song> live = new ArrayList<>(documents.size());
+        for (int i = 0; i < documentCount; i++)
+            if (removedIn[i] == Long.MAX_VALUE)
+                live.add(songs[i]);
+        TrigramIndex index = build(live);
+        index.latest = version;
+        return index;
+    }
+
+    /**
+     * Mark the document of a Song as out of date, leaving it in the posting lists.
+     *
+     * @param id      The MediaStore id of the Song. Nothing happens if it is not indexed.
+     * @param version The version replacing or removing it.
+     */
+    private void retire(long id, long version) {
+        Integer document = documents.remove(id);
+        if (document != null)
+            removedIn[document] = version;
+    }
+
+    /**
+     * @param document A document number.
+     * @param version  A version.
+     * @return Whether the document holds a Song of the version.
+     */
+    private boolean inVersion(int document, long version) {
+        return addedIn[document] <= version && version < removedIn[document];
+    }
+
+    /**
+     * @param foldedQuery A query, already folded.
+     * @return The candidates in the latest version, see {@link #candidates(String, long)}.
+     */
+    @Nullable
+    synchronized long[] candidates(@NonNull String foldedQuery) {
+        return candidates(foldedQuery, latest);
+    }
+
+    /**
+     * The candidates are a superset of the Songs matching the query, and should be checked.
+     *
+     * @param foldedQuery A query, already folded.
+     * @param version     The version to search, the candidates are its Songs.
+     * @return The MediaStore ids of the Songs containing every trigram of the query, in no
+     * particular order. Null if the query is too short to use the index.
+     */
+    @Nullable
+    synchronized long[] candidates(@NonNull String foldedQuery, long version) {
+        if (foldedQuery.length() < MIN_QUERY_LENGTH)
+            return null;
+        long[] trigrams = distinct(trigrams(foldedQuery, new long[0], 0),
+                foldedQuery.length() - MIN_QUERY_LENGTH + 1);
+        Posting[] lists = new Posting[trigrams.length];
+        for (int i = 0; i < trigrams.length; i++) {
+            lists[i] = postings.get(trigrams[i]);
+            if (lists[i] == null)
+                return new long[0];
+        }
+        // Start from the shortest list, so that the intersection is small from the start.
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+        int[] result = Arrays.copyOf(lists[0].documents, lists[0].size);
+        int size = result.length;
+        for (int i = 1; i < lists.length && size > 0; i++) {
+            int kept = 0;
+            for (int j = 0; j < size; j++)
+                if (Arrays.binarySearch(lists[i].documents, 0, lists[i].size, result[j]) >= 0)
+                    result[kept++] = result[j];
+            size = kept;
+        }
+        long[] ids = new long[size];
+        int count = 0;
+        for (int i = 0; i < size; i++)
+            if (inVersion(result[i], version))
+                ids[count++] = songs[result[i]].getMediaStoreId();
+        return (count == size) ? ids : Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Rank Songs by how many trigrams of the query's words they contain, edges included. Each
+     * Song in the posting lists of those trigrams is counted, in time proportional to the length
+     * of the lists, and the best ones are kept in a min-heap of at most {@code limit} entries,
+     * instead of sorting them all. Songs containing the same number of trigrams are ranked by
+     * how few trigrams they have in total, so that tighter matches come first.
+     *
+     * @param foldedQuery A query, already folded.
+     * @param limit       The maximum number of hits.
+     * @param version     The version to search, only its Songs are hits.
+     * @param members     Only Songs in this PlayList are hits, with the PlayList's version of
+     *                    them. Null to accept every Song of the version.
+     * @return The hits, best first. Songs containing less than a third of the query's trigrams
+     * are never hits.
+     */
+    @NonNull
+    synchronized List<SearchHit> similar(@NonNull String foldedQuery, int limit, long version,
+                                         @Nullable PlayList members) {
+        long[] trigrams = queryTrigrams(foldedQuery);
+        if (trigrams.length == 0 || limit <= 0)
+            return Collections.emptyList();
+        if (shared.length < documentCount)
+            shared = new int[songs.length];
+        // Count the shared trigrams, remembering which documents were touched.
+        int[] touched = new int[64];
+        int touchedCount = 0;
+        for (long trigram : trigrams) {
+            Posting posting = postings.get(trigram);
+            if (posting == null)
+                continue;
+            for (int i = 0; i < posting.size; i++) {
+                int document = posting.documents[i];
+                if (shared[document]++ == 0) {
+                    if (touchedCount == touched.length)
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    touched[touchedCount++] = document;
+                }
+            }
+        }
+
+        if (touchedCount == 0)
+            return Collections.emptyList();
+
+        // Each key packs the shared count, the inverted trigram count and the document, so that
+        // comparing keys ranks the documents.
+        int minShared = Math.max(1, (int) Math.ceil(trigrams.length * MIN_SIMILARITY));
+        long[] heap = new long[Math.min(limit, touchedCount)];
+        int heapSize = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            int document = touched[i];
+            int count = shared[document];
+            shared[document] = 0;
+            if (count < minShared || !inVersion(document, version))
+                continue;
+            long key = ((long) count << 48) |
+                    ((long) (0xFFFF - Math.min(trigramCounts[document], 0xFFFF)) << 32) |
+                    (0xFFFFFFFFL - document);
+            if (heapSize == heap.length && key <= heap[0])
+                continue;
+            if (members != null && members.getById(songs[document].getMediaStoreId()) == null)
+                continue;
+            if (heapSize < heap.length)
+                siftUp(heap, heapSize++, key);
+            else
+                siftDown(heap, heapSize, key);
+        }
+
+        // Pop the worst first, filling the result backwards. The words of the query that appear
+        // as they are in a Song are its matches.
+        String[] words = foldedQuery.trim().split(" +");
+        SearchHit[] hits = new SearchHit[heapSize];
+        while (heapSize > 0) {
+            long key = heap[0];
+            heapSize--;
+            if (heapSize > 0)
+                siftDown(heap, heapSize, heap[heapSize]);
+            Song song = songs[(int) (0xFFFFFFFFL - (key & 0xFFFFFFFFL))];
+            if (members != null)
+                song = members.getById(song.getMediaStoreId());
+            hits[heapSize] = SearchHit.of(song, (float) (key >>> 48) / trigrams.length, words);
+        }
+        return Arrays.asList(hits);
+    }
+
+    /**
+     * Add a key to a min-heap.
+     *
+     * @param heap The heap.
+     * @param size The size of the heap, before adding.
+     * @param key  The key.
+     */
+    private static void siftUp(@NonNull long[] heap, int size, long key) {
+        int index = size;
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (heap[parent] <= key)
+                break;
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = key;
+    }
+
+    /**
+     * Replace the smallest key of a min-heap.
+     *
+     * @param heap The heap.
+     * @param size The size of the heap.
+     * @param key  The new key.
+     */
+    private static void siftDown(@NonNull long[] heap, int size, long key) {
+        int index = 0;
+        while (2 * index + 1 < size) {
+            int child = 2 * index + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child])
+                child++;
+            if (key <= heap[child])
+                break;
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = key;
+    }
+
+    /**
+     * @param foldedQuery A folded query.
+     * @return The distinct trigrams of the words of the query, each with a space before and after
+     * it.
+     */
+    @NonNull
+    private static long[] queryTrigrams(@NonNull String foldedQuery) {
+        long[] trigrams = new long[0];
+        int count = 0;
+        for (String word : foldedQuery.split(" ")) {
+            if (word.isEmpty())
+                continue;
+            String padded = " " + word + " ";
+            trigrams = trigrams(padded, trigrams, count);
+            count += padded.length() - MIN_QUERY_LENGTH + 1;
+        }
+        return distinct(trigrams, count);
+    }
+
+    /**
+     * Remove a document from the posting lists of its trigrams.
+     *
+     * @param document The document number.
+     */
+    private void unindex(int document) {
+        for (long trigram : trigramsOf(songs[document])) {
+            Posting posting = postings.get(trigram);
+            posting.remove(document);
+            if (posting.size == 0)
+                postings.remove(trigram);
+        }
+        songs[document] = null;
+    }
+
+    /**
+     * Number the live Songs again from 0.
+     */
+    private void compact() {
+        Song[] live = new Song[documents.size()];
+        int count = 0;
+        for (int i = 0; i < documentCount; i++)
+            if (songs[i] != null && removedIn[i] == Long.MAX_VALUE)
+                live[count++] = songs[i];
+        postings.clear();
+        documents.clear();
+        songs = new Song[Math.max(16, count)];
+        trigramCounts = new int[songs.length];
+        addedIn = new long[songs.length];
+        removedIn = new long[songs.length];
+        shared = new int[0];
+        documentCount = 0;
+        for (Song song : live)
+            put(song);
+    }
+
+    /**
+     * @param song A Song.
+     * @return The distinct trigrams of the Song's title, artist and album, each with a space
+     * before and after it, sorted.
+     */
+    @NonNull
+    private static long[] trigramsOf(@NonNull Song song) {
+        long[] trigrams = new long[0];
+        int count = 0;
+        for (String key : new String[]{song.getTitleKey(), song.getArtistKey(),
+                song.getAlbumKey()}) {
+            String folded = " " + key + " ";
+            int length = count + Math.max(0, folded.length() - MIN_QUERY_LENGTH + 1);
+            trigrams = trigrams(folded, Arrays.copyOf(trigrams, length), count);
+            count = length;
+        }
+        return distinct(trigrams, count);
+    }
+
+    /**
+     * @param text   Some folded text.
+     * @param buffer The buffer to write to, with enough room after the offset.
+     * @param offset Where to start writing.
+     * @return The buffer, or a new one if it was empty, with the trigrams of the text.
+     */
+    @NonNull
+    private static long[] trigrams(@NonNull String text, @NonNull long[] buffer, int offset) {
+        int count = Math.max(0, text.length() - MIN_QUERY_LENGTH + 1);
+        if (buffer.length < offset + count)
+            buffer = Arrays.copyOf(buffer, offset + count);
+        for (int i = 0; i < count; i++)
+            buffer[offset + i] = ((long) text.charAt(i) << 32) |
+                    ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+        return buffer;
+    }
+
+    /**
+     * @param trigrams Some trigrams, sorted in place.
+     * @param count    How many of them to consider.
+     * @return The distinct ones.
+     */
+    @NonNull
+    private static long[] distinct(@NonNull long[] trigrams, int count) {
+        Arrays.sort(trigrams, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++)
+            if (distinct == 0 || trigrams[distinct - 1] != trigrams[i])
+                trigrams[distinct++] = trigrams[i];
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+    /**
+     * Sorted list of document numbers.
+     */
+    private static final class Posting {
+        private int[] documents = new int[4];
+        private int size = 0;
+
+        /**
+         * @param document A document number, greater than every one in the list.
+         */
+        void append(int document) {
+            if (size == documents.length)
+                documents = Arrays.copyOf(documents, size * 2);
+            documents[size++] = document;
+        }
+
+        /**
+         * @param document A document number in the list.
+         */
+        void remove(int document) {
+            int index = Arrays.binarySearch(documents, 0, size, document);
+            if (index < 0)
+                return;
+            System.arraycopy(documents, index + 1, documents, index, size - index - 1);
+            size--;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * PlayList created by the user, saving every edit to a {@link PlayListStore}. Edits are saved by
+ * Song id, with the id of the following Song as the position, so that the saved playlist stays
+ * consistent even when some of its Songs are missing from the library and were not loaded.
+ *
+ * @author Riccardo De Zen.
+ */
+public class UserPlayList extends PlayList {
+
+    private final PlayListStore store;
+    private final long id;
+
+    /**
+     * @param store The store the PlayList is saved in.
+     * @param id    The id of the PlayList in the store.
+     * @param songs The Songs, in order.
+     */
+    UserPlayList(@NonNull PlayListStore store, long id, @NonNull List<Song> songs) {
+        super(songs);
+        this.store = store;
+        this.id = id;
+    }
+
+    /**
+     * @return The id of this PlayList in the store.
+     */
+    public long getPlayListId() {
+        return id;
+    }
+
+    /**
+     * @return The name of this PlayList, or null if it has been deleted.
+     */
+    @Nullable
+    public String getName() {
+        return store.getName(id);
+    }
+
+    /**
+     * @see PlayList#add(int, Song)
+     */
+    @Override
+    public synchronized boolean add(int index, @NonNull Song song) {
+        boolean sorted = getSortOrder() != null;
+        if (!super.add(index, song))
+            return false;
+        if (sorted)
+            saveOrder();
+        else
+            store.add(id, song.getMediaStoreId(), idAt(index + 1));
+        return true;
+    }
+
+    /**
+     * @see PlayList#remove(String)
+     */
+    @Nullable
+    @Override
+    public synchronized Song remove(@NonNull String songId) {
+        boolean sorted = getSortOrder() != null;
+        Song removed = super.remove(songId);
+        if (removed != null)
+            saveRemoval(removed, sorted);
+        return removed;
+    }
+
+    /**
+     * @see PlayList#remove(int)
+     */
+    @NonNull
+    @Override
+    public synchronized Song remove(int index) {
+        boolean sorted = getSortOrder() != null;
+        Song removed = super.remove(index);
+        saveRemoval(removed, sorted);
+        return removed;
+    }
+
+    /**
+     * @see PlayList#move(int, int)
+     */
+    @Override
+    public synchronized void move(int from, int to) {
+        boolean sorted = getSortOrder() != null;
+        super.move(from, to);
+        if (sorted)
+            saveOrder();
+        else
+            store.move(id, get(to).getMediaStoreId(), idAt(to + 1));
+    }
+
+    /**
+     * @see PlayList#clear()
+     */
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        store.clear(id);
+    }
+
+    /**
+     * @param removed   The removed Song.
+     * @param wasSorted Whether the PlayList was sorted before the removal.
+     */
+    private void saveRemoval(@NonNull Song removed, boolean wasSorted) {
+        store.remove(id, removed.getMediaStoreId());
+        if (wasSorted)
+            saveOrder();
+    }
+
+    /**
+     * @param index A position, possibly past the end.
+     * @return The id of the Song at the position, or 0 if there is none.
+     */
+    private long idAt(int index) {
+        return (index < size()) ? get(index).getMediaStoreId() : 0;
+    }
+
+    /**
+     * Save the whole order. Editing a sorted PlayList makes the sorted order the saved one, which
+     * single moves can not express. Saved Songs missing from the library are kept at the end.
+     */
+    private void saveOrder() {
+        long[] saved = store.getSongIds(id);
+        if (saved == null)
+            return;
+        List<Song> songs = getSongs();
+        long[] songIds = new long[songs.size() + saved.length];
+        int count = 0;
+        for (Song song : songs)
+            songIds[count++] = song.getMediaStoreId();
+        for (long savedId : saved)
+            if (indexOf(savedId) == -1)
+                songIds[count++] = savedId;
+        store.set(id, Arrays.copyOf(songIds, count));
+    }
+}
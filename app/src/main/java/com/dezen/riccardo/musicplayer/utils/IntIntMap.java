@@ -0,0 +1,164 @@
+package com.dezen.riccardo.musicplayer.utils;
+
+/**
+ * Map from primitive int keys to primitive int values, using open addressing with linear probing,
+ * like {@link LongObjectMap}. Nothing is boxed, and lookups of missing keys return a default value
+ * chosen by the caller, so maps holding only the entries which differ from a default stay small.
+ * <p>
+ * The key 0 marks empty slots, so it is stored aside. Not thread safe.
+ *
+ * @author Riccardo De Zen.
+ */
+public class IntIntMap {
+
+    private static final int MIN_CAPACITY = 8;
+    // Multiplier spreading the keys over the table, 2^32 divided by the golden ratio.
+    private static final int SPREAD = 0x9E3779B9;
+
+    private int[] keys;
+    private int[] values;
+    private int shift;
+    private int size = 0;
+    // Entry for the key 0, which cannot be stored in the table.
+    private boolean hasZero = false;
+    private int zeroValue;
+
+    /**
+     * Empty map.
+     */
+    public IntIntMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * @param key          Any key.
+     * @param defaultValue The value to return if the key is not in the map.
+     * @return The value for the key, or {@code defaultValue} if there is none.
+     */
+    public int get(int key, int defaultValue) {
+        if (key == 0)
+            return hasZero ? zeroValue : defaultValue;
+        int mask = keys.length - 1;
+        for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask)
+            if (keys[slot] == key)
+                return values[slot];
+        return defaultValue;
+    }
+
+    /**
+     * @param key   The key.
+     * @param value The value.
+     */
+    public void put(int key, int value) {
+        if (key == 0) {
+            if (!hasZero)
+                size++;
+            hasZero = true;
+            zeroValue = value;
+            return;
+        }
+        int mask = keys.length - 1;
+        int slot = slot(key);
+        for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        // Keep the table at most two thirds full, so probe sequences stay short.
+        if (++size * 3 > keys.length * 2)
+            rehash(keys.length * 2);
+    }
+
+    /**
+     * @param key The key to remove, nothing happens if it is not in the map.
+     */
+    public void remove(int key) {
+        if (key == 0) {
+            if (hasZero)
+                size--;
+            hasZero = false;
+            return;
+        }
+        int mask = keys.length - 1;
+        for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                shiftBack(slot);
+                size--;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove every entry, shrinking the table back to its minimum size.
+     */
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        hasZero = false;
+        size = 0;
+    }
+
+    /**
+     * Close the gap left by a removed entry, see {@link LongObjectMap}.
+     *
+     * @param gap The slot of the removed entry.
+     */
+    private void shiftBack(int gap) {
+        int mask = keys.length - 1;
+        for (int slot = (gap + 1) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+            int distance = (slot - slot(keys[slot])) & mask;
+            if (distance >= ((slot - gap) & mask)) {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        keys[gap] = 0;
+    }
+
+    /**
+     * @param capacity The new table size, a power of two.
+     */
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0)
+                continue;
+            int slot = slot(oldKeys[i]);
+            while (keys[slot] != 0)
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    /**
+     * @param capacity The table size, a power of two.
+     */
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    /**
+     * @param key A non zero key.
+     * @return The home slot of the key.
+     */
+    private int slot(int key) {
+        return (key * SPREAD) >>> shift;
+    }
+}
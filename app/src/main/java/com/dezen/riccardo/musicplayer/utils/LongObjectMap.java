@@ -0,0 +1,235 @@
+package com.dezen.riccardo.musicplayer.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Map from primitive long keys to Objects, using open addressing with linear probing. Keys are
+ * never boxed, and each entry only takes one slot in two parallel arrays, instead of an entry
+ * Object, a boxed key and possibly a String as in a {@link java.util.HashMap}.
+ * <p>
+ * The key 0 marks empty slots, so it is stored aside. Removal shifts the following entries back
+ * instead of leaving tombstones, so lookups never slow down after many removals. Null values are
+ * not allowed. Not thread safe.
+ *
+ * @author Riccardo De Zen.
+ */
+public class LongObjectMap<V> {
+
+    private static final int MIN_CAPACITY = 8;
+    // Multiplier spreading the keys over the table, 2^64 divided by the golden ratio.
+    private static final long SPREAD = 0x9E3779B97F4A7C15L;
+
+    private long[] keys;
+    private Object[] values;
+    private int shift;
+    private int size = 0;
+    // Value for the key 0, which cannot be stored in the table.
+    private V zeroValue;
+
+    /**
+     * Empty map.
+     */
+    public LongObjectMap() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize The number of entries the map should hold without growing.
+     */
+    public LongObjectMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * @param key Any key.
+     * @return The value for the key, or null if there is none.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (key == 0)
+            return zeroValue;
+        int mask = keys.length - 1;
+        for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask)
+            if (keys[slot] == key)
+                return (V) values[slot];
+        return null;
+    }
+
+    /**
+     * @param key Any key.
+     * @return True if the map contains the key.
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @param key   The key.
+     * @param value The value, not null.
+     * @return The previous value for the key, or null if there was none.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V put(long key, @NonNull V value) {
+        if (key == 0) {
+            V previous = zeroValue;
+            zeroValue = value;
+            if (previous == null)
+                size++;
+            return previous;
+        }
+        int mask = keys.length - 1;
+        int slot = slot(key);
+        for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        // Keep the table at most two thirds full, so probe sequences stay short.
+        if (++size * 3 > keys.length * 2)
+            rehash(keys.length * 2);
+        return null;
+    }
+
+    /**
+     * @param key The key to remove.
+     * @return The value the key had, or null if it was not in the map.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        if (key == 0) {
+            V previous = zeroValue;
+            zeroValue = null;
+            if (previous != null)
+                size--;
+            return previous;
+        }
+        int mask = keys.length - 1;
+        int slot = slot(key);
+        for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                shiftBack(slot);
+                size--;
+                return previous;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return True if the map has no entries.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove every entry, keeping the allocated table.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, null);
+        zeroValue = null;
+        size = 0;
+    }
+
+    /**
+     * @return A new array containing the keys, in no particular order.
+     */
+    @NonNull
+    public long[] keys() {
+        long[] result = new long[size];
+        int count = 0;
+        if (zeroValue != null)
+            result[count++] = 0;
+        for (long key : keys)
+            if (key != 0)
+                result[count++] = key;
+        return result;
+    }
+
+    /**
+     * Close the gap left by a removed entry, moving back the following entries of its probe
+     * sequence which may not be found otherwise.
+     *
+     * @param gap The slot of the removed entry.
+     */
+    private void shiftBack(int gap) {
+        int mask = keys.length - 1;
+        for (int slot = (gap + 1) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+            // The entry can fill the gap only if the gap is between its home slot and its slot.
+            int distance = (slot - slot(keys[slot])) & mask;
+            if (distance >= ((slot - gap) & mask)) {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        keys[gap] = 0;
+        values[gap] = null;
+    }
+
+    /**
+     * @param capacity The new table size, a power of two.
+     */
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0)
+                continue;
+            int slot = slot(oldKeys[i]);
+            while (keys[slot] != 0)
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    /**
+     * @param capacity The table size, a power of two.
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    /**
+     * @param key A non zero key.
+     * @return The home slot of the key. The high bits of the product are the best mixed.
+     */
+    private int slot(long key) {
+        return (int) ((key * SPREAD) >>> shift);
+    }
+
+    /**
+     * @param expectedSize A number of entries.
+     * @return The smallest power of two table holding the entries at most two thirds full.
+     */
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while ((long) expectedSize * 3 > (long) capacity * 2)
+            capacity <<= 1;
+        return capacity;
+    }
+}
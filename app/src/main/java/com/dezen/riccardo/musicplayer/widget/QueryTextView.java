@@ -11,11 +11,18 @@ import androidx.annotation.Nullable;
 
 import com.dezen.riccardo.musicplayer.R;
 
+import java.util.Arrays;
+
 /**
  * This TextView always contains a SpannableString. Contains some utility methods to add or remove
  * spans corresponding to occurrences of a substring. If you set a SpannableString as the text for
  * this Widget, its spans will be reset when executing one of the methods.
  * <p>
+ * Matches already found by a search, such as the ones of a
+ * {@link com.dezen.riccardo.musicplayer.song.SearchHit}, can be highlighted with
+ * {@link #setHighlightedText(CharSequence, int[])}, which does not look at the text and reuses
+ * its spans, so it can be called on every bind of a list item.
+ * <p>
  * XML attributes:
  * - spanColor: The color for the spans.
  */
@@ -24,6 +31,9 @@ public class QueryTextView extends androidx.appcompat.widget.AppCompatTextView {
     // TODO XML attribute
     private static final int spanColor = R.color.colorPrimary;
 
+    // Spans reused for every text, one per highlighted range.
+    private ForegroundColorSpan[] spans = new ForegroundColorSpan[0];
+
     public QueryTextView(@NonNull Context context) {
         super(context);
     }
@@ -53,12 +63,45 @@ public class QueryTextView extends androidx.appcompat.widget.AppCompatTextView {
         spannable.setSpan(
                 new ForegroundColorSpan(getResources().getColor(spanColor)),
                 start,
-                start + base.length(),
+                start + query.length(),
                 Spanned.SPAN_INCLUSIVE_EXCLUSIVE
         );
         setText(spannable);
     }
 
+    /**
+     * Set some text, highlighting some ranges of it. A span is only allocated the first time a
+     * text has that many ranges.
+     *
+     * @param text   The text.
+     * @param ranges Pairs of start (inclusive) and end (exclusive) offsets in the text. Null or
+     *               empty to highlight nothing.
+     */
+    public void setHighlightedText(@Nullable CharSequence text, @Nullable int[] ranges) {
+        if (text == null || ranges == null || ranges.length == 0) {
+            setText(text);
+            return;
+        }
+        int count = ranges.length / 2;
+        if (spans.length < count) {
+            int color = getResources().getColor(spanColor);
+            int old = spans.length;
+            spans = Arrays.copyOf(spans, count);
+            for (int i = old; i < count; i++)
+                spans[i] = new ForegroundColorSpan(color);
+        }
+
+        SpannableString spannable = new SpannableString(text);
+        for (int i = 0; i < count; i++) {
+            // Ranges from a different version of the text must not go past its end.
+            int start = Math.min(ranges[2 * i], text.length());
+            int end = Math.min(ranges[2 * i + 1], text.length());
+            if (start < end)
+                spannable.setSpan(spans[i], start, end, Spanned.SPAN_INCLUSIVE_EXCLUSIVE);
+        }
+        setText(spannable);
+    }
+
     /**
      * Reset any span this widget may have.
      */
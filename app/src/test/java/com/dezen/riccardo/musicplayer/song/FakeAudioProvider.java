@@ -0,0 +1,72 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.robolectric.Robolectric;
+
+/**
+ * ContentProvider standing in for the MediaStore in Robolectric tests. Every query returns a
+ * {@link SyntheticAudioCursor} with the configured number of rows, so the library can be loaded
+ * through the real {@link android.content.ContentResolver} path. Selections and sort orders are
+ * ignored, and the provider is read only.
+ */
+public class FakeAudioProvider extends ContentProvider {
+
+    private static volatile int rows = 0;
+    private static volatile long seed = 42;
+
+    /**
+     * Register the provider in place of the MediaStore.
+     *
+     * @param rowCount Number of rows the audio table should have.
+     * @param rowSeed  Seed for the values of the rows.
+     */
+    public static void install(int rowCount, long rowSeed) {
+        rows = rowCount;
+        seed = rowSeed;
+        Robolectric.setupContentProvider(FakeAudioProvider.class, MediaStore.AUTHORITY);
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        return new SyntheticAudioCursor(rows, seed, projection);
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        throw new UnsupportedOperationException("Read only provider");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read only provider");
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read only provider");
+    }
+}
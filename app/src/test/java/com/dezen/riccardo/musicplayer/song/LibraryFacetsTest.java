@@ -0,0 +1,131 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.dezen.riccardo.musicplayer.song.TestSongs.song;
+
+public class LibraryFacetsTest {
+
+    private static SongTags tags(long id, String genre, String albumArtist, int track) {
+        return new SongTags(id, 0, genre, albumArtist, track, 1, 0, 0, 0);
+    }
+
+    private static List<Long> ids(Facet facet) {
+        List<Long> ids = new ArrayList<>();
+        for (Song song : facet.getSongs())
+            ids.add(song.getMediaStoreId());
+        return ids;
+    }
+
+    private static List<String> names(List<Facet> facets) {
+        List<String> names = new ArrayList<>();
+        for (Facet facet : facets)
+            names.add(facet.getName());
+        return names;
+    }
+
+    @Test
+    public void testBuild() {
+        List<Song> songs = Arrays.asList(
+                song(1, "Come Together", "Abbey Road", "The Beatles"),
+                song(2, "Something", "Abbey Road", "The Beatles"),
+                song(3, "Help!", "Help!", "The Beatles"),
+                song(4, "Heroes", "Heroes", "David Bowie"),
+                song(5, "Untagged", "Abbey Road", "The Beatles")
+        );
+        Map<String, SongTags> tags = new HashMap<>();
+        tags.put("1", tags(1, "Rock", null, 1));
+        tags.put("2", tags(2, "Rock", null, 2));
+        tags.put("3", tags(3, "Pop", null, 1));
+        tags.put("4", tags(4, "ROCK", null, 1));
+        LibraryFacets facets = LibraryFacets.build(songs, tags);
+        TestCase.assertEquals(5, facets.size());
+
+        Facet abbeyRoad = facets.getAlbumOf(2);
+        TestCase.assertEquals("Abbey Road", abbeyRoad.getName());
+        // Tracks without a number go last.
+        TestCase.assertEquals(Arrays.asList(1L, 2L, 5L), ids(abbeyRoad));
+        TestCase.assertEquals(3, abbeyRoad.getTrackCount());
+        TestCase.assertEquals(8000, abbeyRoad.getDuration());
+
+        Facet beatles = facets.getArtist("the beatles");
+        TestCase.assertEquals(4, beatles.getTrackCount());
+        TestCase.assertEquals(11000, beatles.getDuration());
+        TestCase.assertEquals(Arrays.asList("Abbey Road", "Help!"), names(beatles.getChildren()));
+        TestCase.assertEquals(Arrays.asList(1L, 2L, 5L, 3L), ids(beatles));
+        TestCase.assertSame(beatles, facets.getArtistOf(3));
+
+        TestCase.assertEquals(Arrays.asList("David Bowie", "The Beatles"),
+                names(facets.getArtists()));
+        TestCase.assertEquals(Arrays.asList("Pop", "Rock"), names(facets.getGenres()));
+        // Genres differing only in case are the same, tracks are by title.
+        TestCase.assertEquals(Arrays.asList(1L, 4L, 2L), ids(facets.getGenre("rock")));
+        TestCase.assertNull(facets.getGenre("jazz"));
+    }
+
+    @Test
+    public void testAlbumArtist() {
+        List<Song> songs = Arrays.asList(
+                song(1, "One", "Greatest Hits", "Queen"),
+                song(2, "Two", "Greatest Hits", "ABBA"),
+                song(3, "Three", "Now 1", "Blur"),
+                song(4, "Four", "Now 1", "Oasis")
+        );
+        Map<String, SongTags> tags = new HashMap<>();
+        tags.put("3", tags(3, null, "Various Artists", 2));
+        tags.put("4", tags(4, null, "Various Artists", 1));
+        LibraryFacets facets = LibraryFacets.build(songs, tags);
+        // Albums with the same name by different artists are not merged, compilations are.
+        TestCase.assertEquals(Arrays.asList("Greatest Hits", "Greatest Hits", "Now 1"),
+                names(facets.getAlbums()));
+        TestCase.assertEquals(Arrays.asList(4L, 3L), ids(facets.getAlbumOf(3)));
+        TestCase.assertEquals(Collections.singletonList(3L), ids(facets.getArtist("Blur")));
+    }
+
+    @Test
+    public void testUpdate() {
+        List<Song> songs = new ArrayList<>();
+        for (long id = 1; id <= 6; id++)
+            songs.add(song(id, "title " + id, "album " + (id % 3), "artist " + (id % 3)));
+        LibraryFacets facets = LibraryFacets.build(songs, null);
+        Facet untouched = facets.getAlbumOf(3);
+        TestCase.assertEquals(Arrays.asList(3L, 6L), ids(untouched));
+
+        // 1 moves to another album, 2 is removed, 7 is added.
+        Song moved = song(1, "title 1", "album 2", "artist 2");
+        Song added = song(7, "title 7", "album 1", "artist 1");
+        facets.update(Arrays.asList(moved, added), Collections.singletonList(songs.get(1)), null);
+        TestCase.assertEquals(6, facets.size());
+        TestCase.assertEquals(Arrays.asList(1L, 5L), ids(facets.getAlbumOf(1)));
+        TestCase.assertEquals(Arrays.asList(4L, 7L), ids(facets.getArtist("artist 1")));
+        TestCase.assertEquals(Arrays.asList(1L, 5L), ids(facets.getArtist("artist 2")));
+        // Groups with no changes are not published again.
+        TestCase.assertSame(untouched, facets.getAlbumOf(3));
+
+        // Tags being read move the Songs in track order, and into genres.
+        Map<String, SongTags> tags = new HashMap<>();
+        tags.put("4", tags(4, "Jazz", null, 2));
+        tags.put("7", tags(7, "Jazz", null, 1));
+        tags.put("1", tags(1, "Jazz", null, 1));
+        facets.update(Arrays.asList(songs.get(3), added, moved), Collections.<Song>emptyList(),
+                tags);
+        TestCase.assertEquals(Arrays.asList(7L, 4L), ids(facets.getAlbumOf(4)));
+        TestCase.assertEquals(Arrays.asList(1L, 4L, 7L), ids(facets.getGenre("jazz")));
+
+        // Emptied groups disappear.
+        facets.update(Collections.<Song>emptyList(), Arrays.asList(moved, songs.get(4)), tags);
+        TestCase.assertNull(facets.getAlbumOf(5));
+        TestCase.assertNull(facets.getArtist("artist 2"));
+        TestCase.assertEquals(Arrays.asList("album 0", "album 1"), names(facets.getAlbums()));
+        TestCase.assertEquals(Arrays.asList(4L, 7L), ids(facets.getGenre("jazz")));
+    }
+}
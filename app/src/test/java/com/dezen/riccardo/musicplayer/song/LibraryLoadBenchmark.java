@@ -0,0 +1,280 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaMetadataCompat;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import junit.framework.TestCase;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.InitializationError;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.internal.bytecode.InstrumentationConfiguration;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Measures the whole library loading path, from the ContentResolver cursor to the
+ * {@link SongManager.LibraryObserver}s, on synthetic libraries served by
+ * {@link FakeAudioProvider}. For each size, the time until observers are notified, the number
+ * and bytes of the allocations made on the way by the loading and observer threads, and the heap
+ * retained by the loaded library are printed, along with the heap taken by Songs held in a
+ * {@link SongStore} compared to Songs holding their own metadata. Saving the snapshot and reading
+ * the tags come after the observers are notified, and are left out.
+ * <p>
+ * Allocations are counted from JFR events, which cover every allocation only when TLABs are off,
+ * so times are comparable between runs of the benchmark, not with a normal JVM. The benchmarks
+ * only run when sizes are given in the "benchmark.sizes" system property, set through the
+ * "benchmarkSizes" Gradle property, which also turns TLABs off:
+ * {@code ./gradlew test -PbenchmarkSizes=10000,100000,1000000}.
+ */
+@RunWith(LibraryLoadBenchmark.Runner.class)
+@Config(sdk = 28)
+public class LibraryLoadBenchmark {
+
+    private static final long SEED = 42;
+    // Sent for each allocation that does not go through a TLAB, that is every one with TLABs off.
+    private static final String ALLOCATION_EVENT = "jdk.ObjectAllocationOutsideTLAB";
+
+    @Test
+    public void testFixtureIsDeterministic() {
+        Cursor first = new SyntheticAudioCursor(1000, SEED, SongColumns.PROJECTION);
+        Cursor second = new SyntheticAudioCursor(1000, SEED, SongColumns.PROJECTION);
+        TestCase.assertEquals(1000, first.getCount());
+        while (first.moveToNext() && second.moveToNext())
+            for (int column = 0; column < SongColumns.PROJECTION.length; column++)
+                TestCase.assertEquals(first.getString(column), second.getString(column));
+    }
+
+    @Test
+    public void benchmarkLibraryLoad() throws InterruptedException, IOException {
+        List<Integer> sizes = getSizes();
+        TestCase.assertEquals("Allocations are only counted with TLABs off", "false",
+                ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class)
+                        .getVMOption("UseTLAB").getValue());
+        Context context = ApplicationProvider.getApplicationContext();
+        SongManager manager = SongManager.getInstance(context);
+        final Window window = new Window();
+        // Observers are notified on a background thread.
+        final BlockingQueue<PlayList> delivered = new LinkedBlockingQueue<>();
+        manager.observeLibrary((newLibrary, diff) -> {
+            window.notifiedAt = System.nanoTime();
+            window.observerThread = Thread.currentThread().getId();
+            delivered.add(newLibrary);
+        });
+        // Called on the loading thread once the library is published, before the snapshot is
+        // saved and the tags are read: the measured path ends when the observers are notified.
+        manager.observePlayList(playList -> {
+            Recording recording = window.recording;
+            if (recording == null || recording.getState() != RecordingState.RUNNING ||
+                    playList.size() != window.size)
+                return;
+            try {
+                awaitLibrary(delivered, window.size);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            recording.stop();
+            window.retained = usedHeap() - window.heapBefore;
+        });
+
+        System.out.println("rows\ttime to observers (ms)\tallocations\tallocated (MB)" +
+                "\tretained heap (MB)");
+        for (int size : sizes) {
+            FakeAudioProvider.install(size, SEED);
+            // Start from an empty library, so that the previous one is not counted.
+            manager.onLoaded(Collections.emptyList());
+            awaitLibrary(delivered, 0);
+            window.size = size;
+            window.heapBefore = usedHeap();
+            window.recording = new Recording();
+            window.recording.enable(ALLOCATION_EVENT).withoutStackTrace();
+            window.recording.start();
+
+            long start = System.nanoTime();
+            Cursor cursor = context.getContentResolver().query(
+                    MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                    SongColumns.PROJECTION,
+                    null,
+                    null,
+                    null
+            );
+            TestCase.assertNotNull(cursor);
+            new SongLoadTask(cursor, new StringTable(), manager).load();
+            // Partial libraries may be published while streaming, the full one stops the window.
+            TestCase.assertEquals(RecordingState.STOPPED, window.recording.getState());
+            long elapsed = window.notifiedAt - start;
+
+            long allocations = 0;
+            long allocated = 0;
+            Path dump = Files.createTempFile("allocations", ".jfr");
+            try {
+                window.recording.dump(dump);
+                long loadingThread = Thread.currentThread().getId();
+                for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+                    long thread = event.getThread().getJavaThreadId();
+                    if (thread == loadingThread || thread == window.observerThread) {
+                        allocations++;
+                        allocated += event.getLong("allocationSize");
+                    }
+                }
+            } finally {
+                window.recording.close();
+                window.recording = null;
+                Files.delete(dump);
+            }
+
+            System.out.println(String.format("%d\t%d\t%d\t%.1f\t%.1f", size,
+                    elapsed / 1_000_000, allocations, allocated / 1e6, window.retained / 1e6));
+        }
+    }
+
+    @Test
+    public void benchmarkSongHeap() {
+        List<Integer> sizes = getSizes();
+        System.out.println("rows\teager Songs (MB)\tstored Songs (MB)\tunique strings");
+        for (int size : sizes) {
+            Cursor cursor = new SyntheticAudioCursor(size, SEED, SongColumns.PROJECTION);
+            long heapBefore = usedHeap();
+            List<Object> eager = loadEager(cursor);
+            long eagerBytes = usedHeap() - heapBefore;
+            TestCase.assertEquals(size, eager.size());
+            eager = null;
+
+            cursor.moveToPosition(-1);
+            heapBefore = usedHeap();
+            SongStore store = new SongStore(size);
+            List<Song> stored = new ArrayList<>(size);
+            while (cursor.moveToNext())
+                stored.add(store.add(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                        cursor.getString(3), cursor.getLong(4), cursor.getLong(5),
+                        cursor.getLong(6)));
+            long storedBytes = usedHeap() - heapBefore;
+            TestCase.assertEquals(size, stored.size());
+
+            System.out.println(String.format("%d\t%.1f\t%.1f\t%d", size, eagerBytes / 1e6,
+                    storedBytes / 1e6, store.uniqueStrings()));
+        }
+    }
+
+    /**
+     * Build what every Song used to hold: its own Strings, its metadata, a MediaItem with a copy
+     * of the description, and a parsed Uri.
+     *
+     * @param cursor A cursor with the {@link SongColumns#PROJECTION} columns.
+     * @return One array of Objects per row.
+     */
+    private static List<Object> loadEager(Cursor cursor) {
+        List<Object> songs = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            String id = cursor.getString(0);
+            Uri uri = Uri.withAppendedPath(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, id);
+            MediaMetadataCompat metadata = new MediaMetadataCompat.Builder()
+                    .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, id)
+                    .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI, uri.toString())
+                    .putString(MediaMetadataCompat.METADATA_KEY_TITLE, cursor.getString(1))
+                    .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, cursor.getString(2))
+                    .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, cursor.getString(3))
+                    .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, cursor.getLong(4))
+                    .build();
+            MediaBrowserCompat.MediaItem item = new MediaBrowserCompat.MediaItem(
+                    metadata.getDescription(), MediaBrowserCompat.MediaItem.FLAG_PLAYABLE);
+            songs.add(new Object[]{metadata, item, uri, id, cursor.getString(1),
+                    cursor.getString(2), cursor.getString(3)});
+        }
+        return songs;
+    }
+
+    /**
+     * @return The library sizes to measure. The benchmark is skipped if none are given.
+     */
+    private static List<Integer> getSizes() {
+        String property = System.getProperty("benchmark.sizes");
+        Assume.assumeNotNull(property);
+        List<Integer> sizes = new ArrayList<>();
+        for (String size : property.split(","))
+            if (!size.trim().isEmpty())
+                sizes.add(Integer.parseInt(size.trim()));
+        return sizes;
+    }
+
+    /**
+     * Wait until a library of the given size is delivered, discarding the others.
+     */
+    private static void awaitLibrary(BlockingQueue<PlayList> delivered, int size)
+            throws InterruptedException {
+        while (true) {
+            PlayList library = delivered.poll(60, TimeUnit.SECONDS);
+            TestCase.assertNotNull(library);
+            if (library.size() == size)
+                return;
+        }
+    }
+
+    /**
+     * @return The used heap after collecting garbage, as well as the JVM allows.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * The measurement of one load, shared with the observers.
+     */
+    private static final class Window {
+        // The size of the library being loaded.
+        private volatile int size;
+        // Recording the allocations, stopped when the observers get the full library.
+        private volatile Recording recording;
+        private volatile long heapBefore;
+        private volatile long retained;
+        private volatile long notifiedAt;
+        private volatile long observerThread;
+    }
+
+    /**
+     * Robolectric runner leaving JFR to the system class loader, whose copy of it is the one
+     * bound to the JVM.
+     */
+    public static final class Runner extends RobolectricTestRunner {
+
+        public Runner(Class<?> testClass) throws InitializationError {
+            super(testClass);
+        }
+
+        @Override
+        protected InstrumentationConfiguration createClassLoaderConfig(FrameworkMethod method) {
+            return new InstrumentationConfiguration.Builder(super.createClassLoaderConfig(method))
+                    .doNotAcquirePackage("jdk.jfr.")
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.dezen.riccardo.musicplayer.song.TestSongs.song;
+
+public class LibraryVersionTest {
+
+    private static Song randomSong(long id, Random random) {
+        return song(id, "title " + random.nextInt(50), "album " + random.nextInt(10),
+                "artist " + random.nextInt(5), random.nextInt(1000), random.nextInt(100));
+    }
+
+    private static void assertSameOrders(Set<Song> expected, LibraryVersion version) {
+        PlayList reference = new PlayList(expected);
+        TestCase.assertEquals(expected.size(), version.size());
+        TestCase.assertEquals(reference.getSongs(), version.getSongs(null));
+        for (SortOrder order : SortOrder.values()) {
+            reference.setSortOrder(order);
+            List<Song> songs = version.getSongs(order);
+            TestCase.assertEquals(reference.getSongs(), songs);
+            for (int i = 0; i < songs.size(); i += 7) {
+                TestCase.assertEquals(songs.get(i), version.get(order, i));
+                TestCase.assertEquals(i, version.indexOf(order, songs.get(i).getMediaStoreId()));
+            }
+        }
+    }
+
+    @Test
+    public void testBuildMatchesSortIndex() {
+        Random random = new Random(5);
+        Set<Song> content = new HashSet<>();
+        for (long id = 1; id <= 300; id++)
+            content.add(randomSong(id, random));
+        assertSameOrders(content, LibraryVersion.build(content, 1));
+    }
+
+    @Test
+    public void testChangesKeepOldVersion() {
+        Random random = new Random(11);
+        Set<Song> content = new HashSet<>();
+        for (long id = 1; id <= 300; id++)
+            content.add(randomSong(id, random));
+        LibraryVersion first = LibraryVersion.build(content, 1);
+        List<Song> firstSongs = first.getSongs(SortOrder.ARTIST);
+
+        // Add some Songs, modify some, and drop some.
+        Set<Song> expected = new HashSet<>(content);
+        List<Song> changed = new ArrayList<>();
+        Set<String> currentIds = new HashSet<>();
+        for (long id = 1; id <= 350; id++) {
+            if (id % 10 == 0)
+                continue;
+            currentIds.add(String.valueOf(id));
+            if (id % 3 == 0 || id > 300)
+                changed.add(randomSong(id, random));
+        }
+        for (Song song : changed)
+            expected.remove(song);
+        expected.addAll(changed);
+        expected.removeIf(song -> !currentIds.contains(song.getId()));
+
+        LibraryVersion second = first.withChanges(changed, currentIds);
+        TestCase.assertEquals(2, second.getVersion());
+        assertSameOrders(expected, second);
+        // The old version did not change.
+        TestCase.assertEquals(firstSongs, first.getSongs(SortOrder.ARTIST));
+        TestCase.assertNotNull(first.get(10));
+        TestCase.assertNull(second.get(10));
+    }
+
+    @Test
+    public void testChangesWithoutRemovals() {
+        Random random = new Random(13);
+        LibraryVersion version = LibraryVersion.empty();
+        Set<Song> expected = new HashSet<>();
+        for (int batch = 0; batch < 10; batch++) {
+            List<Song> songs = new ArrayList<>();
+            for (int i = 0; i < 20; i++)
+                songs.add(randomSong(batch * 20 + i + 1, random));
+            expected.addAll(songs);
+            version = version.withChanges(songs, null);
+        }
+        TestCase.assertEquals(10, version.getVersion());
+        assertSameOrders(expected, version);
+    }
+
+    @Test
+    public void testDuplicateIdsKeepFirst() {
+        List<Song> songs = new ArrayList<>();
+        songs.add(Song.from(1, "first", "", "", 0, 0, 0));
+        songs.add(Song.from(1, "second", "", "", 0, 0, 0));
+        LibraryVersion version = LibraryVersion.build(songs, 1);
+        TestCase.assertEquals(1, version.size());
+        TestCase.assertEquals("first", version.get(1).getTitle());
+        TestCase.assertEquals(Collections.singletonList(songs.get(0)),
+                version.getSongs(SortOrder.TITLE));
+    }
+
+    @Test
+    public void testPlayListViewCopiesOnEdit() {
+        Random random = new Random(17);
+        Set<Song> content = new HashSet<>();
+        for (long id = 1; id <= 20; id++)
+            content.add(randomSong(id, random));
+        LibraryVersion version = LibraryVersion.build(content, 1);
+        PlayList playList = new PlayList(version, SortOrder.DURATION);
+        List<Song> expected = new ArrayList<>(version.getSongs(SortOrder.DURATION));
+        TestCase.assertEquals(expected, playList.getSongs());
+
+        playList.move(0, 19);
+        expected.add(19, expected.remove(0));
+        TestCase.assertEquals(expected, playList.getSongs());
+        TestCase.assertNull(playList.getSortOrder());
+        // The version is not affected by edits of the view.
+        TestCase.assertEquals(20, version.size());
+        TestCase.assertEquals(expected.get(19), version.get(SortOrder.DURATION, 0));
+    }
+}
@@ -0,0 +1,203 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class PlayListStoreTest {
+
+    private File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("playlists", ".log");
+        file.delete();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    private PlayListStore reopen(PlayListStore store) {
+        store.sync();
+        return new PlayListStore(file);
+    }
+
+    private static long[] toArray(List<Long> ids) {
+        long[] array = new long[ids.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = ids.get(i);
+        return array;
+    }
+
+    @Test
+    public void testReplay() {
+        PlayListStore store = new PlayListStore(file);
+        long first = store.create("first");
+        long second = store.create("second");
+        for (long song = 1; song <= 5; song++)
+            store.add(first, song, 0);
+        store.add(first, 6, 1);
+        store.move(first, 5, 2);
+        store.remove(first, 3);
+        store.add(second, 9, 0);
+        store.rename(second, "renamed");
+        store.delete(second);
+
+        store = reopen(store);
+        TestCase.assertTrue(Arrays.equals(new long[]{6, 1, 5, 2, 4},
+                store.getSongIds(first)));
+        TestCase.assertNull(store.getSongIds(second));
+        TestCase.assertEquals(1, store.getNames().size());
+        TestCase.assertEquals("first", store.getName(first));
+        // Ids are not reused after a restart.
+        TestCase.assertTrue(store.create("third") > second);
+    }
+
+    @Test
+    public void testCompaction() {
+        Random random = new Random(3);
+        PlayListStore store = new PlayListStore(file);
+        long id = store.create("big");
+        List<Long> expected = new ArrayList<>();
+        for (long song = 1; song <= 200; song++) {
+            store.add(id, song, 0);
+            expected.add(song);
+        }
+        // Enough moves to compact the log several times.
+        for (int step = 0; step < 5000; step++) {
+            int from = random.nextInt(expected.size());
+            int to = random.nextInt(expected.size());
+            long song = expected.remove(from);
+            long before = (to < expected.size()) ? expected.get(to) : 0;
+            expected.add(to, song);
+            store.move(id, song, before);
+        }
+        store.sync();
+        long compactedLength = file.length();
+        // Without compaction the moves alone would take 25 bytes each.
+        TestCase.assertTrue(compactedLength < 5000 * 25);
+
+        store = reopen(store);
+        TestCase.assertTrue(Arrays.equals(toArray(expected), store.getSongIds(id)));
+    }
+
+    @Test
+    public void testSet() {
+        PlayListStore store = new PlayListStore(file);
+        long id = store.create("list");
+        store.add(id, 1, 0);
+        store.set(id, new long[]{3, 2, 1});
+        store.add(id, 4, 2);
+        store = reopen(store);
+        TestCase.assertTrue(Arrays.equals(new long[]{3, 4, 2, 1}, store.getSongIds(id)));
+    }
+
+    @Test
+    public void testTruncatedRecordIsDropped() throws IOException {
+        PlayListStore store = new PlayListStore(file);
+        long id = store.create("list");
+        store.add(id, 1, 0);
+        store.add(id, 2, 0);
+        store.sync();
+        // Cut the last record in half, as a crash while writing would.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        store = new PlayListStore(file);
+        TestCase.assertTrue(Arrays.equals(new long[]{1}, store.getSongIds(id)));
+        // New records go after the last valid one.
+        store.add(id, 3, 0);
+        store = reopen(store);
+        TestCase.assertTrue(Arrays.equals(new long[]{1, 3}, store.getSongIds(id)));
+    }
+
+    @Test
+    public void testUnknownFormatIsKept() throws IOException {
+        byte[] content = {0, 0, 0, 1, 0, 0, 0, 2, 42};
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(content);
+        }
+        PlayListStore store = new PlayListStore(file);
+        TestCase.assertTrue(store.getNames().isEmpty());
+        // The file is moved aside untouched, and a new log is started.
+        File aside = new File(file.getPath() + ".unreadable");
+        try {
+            TestCase.assertEquals(content.length, aside.length());
+            long id = store.create("list");
+            store = reopen(store);
+            TestCase.assertEquals("list", store.getName(id));
+        } finally {
+            aside.delete();
+        }
+    }
+
+    @Test
+    public void testInvalidRecordKeepsWhatWasRead() throws IOException {
+        PlayListStore store = new PlayListStore(file);
+        long id = store.create("list");
+        store.add(id, 1, 0);
+        store.sync();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // A complete record, with an unknown operation.
+            raf.seek(raf.length());
+            raf.write(99);
+            raf.writeLong(id);
+        }
+        File aside = new File(file.getPath() + ".unreadable");
+        try {
+            store = reopen(new PlayListStore(file));
+            TestCase.assertTrue(aside.isFile());
+            TestCase.assertTrue(Arrays.equals(new long[]{1}, store.getSongIds(id)));
+        } finally {
+            aside.delete();
+        }
+    }
+
+    @Test
+    public void testLongAppendedList() {
+        PlayListStore store = new PlayListStore(file);
+        long id = store.create("list");
+        long[] expected = new long[50_000];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = i + 1;
+            store.add(id, i + 1, 0);
+        }
+        // Already there, so not added again.
+        store.add(id, 7, 0);
+        store = reopen(store);
+        TestCase.assertTrue(Arrays.equals(expected, store.getSongIds(id)));
+    }
+
+    @Test
+    public void testUserPlayListSavesEdits() {
+        PlayListStore store = new PlayListStore(file);
+        long id = store.create("list");
+        UserPlayList playList = new UserPlayList(store, id, new ArrayList<>());
+        for (long song = 1; song <= 4; song++)
+            playList.add(Song.from(song, "title " + song, "", "", 0, 0, 0));
+        playList.move(3, 0);
+        playList.remove(2);
+        playList.add(1, Song.from(5, "a", "", "", 0, 0, 0));
+        playList.setSortOrder(SortOrder.TITLE);
+        playList.remove("1");
+        playList.add(Song.from(6, "title 6", "", "", 0, 0, 0));
+
+        store = reopen(store);
+        long[] expected = new long[playList.size()];
+        for (int i = 0; i < expected.length; i++)
+            expected[i] = playList.get(i).getMediaStoreId();
+        TestCase.assertTrue(Arrays.equals(expected, store.getSongIds(id)));
+    }
+}
@@ -0,0 +1,164 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.dezen.riccardo.musicplayer.song.TestSongs.song;
+
+public class PlayListTest {
+
+    private static void assertSameOrder(List<Song> expected, PlayList playList) {
+        TestCase.assertEquals(expected.size(), playList.size());
+        TestCase.assertEquals(expected, playList.getSongs());
+        for (int i = 0; i < expected.size(); i++) {
+            TestCase.assertEquals(expected.get(i), playList.get(i));
+            TestCase.assertEquals(i, playList.indexOf(expected.get(i).getId()));
+        }
+    }
+
+    @Test
+    public void testSortedOnCreation() {
+        Set<Song> content = new HashSet<>();
+        for (long id = 1; id <= 9; id++)
+            content.add(song(id));
+        PlayList playList = new PlayList(content);
+        List<Song> expected = new ArrayList<>(content);
+        Collections.sort(expected);
+        assertSameOrder(expected, playList);
+    }
+
+    @Test
+    public void testAddRejectsDuplicates() {
+        PlayList playList = new PlayList();
+        TestCase.assertTrue(playList.add(song(1)));
+        TestCase.assertFalse(playList.add(0, song(1)));
+        TestCase.assertEquals(1, playList.size());
+    }
+
+    @Test
+    public void testNextAndPreviousWrapAround() {
+        PlayList playList = new PlayList();
+        for (long id = 1; id <= 3; id++)
+            playList.add(song(id));
+        TestCase.assertEquals(song(1), playList.next("3"));
+        TestCase.assertEquals(song(3), playList.previous("1"));
+        TestCase.assertEquals(song(2), playList.next("1"));
+        TestCase.assertNull(playList.next("4"));
+    }
+
+    @Test
+    public void testMove() {
+        PlayList playList = new PlayList();
+        List<Song> expected = new ArrayList<>();
+        for (long id = 1; id <= 5; id++) {
+            playList.add(song(id));
+            expected.add(song(id));
+        }
+        playList.move(0, 4);
+        expected.add(4, expected.remove(0));
+        assertSameOrder(expected, playList);
+        playList.move(3, 1);
+        expected.add(1, expected.remove(3));
+        assertSameOrder(expected, playList);
+    }
+
+    @Test
+    public void testRandomEditsMatchList() {
+        Random random = new Random(7);
+        PlayList playList = new PlayList();
+        List<Song> expected = new ArrayList<>();
+        long nextId = 1;
+        for (int step = 0; step < 5000; step++) {
+            int operation = random.nextInt(4);
+            if (operation <= 1 || expected.isEmpty()) {
+                Song song = song(nextId++);
+                int index = random.nextInt(expected.size() + 1);
+                TestCase.assertTrue(playList.add(index, song));
+                expected.add(index, song);
+            } else if (operation == 2) {
+                int index = random.nextInt(expected.size());
+                Song removed = expected.remove(index);
+                if (random.nextBoolean())
+                    TestCase.assertEquals(removed, playList.remove(index));
+                else
+                    TestCase.assertEquals(removed, playList.remove(removed.getId()));
+            } else {
+                int from = random.nextInt(expected.size());
+                int to = random.nextInt(expected.size());
+                playList.move(from, to);
+                expected.add(to, expected.remove(from));
+            }
+            if (step % 500 == 0)
+                assertSameOrder(expected, playList);
+        }
+        assertSameOrder(expected, playList);
+        TestCase.assertEquals(-1, playList.indexOf("0"));
+    }
+
+    @Test
+    public void testIdsSortNumerically() {
+        Set<Song> content = new HashSet<>();
+        content.add(song(10));
+        content.add(song(9));
+        PlayList playList = new PlayList(content);
+        TestCase.assertEquals("9", playList.get(0).getId());
+        TestCase.assertEquals("10", playList.get(1).getId());
+    }
+
+    @Test
+    public void testSortOrders() {
+        Set<Song> content = new HashSet<>();
+        content.add(Song.from(1, "\u00c9clair", "b", "Zed", 300, 10, 0));
+        content.add(Song.from(2, "apple", "a", "Mia", 100, 30, 0));
+        content.add(Song.from(3, "Banana", "a", "mia", 200, 20, 0));
+        PlayList playList = new PlayList(content);
+
+        playList.setSortOrder(SortOrder.TITLE);
+        // Case and accents do not push words to the end, as a plain String comparison would.
+        TestCase.assertEquals("2", playList.get(0).getId());
+        TestCase.assertEquals("3", playList.get(1).getId());
+        TestCase.assertEquals("1", playList.get(2).getId());
+        TestCase.assertEquals(2, playList.indexOf("1"));
+
+        playList.setSortOrder(SortOrder.ALBUM);
+        TestCase.assertEquals("2", playList.get(0).getId());
+        TestCase.assertEquals("1", playList.get(2).getId());
+
+        playList.setSortOrder(SortOrder.DURATION);
+        TestCase.assertEquals("3", playList.get(1).getId());
+
+        playList.setSortOrder(SortOrder.DATE_ADDED);
+        TestCase.assertEquals("2", playList.get(0).getId());
+        TestCase.assertEquals("1", playList.next("3").getId());
+
+        playList.setSortOrder(null);
+        TestCase.assertEquals("1", playList.get(0).getId());
+    }
+
+    @Test
+    public void testEditKeepsSortedOrder() {
+        Set<Song> content = new HashSet<>();
+        content.add(Song.from(1, "c", "", "", 0, 0, 0));
+        content.add(Song.from(2, "a", "", "", 0, 0, 0));
+        content.add(Song.from(3, "b", "", "", 0, 0, 0));
+        PlayList playList = new PlayList(content);
+        playList.setSortOrder(SortOrder.TITLE);
+        playList.add(1, song(4));
+        TestCase.assertNull(playList.getSortOrder());
+        TestCase.assertEquals("2", playList.get(0).getId());
+        TestCase.assertEquals("4", playList.get(1).getId());
+        TestCase.assertEquals("3", playList.get(2).getId());
+        TestCase.assertEquals("1", playList.get(3).getId());
+        // Sorting again after an edit rebuilds the orders.
+        playList.setSortOrder(SortOrder.TITLE);
+        TestCase.assertEquals("1", playList.get(2).getId());
+    }
+}
@@ -0,0 +1,98 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PlayQueueTest {
+
+    private static List<Long> songs(PlayQueue queue) {
+        List<Long> ids = new ArrayList<>();
+        for (PlayQueue.Entry entry : queue.getWindow(0, queue.size()))
+            ids.add(entry.getSongId());
+        return ids;
+    }
+
+    private static long[] range(long from, int count) {
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++)
+            ids[i] = from + i;
+        return ids;
+    }
+
+    @Test
+    public void testPlayNextAndAdd() {
+        PlayQueue queue = new PlayQueue();
+        queue.add(new long[]{1, 2});
+        queue.playNext(new long[]{3, 4});
+        queue.add(new long[]{5});
+        TestCase.assertEquals(Arrays.asList(3L, 4L, 1L, 2L, 5L), songs(queue));
+
+        TestCase.assertEquals(3, queue.next());
+        // Play next goes after the played entries.
+        queue.playNext(new long[]{6});
+        TestCase.assertEquals(6, queue.next());
+        TestCase.assertEquals(4, queue.next());
+        TestCase.assertEquals(3, queue.getPosition());
+        TestCase.assertEquals(1, queue.next());
+        TestCase.assertEquals(2, queue.next());
+        TestCase.assertEquals(5, queue.next());
+        TestCase.assertFalse(queue.hasNext());
+        TestCase.assertEquals(PlayQueue.NO_SONG, queue.next());
+    }
+
+    @Test
+    public void testBulkInsertion() {
+        PlayQueue queue = new PlayQueue();
+        queue.add(range(0, 10_000));
+        queue.playNext(range(10_000, 5_000));
+        TestCase.assertEquals(15_000, queue.size());
+        List<Long> ids = songs(queue);
+        TestCase.assertEquals(10_000L, (long) ids.get(0));
+        TestCase.assertEquals(14_999L, (long) ids.get(4_999));
+        TestCase.assertEquals(0L, (long) ids.get(5_000));
+        TestCase.assertEquals(9_999L, (long) ids.get(14_999));
+    }
+
+    @Test
+    public void testRemoveAndMove() {
+        PlayQueue queue = new PlayQueue();
+        queue.add(new long[]{1, 2, 3, 4});
+        List<PlayQueue.Entry> entries = queue.getWindow(0, 4);
+        TestCase.assertTrue(queue.remove(entries.get(1).getQueueId()));
+        TestCase.assertFalse(queue.remove(entries.get(1).getQueueId()));
+        TestCase.assertEquals(Arrays.asList(1L, 3L, 4L), songs(queue));
+
+        TestCase.assertTrue(queue.move(entries.get(3).getQueueId(), 0));
+        TestCase.assertEquals(Arrays.asList(4L, 1L, 3L), songs(queue));
+        TestCase.assertEquals(2, queue.indexOf(entries.get(2).getQueueId()));
+        TestCase.assertEquals(-1, queue.indexOf(entries.get(1).getQueueId()));
+        TestCase.assertEquals(entries.get(3).getQueueId(), queue.getWindow(0, 1).get(0)
+                .getQueueId());
+
+        TestCase.assertEquals(4, queue.next());
+        // Removing a played entry keeps the next one in place.
+        TestCase.assertTrue(queue.remove(entries.get(3).getQueueId()));
+        TestCase.assertEquals(0, queue.getPosition());
+        TestCase.assertTrue(queue.removeSong(3));
+        TestCase.assertEquals(1, queue.next());
+    }
+
+    @Test
+    public void testSkipToAndHistory() {
+        PlayQueue queue = new PlayQueue();
+        queue.add(range(0, 4 * PlayQueue.HISTORY_SIZE));
+        long target = queue.getWindow(3 * PlayQueue.HISTORY_SIZE, 1).get(0).getQueueId();
+        TestCase.assertEquals(3 * PlayQueue.HISTORY_SIZE, queue.skipTo(target));
+        TestCase.assertEquals(target, queue.getLastQueueId());
+        // Only the newest played entries are kept.
+        TestCase.assertEquals(PlayQueue.HISTORY_SIZE, queue.getPosition());
+        TestCase.assertEquals(2 * PlayQueue.HISTORY_SIZE - 1, queue.size());
+        TestCase.assertEquals(3 * PlayQueue.HISTORY_SIZE + 1, queue.next());
+        TestCase.assertEquals(PlayQueue.NO_SONG, queue.skipTo(-5));
+    }
+}
@@ -0,0 +1,83 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SearchExecutorTest {
+
+    private static PlayList playList() {
+        List<Song> songs = new ArrayList<>();
+        for (long id = 1; id <= 100; id++)
+            songs.add(Song.from(id, "song " + id, "album", "artist " + (id % 10), 0, 0, 0));
+        return new PlayList(songs);
+    }
+
+    @Test
+    public void testSearch() throws InterruptedException {
+        SearchExecutor executor = new SearchExecutor();
+        PlayList playList = playList();
+        CountDownLatch done = new CountDownLatch(1);
+        List<SearchExecutor.Result> results = Collections.synchronizedList(new ArrayList<>());
+        int version = executor.search(playList, "artist 7", result -> {
+            results.add(result);
+            done.countDown();
+        });
+        TestCase.assertTrue(done.await(5, TimeUnit.SECONDS));
+        SearchExecutor.Result result = results.get(0);
+        TestCase.assertEquals(version, result.getVersion());
+        TestCase.assertEquals("artist 7", result.getQuery());
+        TestCase.assertSame(playList, result.getSource());
+        TestCase.assertEquals(10, result.getPlayList().size());
+        SearchHit hit = result.getHit(result.getPlayList().get(0));
+        TestCase.assertSame(result.getPlayList().get(0), hit.getSong());
+        TestCase.assertEquals("[0, 8]", Arrays.toString(hit.getRanges(SearchHit.FIELD_ARTIST)));
+        TestCase.assertEquals(0, hit.getRanges(SearchHit.FIELD_TITLE).length);
+        // Hits are kept, binding a row again reads the same ranges.
+        TestCase.assertSame(hit, result.getHit(result.getPlayList().get(0)));
+        TestCase.assertTrue(executor.isCurrent(result));
+        executor.cancel();
+        TestCase.assertFalse(executor.isCurrent(result));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSupersededQueries() throws InterruptedException {
+        SearchExecutor executor = new SearchExecutor();
+        PlayList playList = playList();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        // Keep the search thread busy while the next queries are typed.
+        executor.search(playList, "s", result -> {
+            delivered.add(result.getQuery());
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        TestCase.assertTrue(running.await(5, TimeUnit.SECONDS));
+        executor.search(playList, "so", result -> delivered.add(result.getQuery()));
+        executor.search(playList, "son", result -> delivered.add(result.getQuery()));
+        executor.search(playList, "song 1", result -> {
+            delivered.add(result.getQuery());
+            TestCase.assertEquals(12, result.getPlayList().size());
+            done.countDown();
+        });
+        release.countDown();
+        TestCase.assertTrue(done.await(5, TimeUnit.SECONDS));
+        // The queries typed while the first one ran are skipped.
+        TestCase.assertEquals(Arrays.asList("s", "song 1"), delivered);
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,53 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class SearchHitTest {
+
+    private static String ranges(SearchHit hit, int field) {
+        return Arrays.toString(hit.getRanges(field));
+    }
+
+    @Test
+    public void testRanges() {
+        Song song = Song.from(1, "Na Na Nana", "Na", "Beyonc\u00e9", 0, 0, 0);
+        SearchHit hit = SearchHit.of(song, 1f, "na");
+        TestCase.assertEquals("[0, 2, 3, 5, 6, 10]", ranges(hit, SearchHit.FIELD_TITLE));
+        TestCase.assertEquals("[0, 2]", ranges(hit, SearchHit.FIELD_ALBUM));
+        TestCase.assertEquals("[]", ranges(hit, SearchHit.FIELD_ARTIST));
+
+        // Offsets in the keys are offsets in the original text.
+        hit = SearchHit.of(song, 1f, "once");
+        int[] artist = hit.getRanges(SearchHit.FIELD_ARTIST);
+        TestCase.assertEquals("onc\u00e9", song.getArtist().substring(artist[0], artist[1]));
+
+        // Overlapping terms are merged.
+        hit = SearchHit.of(song, 1f, "na n", "a na", "");
+        TestCase.assertEquals("[0, 8]", ranges(hit, SearchHit.FIELD_TITLE));
+
+        // A space at the end of a term matches the end of the field, and is not highlighted.
+        hit = SearchHit.of(song, 1f, "na ");
+        TestCase.assertEquals("[0, 2]", ranges(hit, SearchHit.FIELD_ALBUM));
+        hit = SearchHit.of(song, 1f, "nana ");
+        TestCase.assertEquals("[6, 10]", ranges(hit, SearchHit.FIELD_TITLE));
+    }
+
+    @Test
+    public void testSimilarRanges() {
+        PlayList playList = new PlayList(Arrays.asList(
+                Song.from(1, "Crazy in Love", "Dangerously in Love", "Beyonce", 0, 0, 0),
+                Song.from(2, "Heroes", "Heroes", "David Bowie", 0, 0, 0)
+        ));
+        List<SearchHit> hits = playList.getSimilar("beyonse love", 1);
+        TestCase.assertEquals(1, hits.size());
+        // Only the words found as they are have ranges.
+        TestCase.assertEquals("[9, 13]", ranges(hits.get(0), SearchHit.FIELD_TITLE));
+        TestCase.assertEquals("[15, 19]", ranges(hits.get(0), SearchHit.FIELD_ALBUM));
+        TestCase.assertEquals("[]", ranges(hits.get(0), SearchHit.FIELD_ARTIST));
+    }
+}
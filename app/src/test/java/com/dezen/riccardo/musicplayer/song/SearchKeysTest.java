@@ -0,0 +1,71 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+public class SearchKeysTest {
+
+    @Test
+    public void testFold() {
+        TestCase.assertEquals("beyonce", SearchKeys.fold("Beyonc\u00e9"));
+        TestCase.assertEquals("ac dc", SearchKeys.fold("AC/DC"));
+        TestCase.assertEquals("motorhead", SearchKeys.fold("Mot\u00f6rhead"));
+        TestCase.assertEquals("sigur ros", SearchKeys.fold("Sigur R\u00f3s"));
+        // Sharp s has no decomposition, and can only become one char.
+        TestCase.assertEquals("strase", SearchKeys.fold("Stra\u00dfe"));
+        TestCase.assertEquals("", SearchKeys.fold(null));
+        // Already folded text is returned as it is.
+        String folded = "already folded 42";
+        TestCase.assertSame(folded, SearchKeys.fold(folded));
+        // Every char is folded into exactly one.
+        String text = "R\u00e9sum\u00e9 (Live) - \u00c6on \u0141\u00f3d\u017a \u6771\u4eac";
+        TestCase.assertEquals(text.length(), SearchKeys.fold(text).length());
+        TestCase.assertEquals("resume  live    aon lodz \u6771\u4eac", SearchKeys.fold(text));
+    }
+
+    @Test
+    public void testIndexOfPadded() {
+        TestCase.assertEquals(1, SearchKeys.indexOfPadded("beat it", "beat", 0));
+        TestCase.assertEquals(0, SearchKeys.indexOfPadded("beat it", " beat", 0));
+        TestCase.assertEquals(5, SearchKeys.indexOfPadded("beat it", " it ", 0));
+        TestCase.assertEquals(-1, SearchKeys.indexOfPadded("beat it", "beat", 2));
+        TestCase.assertEquals(-1, SearchKeys.indexOfPadded("beatles", "beat ", 0));
+        TestCase.assertEquals(-1, SearchKeys.indexOfPadded("be", " be  ", 0));
+    }
+
+    @Test
+    public void testMatches() {
+        Song song = Song.from(1, "Crazy in Love", "Dangerously in Love", "Beyonc\u00e9", 0, 0, 0);
+        TestCase.assertTrue(song.matches("beyonce"));
+        TestCase.assertTrue(song.matches("BEYONC\u00c9"));
+        TestCase.assertTrue(song.matches("dangerously-in"));
+        TestCase.assertFalse(song.matches("beyonces"));
+
+        PlayList playList = new PlayList(Collections.singletonList(song));
+        TestCase.assertEquals(1, playList.getMatching("beyonce").size());
+        TestCase.assertEquals(1, playList.getSimilar("beyonse", 5).size());
+    }
+
+    @Test
+    public void testSnapshotKeys() throws IOException {
+        File file = File.createTempFile("library", ".snapshot");
+        try {
+            Song song = Song.from(7, "\u00c0 bient\u00f4t", null, "St\u00e9phane", 1000, 1, 2);
+            TestCase.assertTrue(new LibrarySnapshot(Collections.singletonList(song), 2, "v")
+                    .write(file));
+            LibrarySnapshot snapshot = LibrarySnapshot.read(file, new StringTable());
+            TestCase.assertNotNull(snapshot);
+            Song read = snapshot.getSongs().get(0);
+            TestCase.assertEquals("a bientot", read.getTitleKey());
+            TestCase.assertEquals("", read.getAlbumKey());
+            TestCase.assertEquals("stephane", read.getArtistKey());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SearchSessionTest {
+
+    private static PlayList library() {
+        Random random = new Random(3);
+        List<Song> songs = new ArrayList<>();
+        for (long id = 1; id <= 2000; id++) {
+            StringBuilder title = new StringBuilder();
+            for (int i = 0; i < 12; i++)
+                title.append((char) ('a' + random.nextInt(4)));
+            songs.add(Song.from(id, title.toString(), "album", "artist " + (id % 7), 0, 0, 0));
+        }
+        return new PlayList(LibraryVersion.build(songs, 1), SortOrder.TITLE);
+    }
+
+    @Test
+    public void testTypingAndDeleting() {
+        PlayList library = library();
+        SearchSession session = new SearchSession(library);
+        String[] typed = {"a", "ab", "abc", "abca", "abc", "ab", "abd", "Abdd", "bdd", "", "cab"};
+        for (String query : typed)
+            TestCase.assertEquals(query, library.getMatching(query).getSongs(),
+                    session.search(query).getSongs());
+    }
+
+    @Test
+    public void testStack() {
+        SearchSession session = new SearchSession(library());
+        session.search("ab");
+        session.search("abc");
+        session.search("abcd");
+        TestCase.assertEquals(3, session.depth());
+        // Going back reuses the old results.
+        PlayList abc = session.search("abc");
+        TestCase.assertEquals(2, session.depth());
+        TestCase.assertSame(abc, session.search("abc"));
+        // "dabc" contains "abc", so it narrows it.
+        session.search("dabc");
+        TestCase.assertEquals(3, session.depth());
+        session.search("cc");
+        TestCase.assertEquals(1, session.depth());
+        TestCase.assertSame(session.getPlayList(), session.search(""));
+        TestCase.assertEquals(0, session.depth());
+    }
+
+    @Test
+    public void testEditsDropResults() {
+        PlayList library = library();
+        SearchSession session = new SearchSession(library);
+        session.search("ab");
+        Song removed = session.search("abc").get(0);
+        // Edited in place, the PlayList is still the same object.
+        library.remove(removed.getId());
+        TestCase.assertFalse(session.search("abc").contains(removed.getId()));
+        TestCase.assertEquals(1, session.depth());
+        library.add(0, removed);
+        TestCase.assertEquals(library.getMatching("abcd").getSongs(),
+                session.search("abcd").getSongs());
+    }
+}
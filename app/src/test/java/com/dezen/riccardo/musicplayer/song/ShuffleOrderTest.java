@@ -0,0 +1,150 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class ShuffleOrderTest {
+
+    /**
+     * @param size    Number of Songs.
+     * @param artists Number of distinct artists, assigned round robin.
+     */
+    private static PlayList playList(int size, int artists) {
+        PlayList playList = new PlayList();
+        for (int i = 1; i <= size; i++)
+            playList.add(Song.from(i, "title", "album", "artist " + (i % artists), 0, 0, 0));
+        return playList;
+    }
+
+    @Test
+    public void testEveryRoundPlaysEverySongOnce() {
+        PlayList playList = playList(50, 50);
+        ShuffleOrder order = new ShuffleOrder(playList, null, new Random(1));
+        for (int round = 0; round < 3; round++) {
+            Set<Song> played = new HashSet<>();
+            for (int i = 0; i < playList.size(); i++)
+                TestCase.assertTrue(played.add(order.next()));
+        }
+    }
+
+    @Test
+    public void testStartSongIsNotRepeatedInFirstRound() {
+        PlayList playList = playList(20, 20);
+        ShuffleOrder order = new ShuffleOrder(playList, "7", new Random(2));
+        Set<Song> played = new HashSet<>();
+        for (int i = 0; i < playList.size() - 1; i++)
+            played.add(order.next());
+        TestCase.assertEquals(playList.size() - 1, played.size());
+        TestCase.assertFalse(played.contains(playList.get("7")));
+    }
+
+    @Test
+    public void testNewRoundDoesNotRepeatLastSong() {
+        PlayList playList = playList(3, 3);
+        ShuffleOrder order = new ShuffleOrder(playList, null, new Random(3));
+        Song last = null;
+        for (int i = 0; i < 300; i++) {
+            Song song = order.next();
+            TestCase.assertNotSame(last, song);
+            TestCase.assertFalse(song.equals(last));
+            last = song;
+        }
+    }
+
+    @Test
+    public void testPreviousWalksHistory() {
+        PlayList playList = playList(100, 100);
+        ShuffleOrder order = new ShuffleOrder(playList, null, new Random(4));
+        Song first = order.next();
+        Song second = order.next();
+        Song third = order.next();
+        TestCase.assertEquals(second, order.previous());
+        TestCase.assertEquals(first, order.previous());
+        TestCase.assertNull(order.previous());
+        TestCase.assertEquals(second, order.next());
+        TestCase.assertEquals(third, order.next());
+    }
+
+    @Test
+    public void testJumpDropsForwardHistory() {
+        PlayList playList = playList(100, 100);
+        ShuffleOrder order = new ShuffleOrder(playList, null, new Random(5));
+        Song first = order.next();
+        order.next();
+        order.previous();
+        order.jumpTo("42");
+        // The second Song was ahead in the history, and has been replaced by the jump.
+        TestCase.assertEquals(first, order.previous());
+        TestCase.assertNull(order.previous());
+        TestCase.assertEquals(playList.get("42"), order.next());
+    }
+
+    @Test
+    public void testMemoryFollowsPlayedSongs() {
+        PlayList playList = playList(100_000, 1000);
+        ShuffleOrder order = new ShuffleOrder(playList, null, new Random(6));
+        for (int i = 0; i < 100; i++)
+            order.next();
+        TestCase.assertTrue(order.storedEntries() <= 200);
+    }
+
+    @Test
+    public void testSameArtistIsSpreadOut() {
+        // Two artists: a uniform shuffle repeats the artist about half of the times.
+        PlayList playList = playList(1000, 2);
+        ShuffleOrder order = new ShuffleOrder(playList, null, new Random(7));
+        String lastArtist = null;
+        int repeats = 0;
+        for (int i = 0; i < 500; i++) {
+            String artist = order.next().getArtist();
+            if (artist.equals(lastArtist))
+                repeats++;
+            lastArtist = artist;
+        }
+        TestCase.assertTrue("Repeats: " + repeats, repeats < 100);
+    }
+
+    @Test
+    public void testEditsKeepRoundAndHistory() {
+        PlayList playList = playList(30, 30);
+        ShuffleOrder order = new ShuffleOrder(playList, null, new Random(8));
+        Song first = order.next();
+        Song second = order.next();
+        Song third = order.next();
+        // Shrinking the PlayList below the drawn positions used to throw.
+        playList.remove(second.getId());
+        for (int i = playList.size() - 1; i >= 20; i--)
+            if (!playList.get(i).equals(first) && !playList.get(i).equals(third))
+                playList.remove(i);
+        playList.setSortOrder(SortOrder.TITLE);
+
+        // The removed Song is skipped in the history.
+        TestCase.assertEquals(first, order.previous());
+        TestCase.assertEquals(third, order.next());
+        // The rest of the round plays the other Songs once each.
+        Set<Song> played = new HashSet<>();
+        for (int i = 0; i < playList.size() - 2; i++) {
+            Song song = order.next();
+            TestCase.assertTrue(playList.contains(song.getId()));
+            TestCase.assertTrue(played.add(song));
+        }
+        TestCase.assertFalse(played.contains(first));
+        TestCase.assertFalse(played.contains(third));
+    }
+
+    @Test
+    public void testNewPlayListKeepsHistory() {
+        PlayList playList = playList(10, 10);
+        ShuffleOrder order = new ShuffleOrder(playList, null, new Random(9));
+        Song first = order.next();
+        Song second = order.next();
+        order.setPlayList(new PlayList(playList.getSongs()));
+        TestCase.assertEquals(first, order.previous());
+        TestCase.assertEquals(second, order.next());
+    }
+}
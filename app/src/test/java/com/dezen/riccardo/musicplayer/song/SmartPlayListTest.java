@@ -0,0 +1,196 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.dezen.riccardo.musicplayer.song.TestSongs.song;
+
+public class SmartPlayListTest {
+
+    private static List<Long> ids(SmartPlayList smartPlayList) {
+        List<Long> ids = new ArrayList<>();
+        for (Song song : smartPlayList.getVersion().getSongs(null))
+            ids.add(song.getMediaStoreId());
+        return ids;
+    }
+
+    @Test
+    public void testRebuildAndUpdate() {
+        List<Song> songs = new ArrayList<>();
+        for (long id = 1; id <= 10; id++)
+            songs.add(song(id, "title " + id, "album", (id % 2 == 0) ? "Even" : "Odd",
+                    id * 60_000));
+        LibraryVersion library = LibraryVersion.build(songs, 1);
+        PlayCounts counts = new PlayCounts();
+        SmartPlayList smartPlayList = new SmartPlayList("short evens", SmartRules.all(
+                SmartRules.artistIs("even"), SmartRules.shorterThan(7 * 60_000)),
+                SortOrder.TITLE);
+        smartPlayList.rebuild(library, counts);
+        TestCase.assertEquals(Arrays.asList(2L, 4L, 6L), ids(smartPlayList));
+
+        // 4 gets longer, 5 changes artist, 6 is removed, 12 is added, 8 changes but still fails.
+        List<Song> changed = new ArrayList<>();
+        changed.add(song(4, "title 4", "album", "Even", 9 * 60_000));
+        changed.add(song(5, "title 5", "album", "Even", 5 * 60_000));
+        changed.add(song(12, "title 12", "album", "Even", 60_000));
+        changed.add(song(8, "title 8", "album", "Even", 8 * 60_000));
+        TestCase.assertTrue(smartPlayList.update(changed,
+                Collections.singletonList(library.get(6)), counts));
+        TestCase.assertEquals(Arrays.asList(2L, 5L, 12L), ids(smartPlayList));
+
+        // Changes to Songs the rule never matched do not create a new version.
+        long version = smartPlayList.getVersion().getVersion();
+        TestCase.assertFalse(smartPlayList.update(
+                Collections.singletonList(song(3, "title 3", "album", "Odd", 0)),
+                Collections.emptyList(), counts));
+        TestCase.assertEquals(version, smartPlayList.getVersion().getVersion());
+    }
+
+    @Test
+    public void testPlayCounts() {
+        List<Song> songs = new ArrayList<>();
+        for (long id = 1; id <= 3; id++)
+            songs.add(song(id, "title " + id, "album", "", 0));
+        LibraryVersion library = LibraryVersion.build(songs, 1);
+        PlayCounts counts = new PlayCounts();
+        SmartPlayList neverPlayed = new SmartPlayList("new", SmartRules.neverPlayed(),
+                SortOrder.TITLE);
+        neverPlayed.rebuild(library, counts);
+        TestCase.assertEquals(3, neverPlayed.size());
+
+        counts.increment(2);
+        neverPlayed.update(Collections.singletonList(library.get(2)), Collections.emptyList(),
+                counts);
+        TestCase.assertEquals(Arrays.asList(1L, 3L), ids(neverPlayed));
+
+        // Checking a Song that still matches, unchanged, changes nothing.
+        TestCase.assertFalse(neverPlayed.update(Collections.singletonList(library.get(1)),
+                Collections.emptyList(), counts));
+    }
+
+    @Test
+    public void testOneOrder() {
+        List<Song> songs = new ArrayList<>();
+        for (long id = 1; id <= 5; id++)
+            songs.add(song(id, "title " + id, "album", "", (10 - id) * 1000));
+        LibraryVersion library = LibraryVersion.build(songs, 1);
+        SmartPlayList smartPlayList = new SmartPlayList("all", SmartRules.all(),
+                SortOrder.DURATION);
+        smartPlayList.rebuild(library, new PlayCounts());
+        TestCase.assertTrue(smartPlayList.getVersion().hasOrder(SortOrder.DURATION));
+        TestCase.assertFalse(smartPlayList.getVersion().hasOrder(SortOrder.TITLE));
+
+        PlayList playList = smartPlayList.getPlayList();
+        TestCase.assertEquals(5L, playList.getSongs().get(0).getMediaStoreId());
+        // Other orders are still available, on a copy of the Songs.
+        playList.setSortOrder(SortOrder.TITLE);
+        TestCase.assertEquals(1L, playList.getSongs().get(0).getMediaStoreId());
+        TestCase.assertEquals(5L,
+                smartPlayList.getPlayList().getSongs().get(0).getMediaStoreId());
+    }
+
+    @Test
+    public void testExpire() {
+        // A rule reading a clock of its own: Songs match until the time in their date added.
+        long[] clock = {0};
+        SmartRule rule = new SmartRule() {
+            @Override
+            public boolean matches(@NonNull Song song, int playCount) {
+                return clock[0] < song.getDateAdded();
+            }
+
+            @Override
+            public long changesAt(@NonNull Song song, int playCount) {
+                return matches(song, playCount) ? song.getDateAdded() : Long.MAX_VALUE;
+            }
+        };
+        List<Song> songs = new ArrayList<>();
+        for (long id = 1; id <= 3; id++)
+            songs.add(Song.from(id, "", "", "", 0, id * 100, 0));
+        LibraryVersion library = LibraryVersion.build(songs, 1);
+        PlayCounts counts = new PlayCounts();
+        SmartPlayList smartPlayList = new SmartPlayList("expiring", rule, SortOrder.TITLE);
+        smartPlayList.rebuild(library, counts);
+        TestCase.assertEquals(Arrays.asList(1L, 2L, 3L), ids(smartPlayList));
+        TestCase.assertEquals(100, smartPlayList.getNextChange());
+
+        // Nothing is checked before the earliest change.
+        clock[0] = 250;
+        TestCase.assertFalse(smartPlayList.expire(library, counts, 99));
+        TestCase.assertEquals(3, smartPlayList.size());
+        TestCase.assertTrue(smartPlayList.expire(library, counts, 250));
+        TestCase.assertEquals(Collections.singletonList(3L), ids(smartPlayList));
+        TestCase.assertEquals(300, smartPlayList.getNextChange());
+    }
+
+    @Test
+    public void testAddedInLastChangesAt() {
+        long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        Song recent = Song.from(1, "", "", "", 0, now - TimeUnit.DAYS.toSeconds(29), 0);
+        Song old = Song.from(2, "", "", "", 0, now - TimeUnit.DAYS.toSeconds(40), 0);
+        SmartRule rule = SmartRules.addedInLast(30);
+        TestCase.assertEquals(TimeUnit.SECONDS.toMillis(now + TimeUnit.DAYS.toSeconds(1) + 1),
+                rule.changesAt(recent, 0));
+        TestCase.assertEquals(Long.MAX_VALUE, rule.changesAt(old, 0));
+    }
+
+    @Test
+    public void testObservers() {
+        LibraryVersion library = LibraryVersion.build(Collections.singletonList(song(1)), 1);
+        SmartPlayList smartPlayList = new SmartPlayList("all", SmartRules.all(),
+                SortOrder.TITLE);
+        List<PlayList> delivered = new ArrayList<>();
+        SmartPlayList.Observer observer = (changed, playList) -> {
+            TestCase.assertSame(smartPlayList, changed);
+            delivered.add(playList);
+        };
+        smartPlayList.observe(observer);
+        smartPlayList.rebuild(library, new PlayCounts());
+        smartPlayList.notifyObservers();
+        TestCase.assertEquals(1, delivered.size());
+        TestCase.assertEquals(1, delivered.get(0).size());
+
+        smartPlayList.removeObserver(observer);
+        smartPlayList.notifyObservers();
+        TestCase.assertEquals(1, delivered.size());
+    }
+
+    @Test
+    public void testAddedInLast() {
+        long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        Song recent = Song.from(1, "", "", "", 0, now - TimeUnit.DAYS.toSeconds(2), 0);
+        Song old = Song.from(2, "", "", "", 0, now - TimeUnit.DAYS.toSeconds(40), 0);
+        SmartRule rule = SmartRules.addedInLast(30);
+        TestCase.assertTrue(rule.matches(recent, 0));
+        TestCase.assertFalse(rule.matches(old, 0));
+    }
+
+    @Test
+    public void testPlayCountsFile() throws IOException {
+        File file = File.createTempFile("play", ".counts");
+        try {
+            PlayCounts counts = new PlayCounts();
+            counts.increment(7);
+            counts.increment(7);
+            counts.increment(9);
+            TestCase.assertTrue(counts.write(file));
+            PlayCounts read = PlayCounts.read(file);
+            TestCase.assertEquals(2, read.get(7));
+            TestCase.assertEquals(1, read.get(9));
+            TestCase.assertEquals(0, read.get(8));
+        } finally {
+            file.delete();
+        }
+    }
+}
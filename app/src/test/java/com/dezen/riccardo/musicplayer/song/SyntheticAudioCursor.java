@@ -0,0 +1,223 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import android.database.AbstractCursor;
+import android.provider.MediaStore;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cursor over a synthetic audio media table. Rows are not stored: every value is derived from
+ * the row position and a seed, so even a 1M rows cursor takes no memory and the same position
+ * always yields the same values.
+ * <p>
+ * The values try to look like a real library: artist popularity is skewed (a few artists own
+ * most of the tracks), artists have a handful of albums of about a dozen tracks each, titles are
+ * one to five words with the occasional "feat." or "(Remastered)" suffix, some names contain
+ * accents, durations cluster around three to four minutes and dates are spread over five years.
+ */
+public class SyntheticAudioCursor extends AbstractCursor {
+
+    /**
+     * Columns the cursor can provide. Any other column in the projection is always null.
+     */
+    public static final String[] ALL_COLUMNS = {
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media.ALBUM,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.DURATION,
+            MediaStore.Audio.Media.DATE_ADDED,
+            MediaStore.Audio.Media.DATE_MODIFIED
+    };
+
+    private static final List<String> COLUMN_LIST = Arrays.asList(ALL_COLUMNS);
+
+    private static final String[] WORDS = {
+            "love", "night", "heart", "fire", "dream", "light", "rain", "home", "blue", "gold",
+            "river", "shadow", "summer", "dance", "ghost", "city", "road", "stone", "wild",
+            "silver", "ocean", "midnight", "paper", "echo", "garden", "thunder", "glass", "sky",
+            "velvet", "winter", "tiger", "mirror", "radio", "satellite", "honey", "crown",
+            // Accented words: "cafe", "senorita", "deja", "uber", "noel", "fiancee".
+            "caf\u00e9", "se\u00f1orita", "d\u00e9j\u00e0", "\u00fcber", "no\u00ebl",
+            "fianc\u00e9e"
+    };
+    private static final String[] ARTIST_NAMES = {
+            "Beyonc\u00e9", "Sigur R\u00f3s", "M\u00f6tley", "The Beatles", "Bj\u00f6rk", "Daft",
+            "Radiohead",
+            "Queen", "Nirvana", "Adele", "Coldplay", "Muse", "Blur", "Oasis", "Portishead",
+            "Massive", "R\u00f6yksopp", "Ma\u00f1ana", "Los", "Zo\u00eb"
+    };
+    private static final long FIVE_YEARS = 5L * 365 * 24 * 3600;
+    private static final long START_DATE = 1_450_000_000L;
+
+    private final int rows;
+    private final long seed;
+    private final int artistCount;
+    private final String[] columns;
+    private final int[] columnIds;
+
+    /**
+     * @param rows       Number of rows.
+     * @param seed       Seed for the values, cursors with the same seed have the same rows.
+     * @param projection The columns, null for {@link #ALL_COLUMNS}.
+     */
+    public SyntheticAudioCursor(int rows, long seed, String[] projection) {
+        this.rows = rows;
+        this.seed = seed;
+        this.artistCount = Math.max(20, rows / 60);
+        this.columns = (projection == null) ? ALL_COLUMNS : projection;
+        this.columnIds = new int[columns.length];
+        for (int i = 0; i < columns.length; i++)
+            columnIds[i] = COLUMN_LIST.indexOf(columns[i]);
+    }
+
+    @Override
+    public int getCount() {
+        return rows;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columns;
+    }
+
+    @Override
+    public String getString(int column) {
+        int row = getPosition();
+        switch (columnIds[column]) {
+            case 1:
+                return title(row);
+            case 2:
+                return album(row);
+            case 3:
+                return artist(row);
+            case -1:
+                return null;
+            default:
+                return String.valueOf(getLong(column));
+        }
+    }
+
+    @Override
+    public long getLong(int column) {
+        int row = getPosition();
+        switch (columnIds[column]) {
+            case 0:
+                return row + 1;
+            case 4:
+                return duration(row);
+            case 5:
+                return dateAdded(row);
+            case 6:
+                // Most files are never touched after being added.
+                return dateAdded(row) + ((hash(row, 7) % 10 == 0) ? hash(row, 8) % FIVE_YEARS : 0);
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return columnIds[column] == -1;
+    }
+
+    /**
+     * Artist popularity is skewed: the square of a uniform variable puts most rows on the first
+     * artists.
+     */
+    private int artistIndex(int row) {
+        double u = (hash(row, 1) % 1_000_000) / 1_000_000.0;
+        return (int) (artistCount * u * u);
+    }
+
+    private String artist(int row) {
+        int artist = artistIndex(row);
+        String base = ARTIST_NAMES[artist % ARTIST_NAMES.length];
+        int suffix = artist / ARTIST_NAMES.length;
+        return (suffix == 0) ? base : base + " " + WORDS[suffix % WORDS.length] + " " + suffix;
+    }
+
+    private String album(int row) {
+        int artist = artistIndex(row);
+        // One to eight albums per artist.
+        int albums = 1 + (int) (mix(seed ^ artist) % 8);
+        int album = (int) (hash(row, 2) % albums);
+        long h = mix(seed ^ ((long) artist << 8) ^ album);
+        return capitalize(WORDS[(int) (h % WORDS.length)]) + " " +
+                WORDS[(int) ((h >>> 16) % WORDS.length)] +
+                ((h % 5 == 0) ? " (Deluxe Edition)" : "");
+    }
+
+    private String title(int row) {
+        long h = hash(row, 3);
+        int words = 1 + (int) (h % 5);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0)
+                builder.append(' ');
+            String word = WORDS[(int) ((h >>> (8 * i + 4)) % WORDS.length)];
+            builder.append(i == 0 ? capitalize(word) : word);
+        }
+        long extra = hash(row, 4) % 20;
+        if (extra == 0)
+            builder.append(" (Remastered ").append(2000 + hash(row, 5) % 20).append(')');
+        else if (extra == 1)
+            builder.append(" feat. ").append(ARTIST_NAMES[(int) (hash(row, 6) % ARTIST_NAMES.length)]);
+        return builder.toString();
+    }
+
+    /**
+     * Sum of two uniform variables, so durations cluster around 3.5 minutes.
+     */
+    private long duration(int row) {
+        long h = hash(row, 9);
+        return 60_000 + (h % 180_000) + ((h >>> 24) % 180_000);
+    }
+
+    private long dateAdded(int row) {
+        return START_DATE + hash(row, 10) % FIVE_YEARS;
+    }
+
+    /**
+     * @param row  The row.
+     * @param salt Different salts give independent values for the same row.
+     * @return A non negative pseudo-random value for the row.
+     */
+    private long hash(int row, int salt) {
+        return mix(seed ^ ((long) row << 8) ^ salt);
+    }
+
+    /**
+     * SplitMix64 finalizer.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return (z ^ (z >>> 31)) >>> 1;
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+}
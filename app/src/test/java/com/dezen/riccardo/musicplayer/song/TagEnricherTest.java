@@ -0,0 +1,142 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import androidx.annotation.NonNull;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// The workers lower their priority through android.os.Process.
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class TagEnricherTest {
+
+    private static List<Song> songs(long first, long last) {
+        List<Song> songs = new ArrayList<>();
+        for (long id = first; id <= last; id++)
+            songs.add(Song.from(id, "title " + id, "", "", 0, 0, id * 10));
+        return songs;
+    }
+
+    private static SongTags tagsOf(Song song) {
+        return new SongTags(song.getMediaStoreId(), song.getDateModified(), "genre", null,
+                1, 1, 0, 0, 0);
+    }
+
+    /**
+     * The result of an extraction, as delivered to the listener.
+     */
+    private static final class Result {
+        private final Set<Long> read = new HashSet<>();
+        private final Set<Long> failed = new HashSet<>();
+
+        Result(@NonNull List<SongTags> tags, @NonNull List<Song> failed) {
+            for (SongTags songTags : tags)
+                read.add(songTags.getSongId());
+            for (Song song : failed)
+                this.failed.add(song.getMediaStoreId());
+        }
+    }
+
+    @Test
+    public void testEnrichReadsEverySong() throws InterruptedException {
+        // Odd ids cannot be read.
+        TagEnricher enricher = new TagEnricher(() -> new TagEnricher.Reader() {
+            @Override
+            public SongTags read(@NonNull Song song) {
+                return (song.getMediaStoreId() % 2 == 0) ? tagsOf(song) : null;
+            }
+
+            @Override
+            public void release() {
+            }
+        });
+        BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+        enricher.enrich(songs(1, 100), (tags, failed) -> results.add(new Result(tags, failed)));
+        Result result = results.poll(10, TimeUnit.SECONDS);
+        TestCase.assertNotNull(result);
+        TestCase.assertEquals(50, result.read.size());
+        TestCase.assertEquals(50, result.failed.size());
+        for (long id = 1; id <= 100; id++)
+            TestCase.assertTrue((id % 2 == 0) ? result.read.contains(id) :
+                    result.failed.contains(id));
+        // Every Song is delivered once.
+        TestCase.assertNull(results.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testNewExtractionStopsRunningOne() throws InterruptedException {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        TagEnricher enricher = new TagEnricher(() -> new TagEnricher.Reader() {
+            @Override
+            public SongTags read(@NonNull Song song) {
+                reading.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    return null;
+                }
+                return tagsOf(song);
+            }
+
+            @Override
+            public void release() {
+            }
+        });
+        BlockingQueue<Result> first = new LinkedBlockingQueue<>();
+        BlockingQueue<Result> second = new LinkedBlockingQueue<>();
+        enricher.enrich(songs(1, 100), (tags, failed) -> first.add(new Result(tags, failed)));
+        TestCase.assertTrue(reading.await(10, TimeUnit.SECONDS));
+        enricher.enrich(songs(101, 110), (tags, failed) -> second.add(new Result(tags, failed)));
+        resume.countDown();
+
+        // The first extraction only delivers the Songs that were being read when it was stopped.
+        Result stopped = first.poll(10, TimeUnit.SECONDS);
+        TestCase.assertNotNull(stopped);
+        TestCase.assertTrue(stopped.read.size() < 100);
+        TestCase.assertTrue(stopped.failed.isEmpty());
+        Result result = second.poll(10, TimeUnit.SECONDS);
+        TestCase.assertNotNull(result);
+        TestCase.assertEquals(10, result.read.size());
+    }
+
+    @Test
+    public void testPlainNumber() {
+        TestCase.assertEquals(1998, TagEnricher.parseLeadingInt("1998"));
+    }
+
+    @Test
+    public void testTrackOfTotal() {
+        TestCase.assertEquals(3, TagEnricher.parseLeadingInt("3/12"));
+    }
+
+    @Test
+    public void testLeadingWhitespace() {
+        TestCase.assertEquals(7, TagEnricher.parseLeadingInt("  07"));
+    }
+
+    @Test
+    public void testMissingOrInvalid() {
+        TestCase.assertEquals(0, TagEnricher.parseLeadingInt(null));
+        TestCase.assertEquals(0, TagEnricher.parseLeadingInt(""));
+        TestCase.assertEquals(0, TagEnricher.parseLeadingInt("unknown"));
+    }
+
+    @Test
+    public void testOverflowIsTruncated() {
+        TestCase.assertEquals(999999999, TagEnricher.parseLeadingInt("99999999999999"));
+    }
+}
@@ -0,0 +1,41 @@
+package com.dezen.riccardo.musicplayer.song;
+
+/**
+ * Songs for the tests. Each Song is built in a store of its own, and fields that are not given
+ * have a fixed value.
+ */
+final class TestSongs {
+
+    private TestSongs() {
+    }
+
+    /**
+     * @param id The id of the Song.
+     * @return A Song titled after its id, by "artist" on "album", with no duration.
+     */
+    static Song song(long id) {
+        return song(id, "title " + id, "album", "artist", 0);
+    }
+
+    /**
+     * @return A Song lasting one second for each unit of its id.
+     */
+    static Song song(long id, String title, String album, String artist) {
+        return song(id, title, album, artist, id * 1000);
+    }
+
+    /**
+     * @return A Song added and modified at time 0.
+     */
+    static Song song(long id, String title, String album, String artist, long duration) {
+        return song(id, title, album, artist, duration, 0);
+    }
+
+    /**
+     * @return A Song modified at time 0.
+     */
+    static Song song(long id, String title, String album, String artist, long duration,
+                     long dateAdded) {
+        return Song.from(id, title, album, artist, duration, dateAdded, 0);
+    }
+}
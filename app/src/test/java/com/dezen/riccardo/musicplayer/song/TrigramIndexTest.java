@@ -0,0 +1,179 @@
+package com.dezen.riccardo.musicplayer.song;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.dezen.riccardo.musicplayer.song.TestSongs.song;
+
+public class TrigramIndexTest {
+
+    private static List<Long> sorted(long[] ids) {
+        List<Long> list = new ArrayList<>();
+        for (long id : ids)
+            list.add(id);
+        Collections.sort(list);
+        return list;
+    }
+
+    private static List<Long> ids(PlayList playList) {
+        List<Long> list = new ArrayList<>();
+        for (Song song : playList.getSongs())
+            list.add(song.getMediaStoreId());
+        return list;
+    }
+
+    @Test
+    public void testCandidates() {
+        TrigramIndex index = TrigramIndex.build(Arrays.asList(
+                song(1, "Yellow Submarine", "album", "The Beatles"),
+                song(2, "Beat It", "album", "Michael Jackson"),
+                song(3, "Heroes", "album", "David Bowie")
+        ));
+        TestCase.assertEquals(Arrays.asList(1L, 2L), sorted(index.candidates("beat")));
+        TestCase.assertEquals(Collections.singletonList(3L), sorted(index.candidates("bowie")));
+        TestCase.assertEquals(0, index.candidates("xyz").length);
+        TestCase.assertNull(index.candidates("be"));
+
+        // Replacing a Song drops its old trigrams.
+        index.put(song(3, "Changes", "album", "David Bowie"));
+        TestCase.assertEquals(0, index.candidates("heroes").length);
+        TestCase.assertEquals(Collections.singletonList(3L), sorted(index.candidates("chang")));
+        index.remove(1);
+        TestCase.assertEquals(Collections.singletonList(2L), sorted(index.candidates("beat")));
+        TestCase.assertEquals(2, index.size());
+    }
+
+    @Test
+    public void testGetMatching() {
+        List<Song> songs = Arrays.asList(
+                song(1, "Yellow Submarine", "album", "The Beatles"),
+                song(2, "Beat It", "album", "Michael Jackson"),
+                song(3, "Heroes", "album", "David Bowie"),
+                song(4, "Beat", "album", "King Crimson")
+        );
+        PlayList playList = new PlayList(songs);
+        playList.move(3, 0);
+        // Matches keep the order of the PlayList, case is ignored.
+        TestCase.assertEquals(Arrays.asList(4L, 1L, 2L), ids(playList.getMatching("BEAT")));
+        TestCase.assertEquals(Collections.singletonList(1L), ids(playList.getMatching("e bea")));
+        // Spaces at the ends of the query also match the ends of the fields.
+        TestCase.assertEquals(Arrays.asList(4L, 2L), ids(playList.getMatching("beat ")));
+        TestCase.assertEquals(Arrays.asList(4L, 1L, 2L), ids(playList.getMatching(" beat")));
+        TestCase.assertEquals(Collections.singletonList(3L), ids(playList.getMatching("bowie")));
+        // Same trigrams, but not in a row.
+        TestCase.assertEquals(0, playList.getMatching("beatbeat").size());
+
+        PlayList removed = playList.removeNonMatching("beat");
+        TestCase.assertEquals(Collections.singletonList(3L), ids(removed));
+        TestCase.assertEquals(Arrays.asList(4L, 1L, 2L), ids(playList));
+        // The own index follows the edits.
+        playList.add(song(5, "Beat Surrender", "album", "The Jam"));
+        TestCase.assertEquals(Arrays.asList(4L, 1L, 2L, 5L), ids(playList.getMatching("beat")));
+    }
+
+    @Test
+    public void testSharedIndex() {
+        List<Song> songs = new ArrayList<>();
+        for (long id = 1; id <= 20; id++)
+            songs.add(song(id, "song " + id, "album", (id % 2 == 0) ? "Even" : "Odd"));
+        TrigramIndex index = TrigramIndex.build(songs);
+        PlayList library = new PlayList(LibraryVersion.build(songs, 1), SortOrder.TITLE);
+        library.setSearchIndex(index, 1);
+        // The index may hold Songs the PlayList does not.
+        TestCase.assertSame(index, index.update(
+                Collections.singletonList(song(21, "song 21", "album", "Even")),
+                Collections.<Song>emptyList(), 2));
+        PlayList evens = library.getMatching("even");
+        TestCase.assertEquals(10, evens.size());
+        // Results share the index, and only hold their own Songs.
+        TestCase.assertEquals(Arrays.asList(10L, 12L, 14L, 16L, 18L),
+                ids(evens.getMatching("song 1")));
+    }
+
+    @Test
+    public void testVersions() {
+        List<Song> songs = Arrays.asList(
+                song(1, "Yellow Submarine", "album", "The Beatles"),
+                song(2, "Beat It", "album", "Michael Jackson"),
+                song(3, "Heroes", "album", "David Bowie")
+        );
+        LibraryVersion first = LibraryVersion.build(songs, 1);
+        TrigramIndex index = TrigramIndex.build(songs);
+        PlayList firstView = new PlayList(first, SortOrder.TITLE);
+        firstView.setSearchIndex(index, first.getVersion());
+
+        // 2 is removed and 3 renamed, by a later version sharing the index.
+        List<Song> changed = Collections.singletonList(song(3, "Changes", "album", "David Bowie"));
+        List<Song> removed = Collections.singletonList(songs.get(1));
+        LibraryVersion second = first.withUpdates(changed, removed);
+        TestCase.assertSame(index, index.update(changed, removed, second.getVersion()));
+        PlayList secondView = new PlayList(second, SortOrder.TITLE);
+        secondView.setSearchIndex(index, second.getVersion());
+
+        TestCase.assertEquals(Arrays.asList(2L, 1L), ids(firstView.getMatching("beat")));
+        TestCase.assertEquals(Collections.singletonList(3L), ids(firstView.getMatching("hero")));
+        TestCase.assertEquals(0, firstView.getMatching("chang").size());
+        TestCase.assertEquals(Collections.singletonList(1L), ids(secondView.getMatching("beat")));
+        TestCase.assertEquals(0, secondView.getMatching("hero").size());
+        TestCase.assertEquals(Collections.singletonList(3L),
+                ids(secondView.getMatching("chang")));
+        // Each version ranks its own Song once.
+        List<SearchHit> hits = firstView.getSimilar("heroes", 10);
+        TestCase.assertEquals(1, hits.size());
+        TestCase.assertEquals("Heroes", hits.get(0).getSong().getTitle());
+        TestCase.assertTrue(secondView.getSimilar("heroes", 10).isEmpty());
+    }
+
+    @Test
+    public void testVersionsRebuild() {
+        List<Song> songs = new ArrayList<>();
+        for (long id = 1; id <= 10; id++)
+            songs.add(song(id, "song " + id, "album", "artist"));
+        TrigramIndex index = TrigramIndex.build(songs);
+        // Renaming every Song many times leaves most documents out of date.
+        TrigramIndex latest = index;
+        for (int version = 1; version <= 200; version++) {
+            List<Song> renamed = new ArrayList<>();
+            for (long id = 1; id <= 10; id++)
+                renamed.add(song(id, "take " + version, "album", "artist"));
+            latest = latest.update(renamed, Collections.<Song>emptyList(), version);
+        }
+        TestCase.assertNotSame(index, latest);
+        TestCase.assertEquals(10, latest.size());
+        TestCase.assertEquals(10, latest.candidates("take 200").length);
+        TestCase.assertEquals(0, latest.candidates("take 199").length);
+        // The first index still answers for the versions before the rebuild.
+        TestCase.assertEquals(10, index.candidates("song", 0).length);
+    }
+
+    @Test
+    public void testSimilar() {
+        List<Song> songs = Arrays.asList(
+                song(1, "Halo", "album", "Beyonce"),
+                song(2, "Yellow Submarine", "album", "The Beatles"),
+                song(3, "Beat It", "album", "Michael Jackson"),
+                song(4, "Heroes", "album", "David Bowie"),
+                song(5, "Crazy in Love", "album", "Beyonce")
+        );
+        PlayList playList = new PlayList(songs);
+        List<SearchHit> hits = playList.getSimilar("beyonse", 10);
+        TestCase.assertEquals(2, hits.size());
+        TestCase.assertEquals(1L, hits.get(0).getSong().getMediaStoreId());
+        TestCase.assertEquals(5L, hits.get(1).getSong().getMediaStoreId());
+
+        hits = playList.getSimilar("yelow submarin", 1);
+        TestCase.assertEquals(1, hits.size());
+        TestCase.assertEquals(2L, hits.get(0).getSong().getMediaStoreId());
+        TestCase.assertTrue(hits.get(0).getScore() < 1);
+
+        TestCase.assertEquals(1f, playList.getSimilar("bowie", 10).get(0).getScore());
+        TestCase.assertTrue(playList.getSimilar("zzzz", 10).isEmpty());
+        TestCase.assertTrue(playList.getSimilar("", 10).isEmpty());
+    }
+}
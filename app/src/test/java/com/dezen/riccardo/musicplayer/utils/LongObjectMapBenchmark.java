@@ -0,0 +1,110 @@
+package com.dezen.riccardo.musicplayer.utils;
+
+import junit.framework.TestCase;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the PlayList indexes before and after moving to {@link LongObjectMap}: a
+ * {@link HashMap} keyed by the String form of the MediaStore id, whose lookups hash the String and
+ * unbox the value, against a map keyed by the numeric id. Prints the time per lookup, by numeric id
+ * and by String id, and the heap taken per entry, keys included, for each size in the
+ * "benchmark.sizes" system property. Skipped if no sizes are given.
+ */
+public class LongObjectMapBenchmark {
+
+    private static final int LOOKUPS = 2_000_000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void benchmarkLookups() {
+        int[] sizes = getSizes();
+        System.out.println("entries\tHashMap<String, Integer> (ns/lookup, bytes/entry)" +
+                "\tLongObjectMap (ns/lookup, bytes/entry)");
+        for (int size : sizes) {
+            // MediaStore ids grow by one, with gaps left by removed files.
+            long[] ids = new long[size];
+            Random random = new Random(size);
+            for (int i = 0; i < size; i++)
+                ids[i] = ((i == 0) ? 0 : ids[i - 1]) + 1 + random.nextInt(4);
+
+            long heapBefore = usedHeap();
+            Map<String, Integer> stringMap = new HashMap<>();
+            for (int i = 0; i < size; i++)
+                stringMap.put(String.valueOf(ids[i]), i);
+            double stringBytes = (usedHeap() - heapBefore) / (double) size;
+
+            heapBefore = usedHeap();
+            LongObjectMap<Integer> longMap = new LongObjectMap<>();
+            for (int i = 0; i < size; i++)
+                longMap.put(ids[i], i);
+            double longBytes = (usedHeap() - heapBefore) / (double) size;
+
+            // String lookups go through the String ids, as the PlayList methods taking one do.
+            // Their hash is cached after the first lookup, as it would be for a Song's id.
+            String[] queries = new String[4096];
+            long[] longQueries = new long[queries.length];
+            for (int i = 0; i < queries.length; i++) {
+                longQueries[i] = ids[random.nextInt(size)];
+                queries[i] = String.valueOf(longQueries[i]);
+            }
+
+            long stringTime = Long.MAX_VALUE;
+            long parsedTime = Long.MAX_VALUE;
+            long longTime = Long.MAX_VALUE;
+            // The sums keep the lookups from being optimized away.
+            long[] sums = new long[3];
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < LOOKUPS; i++)
+                    sums[0] += stringMap.get(queries[i % queries.length]);
+                stringTime = Math.min(stringTime, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                for (int i = 0; i < LOOKUPS; i++)
+                    sums[1] += longMap.get(Long.parseLong(queries[i % queries.length]));
+                parsedTime = Math.min(parsedTime, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                for (int i = 0; i < LOOKUPS; i++)
+                    sums[2] += longMap.get(longQueries[i % longQueries.length]);
+                longTime = Math.min(longTime, System.nanoTime() - start);
+            }
+            TestCase.assertEquals(sums[0], sums[1]);
+            TestCase.assertEquals(sums[0], sums[2]);
+            TestCase.assertEquals(size, longMap.size());
+
+            System.out.println(String.format("%d\t%.1f, %.1f\t%.1f (%.1f from String), %.1f",
+                    size, stringTime / (double) LOOKUPS, stringBytes, longTime / (double) LOOKUPS,
+                    parsedTime / (double) LOOKUPS, longBytes));
+        }
+    }
+
+    /**
+     * @return The map sizes to measure. The benchmark is skipped if none are given.
+     */
+    private static int[] getSizes() {
+        String property = System.getProperty("benchmark.sizes");
+        Assume.assumeNotNull(property);
+        String[] sizes = property.split(",");
+        int[] result = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++)
+            result[i] = Integer.parseInt(sizes[i].trim());
+        return result;
+    }
+
+    /**
+     * @return The used heap after collecting garbage, as well as the JVM allows.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
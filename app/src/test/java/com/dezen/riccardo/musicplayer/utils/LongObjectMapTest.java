@@ -0,0 +1,65 @@
+package com.dezen.riccardo.musicplayer.utils;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongObjectMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        TestCase.assertNull(map.put(42, "a"));
+        TestCase.assertEquals("a", map.put(42, "b"));
+        TestCase.assertEquals("b", map.get(42));
+        TestCase.assertEquals(1, map.size());
+        TestCase.assertEquals("b", map.remove(42));
+        TestCase.assertNull(map.get(42));
+        TestCase.assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testZeroAndNegativeKeys() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        map.put(0, "zero");
+        map.put(-1, "minus one");
+        map.put(Long.MIN_VALUE, "min");
+        TestCase.assertEquals(3, map.size());
+        TestCase.assertEquals("zero", map.get(0));
+        TestCase.assertEquals("minus one", map.get(-1));
+        TestCase.assertEquals("min", map.get(Long.MIN_VALUE));
+        long[] keys = map.keys();
+        Arrays.sort(keys);
+        TestCase.assertTrue(Arrays.equals(new long[]{Long.MIN_VALUE, -1, 0}, keys));
+        TestCase.assertEquals("zero", map.remove(0));
+        TestCase.assertFalse(map.containsKey(0));
+        TestCase.assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testRandomOperationsMatchHashMap() {
+        Random random = new Random(3);
+        LongObjectMap<Long> map = new LongObjectMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            // Few distinct keys, so that removals hit long probe sequences.
+            long key = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                TestCase.assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                TestCase.assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            }
+        }
+        TestCase.assertEquals(expected.size(), map.size());
+        for (long key = 0; key < 5000; key++)
+            TestCase.assertEquals(expected.get(key), map.get(key));
+        map.clear();
+        TestCase.assertEquals(0, map.size());
+        TestCase.assertNull(map.get(1));
+    }
+}